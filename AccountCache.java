@@ -0,0 +1,138 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// ============================
+//    계정 캐시 (힙 밖 슬랩)
+// ============================
+
+// 자주 쓰는 계정의 레코드 본문(AccountStore 로그와 같은 형식)을 direct ByteBuffer 하나(슬랩)에
+// 이어 붙여 두고, id 해시 → 슬랩 위치를 기본형 배열 두 개(open addressing)로 찾는다.
+// 캐시된 계정마다 힙에 남는 객체가 없으므로 (조회할 때 만드는 Account는 바로 버려짐)
+// 사용자가 많아도 GC가 살펴볼 객체 수가 늘지 않는다.
+//
+// - 슬랩은 링처럼 돌며 덮어쓴다 (먼저 넣은 것부터 밀려남). 항목: [int 길이][본문]
+// - 슬롯에는 슬랩의 절대 위치(지금까지 쓴 바이트 기준)를 두고, 이미 덮어쓴 위치면 빈 것으로 본다.
+// - 죽은 슬롯이 쌓이면 살아 있는 것만 모아 표를 다시 만든다.
+class AccountCache {
+
+	// 레코드 하나의 대략적인 크기 (표 크기 계산용)
+	private static final int TYPICAL_ENTRY = 64;
+
+	private final ByteBuffer slab;
+	private final int capacity;
+	private long tail;               // 지금까지 쓴 바이트 (절대 위치)
+
+	private long[] slots;            // 절대 위치 + 1 (0이면 빈칸)
+	private int[] hashes;
+	private int used;                // 0이 아닌 슬롯 수 (죽은 것 포함)
+
+	AccountCache(int bytes) {
+		this.capacity = Math.max(bytes, 4096);
+		this.slab = ByteBuffer.allocateDirect(capacity);
+		int size = Integer.highestOneBit(Math.max(capacity / TYPICAL_ENTRY, 64)) * 2;
+		this.slots = new long[size];
+		this.hashes = new int[size];
+	}
+
+	// id의 레코드 본문 (없으면 null)
+	synchronized byte[] get(String id, int hash) {
+		int i = find(id.getBytes(StandardCharsets.UTF_8), hash);
+		if (i < 0) return null;
+
+		int at = (int) ((slots[i] - 1) % capacity);
+		byte[] body = new byte[slab.getInt(at)];
+		slab.get(at + 4, body);
+		return body;
+	}
+
+	// 본문을 넣음 (같은 id가 있으면 새 것으로 바꿈)
+	synchronized void put(String id, int hash, byte[] body) {
+		int size = 4 + body.length;
+		if (size > capacity / 4) return;   // 너무 큰 것은 캐시하지 않음
+
+		// 슬랩 끝에 걸치면 처음부터 (남은 자리는 버림)
+		int at = (int) (tail % capacity);
+		if (at + size > capacity) {
+			tail += capacity - at;
+			at = 0;
+		}
+		long pos = tail;
+		slab.putInt(at, body.length);
+		slab.put(at + 4, body);
+		tail += size;
+
+		byte[] idBytes = id.getBytes(StandardCharsets.UTF_8);
+		int i = find(idBytes, hash);
+		if (i >= 0) {
+			slots[i] = pos + 1;
+			return;
+		}
+
+		if ((used + 1) * 10L > slots.length * 7L) rebuild();
+		int mask = slots.length - 1;
+		for (i = hash & mask; ; i = (i + 1) & mask) {
+			if (slots[i] == 0 || !alive(slots[i])) {
+				if (slots[i] == 0) used++;
+				slots[i] = pos + 1;
+				hashes[i] = hash;
+				return;
+			}
+		}
+	}
+
+	// 살아 있는 id의 슬롯 번호 (없으면 -1). 죽은 슬롯은 지나쳐서 찾음
+	private int find(byte[] id, int hash) {
+		int mask = slots.length - 1;
+		for (int i = hash & mask; ; i = (i + 1) & mask) {
+			long v = slots[i];
+			if (v == 0) return -1;
+			if (hashes[i] == hash && alive(v) && idEquals((int) ((v - 1) % capacity), id)) return i;
+		}
+	}
+
+	// 그 위치 뒤로 capacity 넘게 쓰지 않았으면 아직 덮어쓰이지 않음
+	private boolean alive(long slot) {
+		return tail - (slot - 1) <= capacity;
+	}
+
+	// 본문 첫 필드 [short id 길이][id]와 비교
+	private boolean idEquals(int at, byte[] id) {
+		if ((slab.getShort(at + 4) & 0xffff) != id.length) return false;
+		for (int k = 0; k < id.length; k++) {
+			if (slab.get(at + 6 + k) != id[k]) return false;
+		}
+		return true;
+	}
+
+	// 살아 있는 슬롯만 새 표로 (살아 있는 것이 많으면 표를 키움)
+	private void rebuild() {
+		long[] oldSlots = slots;
+		int[] oldHashes = hashes;
+
+		int live = 0;
+		for (long v : oldSlots) {
+			if (v != 0 && alive(v)) live++;
+		}
+		int size = oldSlots.length;
+		while (live * 10L > size * 5L) size *= 2;
+
+		slots = new long[size];
+		hashes = new int[size];
+		used = 0;
+		int mask = size - 1;
+		for (int j = 0; j < oldSlots.length; j++) {
+			long v = oldSlots[j];
+			if (v == 0 || !alive(v)) continue;
+			int i = oldHashes[j] & mask;
+			while (slots[i] != 0) i = (i + 1) & mask;
+			slots[i] = v;
+			hashes[i] = oldHashes[j];
+			used++;
+		}
+	}
+
+	// 캐시가 차지하는 힙 밖 메모리 (바이트)
+	long offHeapBytes() {
+		return capacity;
+	}
+}
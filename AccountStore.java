@@ -0,0 +1,784 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+// ============================
+//      계정 저장소
+// ============================
+
+// accountdb/accounts.log  계정 레코드 로그 (추가만 함, 이 파일이 곧 write-ahead log)
+// accountdb/accounts.idx  id → 로그 위치 해시 인덱스 (open addressing, 메모리 매핑)
+//
+// - 가입/변경은 커밋 스레드가 모아서(group commit) 로그에 한 번 쓰고 fsync 한 번으로 확정한 뒤
+//   인덱스에 반영한다. 인덱스 헤더의 checkpoint 이후 로그는 시작할 때 다시 읽어 인덱스를 복구한다.
+// - 계정 전체를 메모리에 올리지 않고, 자주 쓰는 계정만 힙 밖 캐시(AccountCache)에 레코드 그대로 둔다.
+//   salt / hash는 바이트 그대로, 이름 / 이메일은 쓸 때만 문자열로 꺼낸다.
+// - 예전 accounts.dat(id salt:hash name email)가 있으면 옮겨 오고, 다 옮긴 뒤 accounts.dat.migrated로 바꾼다
+//   (그 전에 멈췄으면 다음에 열 때 다시 옮김).
+// - 로그 다시 읽기와 옮겨 오기는 openInBackground면 별도 스레드에서 하고, 끝날 때까지 조회는 기다린다
+//   (서버는 그동안 접속을 받아 두고 로그인 전 명령만 loaded() 뒤로 미룬다).
+class AccountStore {
+
+	// 설정 (-Dchat.accounts.*)
+	static final int CACHE_BYTES = Integer.getInteger("chat.accounts.cache.bytes", 2 << 20);   // 계정 약 1만5천 개
+	static final long CHECKPOINT_MS = Long.getLong("chat.accounts.checkpoint.ms", 1000L);
+
+	private static final byte[] LOG_MAGIC = "CHATACC1".getBytes(StandardCharsets.US_ASCII);
+	private static final int RECORD_HEADER = 8;        // 길이 + crc
+
+	// 인덱스 파일: [int magic][int capacity][int count][long checkpoint] + 슬롯(long 위치+1, int 해시)
+	private static final int IDX_MAGIC = 0x43484958;   // "CHIX"
+	private static final int IDX_HEADER = 4 + 4 + 4 + 8;
+	private static final int SLOT = 8 + 4;
+	private static final int MIN_CAPACITY = 1 << 16;
+
+	// 시작할 때 로그를 순서대로 읽는 버퍼 / 예전 파일을 나눠 해석하는 조각 크기
+	private static final int REPLAY_BUFFER = 1 << 20;
+	static final int PARSE_CHUNK = Integer.getInteger("chat.accounts.parse.chunk", 8 << 20);
+
+	// 비밀번호 해시 방식
+	static final byte KDF_SHA256 = 0;   // 예전 방식: sha256(16진수 salt + 비밀번호)
+	static final byte KDF_PBKDF2 = 1;   // PBKDF2-HMAC-SHA256 (iterations회)
+
+	// 계정 한 건
+	// 로그에서 읽은 것은 이름 / 이메일을 쓸 때 본문에서 꺼낸다 (로그인에는 id, salt, hash만 필요)
+	static final class Account {
+		final String id;
+		final byte[] salt;
+		final byte[] hash;
+		final byte kdf;
+		final int iterations;
+
+		private String name, email;
+		private final byte[] body;      // 읽어 온 레코드 본문 (새로 만든 계정은 null)
+		private final int profileAt;    // body에서 이름 필드 위치
+
+		Account(String id, byte[] salt, byte[] hash, String name, String email) {
+			this(id, salt, hash, name, email, KDF_SHA256, 1);
+		}
+
+		Account(String id, byte[] salt, byte[] hash, String name, String email, byte kdf, int iterations) {
+			this.id = id;
+			this.salt = salt;
+			this.hash = hash;
+			this.name = name;
+			this.email = email;
+			this.kdf = kdf;
+			this.iterations = iterations;
+			this.body = null;
+			this.profileAt = 0;
+		}
+
+		// 레코드 본문에서 (id를 이미 알면 넘겨서 다시 만들지 않음)
+		private Account(String id, byte[] body) {
+			ByteBuffer b = ByteBuffer.wrap(body);
+			int idLen = b.getShort() & 0xffff;
+			this.id = id != null ? id : new String(body, 2, idLen, StandardCharsets.UTF_8);
+			b.position(2 + idLen);
+			this.salt = new byte[b.get() & 0xff];
+			b.get(salt);
+			this.hash = new byte[b.get() & 0xff];
+			b.get(hash);
+
+			// 이름 / 이메일은 건너뜀
+			this.profileAt = b.position();
+			b.position(b.position() + 2 + (b.getShort() & 0xffff));
+			b.position(b.position() + 2 + (b.getShort() & 0xffff));
+
+			if (b.remaining() < 5) {
+				this.kdf = KDF_SHA256;
+				this.iterations = 1;
+			} else {
+				this.kdf = b.get();
+				this.iterations = b.getInt();
+			}
+			this.body = body;
+		}
+
+		String name() {
+			if (name == null) name = profileField(0);
+			return name;
+		}
+
+		String email() {
+			if (email == null) email = profileField(1);
+			return email;
+		}
+
+		private String profileField(int n) {
+			ByteBuffer b = ByteBuffer.wrap(body).position(profileAt);
+			if (n == 1) b.position(b.position() + 2 + (b.getShort(b.position()) & 0xffff));
+			return readString(b, b.getShort() & 0xffff);
+		}
+	}
+
+	private final File dir;
+	private final FileChannel log;
+	private long logEnd;                      // 커밋 스레드만 변경
+
+	// 인덱스 (rwLock: 조회는 read, 반영/확장은 write)
+	private final ReentrantReadWriteLock rwLock = new ReentrantReadWriteLock();
+	private File idxFile;
+	private MappedByteBuffer idx;
+	private int capacity, count;
+	private long indexedEnd;                  // 인덱스에 반영된 로그 끝
+	private long checkpointed;                // 인덱스 헤더에 기록된 위치
+
+	// 자주 쓰는 계정의 레코드 본문 (힙 밖)
+	private final AccountCache cache = new AccountCache(CACHE_BYTES);
+
+	// 커밋 대기 중인 요청
+	private static final class Pending {
+		final Account account;
+		final boolean create;      // true: 가입 (중복이면 실패), false: 덮어쓰기
+		final CompletableFuture<Boolean> done = new CompletableFuture<>();
+
+		Pending(Account account, boolean create) {
+			this.account = account;
+			this.create = create;
+		}
+	}
+
+	private final LinkedBlockingQueue<Pending> commitQueue = new LinkedBlockingQueue<>();
+
+	// 로그 다시 읽기 / 옮겨 오기가 끝나면 완료
+	private final CompletableFuture<Void> loaded = new CompletableFuture<>();
+
+	private AccountStore(File dir, FileChannel log) {
+		this.dir = dir;
+		this.log = log;
+	}
+
+
+	// ============================
+	//      열기 / 복구
+	// ============================
+
+	// 다 읽을 때까지 기다렸다가 돌려줌
+	static AccountStore open(File dir, File legacyFile) throws IOException {
+		AccountStore store = openInBackground(dir, legacyFile);
+		try {
+			store.loaded.join();
+		} catch (CompletionException e) {
+			throw e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+		}
+		return store;
+	}
+
+	// 파일만 열고 바로 돌려줌. 로그 다시 읽기 / 옮겨 오기는 "account-load" 스레드에서 (끝나면 loaded())
+	static AccountStore openInBackground(File dir, File legacyFile) throws IOException {
+		if (!dir.exists() && !dir.mkdirs()) throw new IOException("cannot create " + dir);
+
+		File logFile = new File(dir, "accounts.log");
+		boolean fresh = !logFile.exists() || logFile.length() == 0;
+
+		FileChannel ch = FileChannel.open(logFile.toPath(),
+				StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		AccountStore store = new AccountStore(dir, ch);
+
+		if (fresh) {
+			ch.truncate(0);
+			ch.write(ByteBuffer.wrap(LOG_MAGIC), 0);
+			ch.force(true);
+		} else {
+			ByteBuffer m = ByteBuffer.allocate(LOG_MAGIC.length);
+			ch.read(m, 0);
+			if (!Arrays.equals(m.array(), LOG_MAGIC)) throw new IOException("not an account log: " + logFile);
+		}
+		store.logEnd = ch.size();
+		store.openIndex();
+
+		Thread loader = new Thread(() -> store.load(legacyFile), "account-load");
+		loader.setDaemon(true);
+		loader.start();
+		return store;
+	}
+
+	private void load(File legacyFile) {
+		long start = System.nanoTime();
+		try {
+			replay();   // 다 읽기 전에는 조회가 인덱스를 보지 않으므로 잠그지 않음
+
+			// 예전 텍스트 파일에서 옮기기. 다 옮긴 뒤에야 .migrated로 이름을 바꾸므로 중간에 죽었으면
+			// 다음 시작에서 처음부터 다시 옮긴다 (덮어쓰기라 이미 옮긴 계정은 같은 내용으로 한 번 더 기록됨)
+			if (legacyFile != null && legacyFile.exists() && !migratedFile(legacyFile).exists()) migrate(legacyFile);
+		} catch (Throwable e) {
+			System.out.println("계정 저장소 열기 실패: " + e);
+			loaded.completeExceptionally(e);
+			return;
+		}
+
+		Thread committer = new Thread(this::commitLoop, "account-commit");
+		committer.setDaemon(true);
+		committer.start();
+
+		System.out.printf("accounts loaded: %d (%.2fs)%n", size(), (System.nanoTime() - start) / 1e9);
+		loaded.complete(null);
+	}
+
+	// 다 읽었으면 완료되는 future (실패하면 예외로 완료)
+	CompletableFuture<Void> loaded() {
+		return loaded;
+	}
+
+	boolean isLoaded() {
+		return loaded.isDone() && !loaded.isCompletedExceptionally();
+	}
+
+	private void openIndex() throws IOException {
+		idxFile = new File(dir, "accounts.idx");
+		if (idxFile.exists() && idxFile.length() >= IDX_HEADER) {
+			MappedByteBuffer m = mapIndex(idxFile, idxFile.length());
+			int cap = m.getInt(4);
+			if (m.getInt(0) == IDX_MAGIC && Integer.bitCount(cap) == 1
+					&& idxFile.length() == IDX_HEADER + (long) cap * SLOT) {
+				idx = m;
+				capacity = cap;
+				count = m.getInt(8);
+				indexedEnd = checkpointed = Math.min(m.getLong(12), logEnd);
+				return;
+			}
+			System.out.println("accounts.idx 손상 — 로그에서 다시 만듦");
+		}
+
+		// 새 인덱스 (로그 처음부터 다시 반영)
+		idx = createIndex(idxFile, MIN_CAPACITY);
+		capacity = MIN_CAPACITY;
+		count = 0;
+		indexedEnd = checkpointed = LOG_MAGIC.length;
+	}
+
+	private static MappedByteBuffer mapIndex(File f, long size) throws IOException {
+		try (FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			return ch.map(FileChannel.MapMode.READ_WRITE, 0, size);
+		}
+	}
+
+	private static MappedByteBuffer createIndex(File f, int cap) throws IOException {
+		f.delete();
+		MappedByteBuffer m = mapIndex(f, IDX_HEADER + (long) cap * SLOT);
+		m.putInt(0, IDX_MAGIC);
+		m.putInt(4, cap);
+		m.putInt(8, 0);
+		m.putLong(12, LOG_MAGIC.length);
+		return m;
+	}
+
+	// checkpoint 이후의 로그를 인덱스에 반영. 끝부분이 잘린 레코드면 잘라낸다.
+	// 큰 버퍼로 순서대로 읽고 (레코드마다 시스템 호출 두 번 하지 않도록) id만 꺼낸다.
+	private void replay() throws IOException {
+		long pos = indexedEnd;
+		ByteBuffer buf = ByteBuffer.allocate(REPLAY_BUFFER);
+		long bufStart = pos;   // buf[0]의 로그 위치
+		buf.limit(0);
+		CRC32 crc = new CRC32();
+
+		while (pos + RECORD_HEADER <= logEnd) {
+			if (pos + RECORD_HEADER > bufStart + buf.limit()) {
+				buf = fill(buf, pos, RECORD_HEADER);
+				bufStart = pos;
+			}
+			int len = buf.getInt((int) (pos - bufStart));
+			if (len <= 0 || pos + RECORD_HEADER + len > logEnd) break;
+			if (pos + RECORD_HEADER + len > bufStart + buf.limit()) {
+				buf = fill(buf, pos, RECORD_HEADER + len);
+				bufStart = pos;
+			}
+
+			int at = (int) (pos - bufStart);
+			crc.reset();
+			crc.update(buf.array(), at + RECORD_HEADER, len);
+			if ((int) crc.getValue() != buf.getInt(at + 4)) break;
+
+			// 본문 첫 필드가 id
+			int idLen = buf.getShort(at + RECORD_HEADER) & 0xffff;
+			indexPut(new String(buf.array(), at + RECORD_HEADER + 2, idLen, StandardCharsets.UTF_8), pos);
+			pos += RECORD_HEADER + len;
+		}
+
+		if (pos < logEnd) {
+			System.out.println("accounts.log 끝부분 " + (logEnd - pos) + " 바이트 잘라냄");
+			log.truncate(pos);
+			logEnd = pos;
+		}
+		indexedEnd = pos;
+		checkpoint();
+	}
+
+
+	// pos부터 최소 need바이트를 버퍼에 읽어 옴 (부족하면 버퍼를 키움)
+	private ByteBuffer fill(ByteBuffer buf, long pos, int need) throws IOException {
+		if (need > buf.capacity()) buf = ByteBuffer.allocate(need);
+		buf.clear();
+		while (buf.position() < need) {
+			if (log.read(buf, pos + buf.position()) < 0) throw new EOFException();
+		}
+		buf.flip();
+		return buf;
+	}
+
+
+	// ============================
+	//      레코드 형식
+	// ============================
+
+	// [short id][byte salt][byte hash][short name][short email] (각각 길이 + 바이트)
+	// + [byte kdf][int iterations] (없으면 예전 SHA-256 방식)
+	private static byte[] encode(Account a) {
+		byte[] id = a.id.getBytes(StandardCharsets.UTF_8);
+		byte[] name = a.name().getBytes(StandardCharsets.UTF_8);
+		byte[] email = a.email().getBytes(StandardCharsets.UTF_8);
+
+		ByteBuffer b = ByteBuffer.allocate(2 + id.length + 1 + a.salt.length + 1 + a.hash.length
+				+ 2 + name.length + 2 + email.length + 1 + 4);
+		b.putShort((short) id.length).put(id);
+		b.put((byte) a.salt.length).put(a.salt);
+		b.put((byte) a.hash.length).put(a.hash);
+		b.putShort((short) name.length).put(name);
+		b.putShort((short) email.length).put(email);
+		b.put(a.kdf).putInt(a.iterations);
+		return b.array();
+	}
+
+	// 본문의 id가 id와 같은지
+	private static boolean idEquals(byte[] body, String id) {
+		int len = ((body[0] & 0xff) << 8) | (body[1] & 0xff);
+		return new String(body, 2, len, StandardCharsets.UTF_8).equals(id);
+	}
+
+	private static String readString(ByteBuffer b, int len) {
+		String s = new String(b.array(), b.position(), len, StandardCharsets.UTF_8);
+		b.position(b.position() + len);
+		return s;
+	}
+
+	private byte[] readBody(long pos) throws IOException {
+		ByteBuffer head = ByteBuffer.allocate(RECORD_HEADER);
+		log.read(head, pos);
+		ByteBuffer body = ByteBuffer.allocate(head.getInt(0));
+		while (body.hasRemaining()) {
+			if (log.read(body, pos + RECORD_HEADER + body.position()) < 0) throw new EOFException();
+		}
+		return body.array();
+	}
+
+
+	// ============================
+	//      해시 인덱스
+	// ============================
+
+	private static int hashOf(String id) {
+		int h = id.hashCode() * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	// id의 로그 위치 (없으면 -1). read lock 안에서 호출
+	private long indexGet(String id) throws IOException {
+		int h = hashOf(id);
+		int mask = capacity - 1;
+		for (int i = h & mask; ; i = (i + 1) & mask) {
+			int at = IDX_HEADER + i * SLOT;
+			long v = idx.getLong(at);
+			if (v == 0) return -1;
+			if (idx.getInt(at + 8) == h) {
+				long pos = v - 1;
+				// 해시 충돌일 수 있으므로 실제 id 확인
+				if (idEquals(readBody(pos), id)) return pos;
+			}
+		}
+	}
+
+	// id → pos 기록 (같은 id면 덮어씀). write lock 안 또는 시작 시 호출
+	private void indexPut(String id, long pos) throws IOException {
+		if ((count + 1) * 10L > capacity * 7L) grow();
+
+		int h = hashOf(id);
+		int mask = capacity - 1;
+		for (int i = h & mask; ; i = (i + 1) & mask) {
+			int at = IDX_HEADER + i * SLOT;
+			long v = idx.getLong(at);
+			if (v == 0) {
+				idx.putLong(at, pos + 1);
+				idx.putInt(at + 8, h);
+				idx.putInt(8, ++count);
+				return;
+			}
+			if (idx.getInt(at + 8) == h && idEquals(readBody(v - 1), id)) {
+				idx.putLong(at, pos + 1);
+				return;
+			}
+		}
+	}
+
+	// 두 배 크기로 새 인덱스를 만들어 교체 (저장된 해시만으로 재배치)
+	private void grow() throws IOException {
+		int cap = capacity * 2;
+		File tmp = new File(dir, "accounts.idx.tmp");
+		MappedByteBuffer next = createIndex(tmp, cap);
+
+		int mask = cap - 1;
+		for (int i = 0; i < capacity; i++) {
+			int at = IDX_HEADER + i * SLOT;
+			long v = idx.getLong(at);
+			if (v == 0) continue;
+			int h = idx.getInt(at + 8);
+			int j = h & mask;
+			while (next.getLong(IDX_HEADER + j * SLOT) != 0) j = (j + 1) & mask;
+			next.putLong(IDX_HEADER + j * SLOT, v);
+			next.putInt(IDX_HEADER + j * SLOT + 8, h);
+		}
+		next.putInt(8, count);
+		next.putLong(12, checkpointed);
+		next.force();
+
+		Files.move(tmp.toPath(), idxFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		idx = next;
+		capacity = cap;
+	}
+
+	// 인덱스 슬롯을 디스크에 내린 뒤에만 checkpoint를 올린다 (반대 순서면 복구 때 항목을 잃음)
+	private void checkpoint() {
+		if (checkpointed == indexedEnd) return;
+		idx.force();
+		idx.putLong(12, indexedEnd);
+		idx.force(0, IDX_HEADER);
+		checkpointed = indexedEnd;
+	}
+
+
+	// ============================
+	//        조회
+	// ============================
+
+	// 시작할 때 다 읽기 전이면 기다림 (서버는 로그인 전 명령을 loaded() 뒤로 미루므로 보통 바로 지나감)
+	Account get(String id) {
+		if (!loaded.isDone()) loaded.join();
+
+		int h = hashOf(id);
+		byte[] body = cache.get(id, h);
+		if (body != null) return new Account(id, body);
+
+		rwLock.readLock().lock();
+		try {
+			long pos = indexGet(id);
+			if (pos < 0) return null;
+			body = readBody(pos);
+		} catch (IOException e) {
+			System.out.println("계정 읽기 실패: " + e);
+			return null;
+		} finally {
+			rwLock.readLock().unlock();
+		}
+
+		cache.put(id, h, body);
+		return new Account(id, body);
+	}
+
+	boolean exists(String id) {
+		return get(id) != null;
+	}
+
+	// 디스크 기록을 기다리는 가입/수정 수
+	int commitQueueDepth() {
+		return commitQueue.size();
+	}
+
+	int size() {
+		rwLock.readLock().lock();
+		try {
+			return count;
+		} finally {
+			rwLock.readLock().unlock();
+		}
+	}
+
+
+	// ============================
+	//     기록 (group commit)
+	// ============================
+
+	// 가입. 같은 id가 있으면 false로 완료
+	CompletableFuture<Boolean> register(Account a) {
+		Pending p = new Pending(a, true);
+		commitQueue.add(p);
+		return p.done;
+	}
+
+	// 기존 계정 덮어쓰기 (비밀번호 형식 변경 등)
+	CompletableFuture<Boolean> update(Account a) {
+		Pending p = new Pending(a, false);
+		commitQueue.add(p);
+		return p.done;
+	}
+
+	// 커밋 스레드: 쌓인 요청을 한 번에 쓰고 fsync 한 번으로 확정
+	private void commitLoop() {
+		List<Pending> batch = new ArrayList<>();
+		long lastCheckpoint = System.currentTimeMillis();
+
+		while (true) {
+			try {
+				Pending first = commitQueue.poll(CHECKPOINT_MS, TimeUnit.MILLISECONDS);
+				if (first != null) {
+					batch.add(first);
+					commitQueue.drainTo(batch, 1023);
+					commitBatch(batch);
+					batch.clear();
+				}
+
+				long now = System.currentTimeMillis();
+				if (now - lastCheckpoint >= CHECKPOINT_MS) {
+					rwLock.writeLock().lock();
+					try {
+						checkpoint();
+					} finally {
+						rwLock.writeLock().unlock();
+					}
+					lastCheckpoint = now;
+				}
+			} catch (Exception e) {
+				System.out.println("계정 저장 실패: " + e);
+				for (Pending p : batch) p.done.completeExceptionally(e);
+				batch.clear();
+			}
+		}
+	}
+
+	private void commitBatch(List<Pending> batch) throws IOException {
+		// 중복 확인 (이 묶음 안의 중복 포함)
+		Set<String> inBatch = new HashSet<>();
+		List<Pending> accepted = new ArrayList<>();
+		for (Pending p : batch) {
+			if (p.create && (inBatch.contains(p.account.id) || exists(p.account.id))) {
+				p.done.complete(false);
+				continue;
+			}
+			inBatch.add(p.account.id);
+			accepted.add(p);
+		}
+		if (accepted.isEmpty()) return;
+
+		// 한 번에 쓰기
+		int total = 0;
+		byte[][] bodies = new byte[accepted.size()][];
+		for (int i = 0; i < bodies.length; i++) {
+			bodies[i] = encode(accepted.get(i).account);
+			total += RECORD_HEADER + bodies[i].length;
+		}
+
+		ByteBuffer buf = ByteBuffer.allocate(total);
+		long[] positions = new long[bodies.length];
+		CRC32 crc = new CRC32();
+		for (int i = 0; i < bodies.length; i++) {
+			positions[i] = logEnd + buf.position();
+			crc.reset();
+			crc.update(bodies[i]);
+			buf.putInt(bodies[i].length).putInt((int) crc.getValue()).put(bodies[i]);
+		}
+		buf.flip();
+		while (buf.hasRemaining()) log.write(buf, logEnd + buf.position());
+		log.force(false);
+		logEnd += total;
+
+		// 확정된 뒤 인덱스와 캐시에 반영
+		rwLock.writeLock().lock();
+		try {
+			for (int i = 0; i < bodies.length; i++) indexPut(accepted.get(i).account.id, positions[i]);
+			indexedEnd = logEnd;
+		} finally {
+			rwLock.writeLock().unlock();
+		}
+
+		for (int i = 0; i < bodies.length; i++) {
+			String id = accepted.get(i).account.id;
+			cache.put(id, hashOf(id), bodies[i]);
+		}
+		for (Pending p : accepted) p.done.complete(true);
+	}
+
+
+	// ============================
+	//   예전 accounts.dat 옮기기
+	// ============================
+
+	// 형식: id salt:hash name email (salt, hash는 16진수)
+	// 해석은 조각마다 병렬로 하고, 기록은 조각 순서대로 묶어서 한다.
+	private void migrate(File legacy) throws IOException {
+		int migrated = parseLegacy(legacy, accounts -> {
+			List<Pending> batch = new ArrayList<>(accounts.size());
+			for (Account a : accounts) batch.add(new Pending(a, false));
+			try {
+				commitBatch(batch);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		});
+
+		rwLock.writeLock().lock();
+		try {
+			checkpoint();
+		} finally {
+			rwLock.writeLock().unlock();
+		}
+
+		File done = migratedFile(legacy);
+		Files.move(legacy.toPath(), done.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		System.out.println("accounts.dat → " + dir + " 이전 완료: " + migrated + "건 (원본: " + done + ")");
+	}
+
+	// 다 옮긴 예전 파일 (이것이 있으면 옮기기가 끝난 것)
+	private static File migratedFile(File legacy) {
+		return new File(legacy.getPath() + ".migrated");
+	}
+
+	// 파일을 PARSE_CHUNK 크기 조각(줄 경계)으로 나눠 fork/join 풀에서 동시에 해석하고,
+	// 조각 순서대로 sink에 넘긴다. 한 번에 (병렬 수 + 1)개 조각만 메모리에 둔다.
+	// 해석한 계정 수를 돌려준다.
+	static int parseLegacy(File legacy, Consumer<List<Account>> sink) throws IOException {
+		try (FileChannel ch = FileChannel.open(legacy.toPath(), StandardOpenOption.READ)) {
+			long size = ch.size();
+			List<long[]> ranges = new ArrayList<>();
+			for (long start = 0; start < size; ) {
+				long end = lineStartAfter(ch, Math.min(start + PARSE_CHUNK, size), size);
+				ranges.add(new long[] {start, end});
+				start = end;
+			}
+
+			int wave = ForkJoinPool.getCommonPoolParallelism() + 1;
+			int parsed = 0;
+			for (int i = 0; i < ranges.size(); i += wave) {
+				List<List<Account>> chunks = ranges.subList(i, Math.min(i + wave, ranges.size()))
+						.parallelStream()
+						.map(r -> parseRange(ch, r[0], r[1]))
+						.toList();
+				for (List<Account> c : chunks) {
+					parsed += c.size();
+					sink.accept(c);
+				}
+			}
+			return parsed;
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	// pos 이후 첫 줄의 시작 위치 (pos가 줄 시작이거나 파일 끝이면 그대로)
+	private static long lineStartAfter(FileChannel ch, long pos, long size) throws IOException {
+		ByteBuffer b = ByteBuffer.allocate(4096);
+		while (pos < size) {
+			b.clear();
+			int n = ch.read(b, pos - 1);
+			for (int i = 0; i < n; i++) {
+				if (b.get(i) == '\n') return pos + i;
+			}
+			pos += n;
+		}
+		return size;
+	}
+
+	private static List<Account> parseRange(FileChannel ch, long start, long end) {
+		byte[] b = new byte[(int) (end - start)];
+		ByteBuffer buf = ByteBuffer.wrap(b);
+		try {
+			while (buf.hasRemaining()) {
+				if (ch.read(buf, start + buf.position()) < 0) throw new EOFException();
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+
+		List<Account> out = new ArrayList<>(b.length / 120 + 16);
+		int[] tok = new int[8];   // 토큰 4개의 시작, 끝
+		for (int line = 0; line < b.length; ) {
+			int eol = line;
+			while (eol < b.length && b[eol] != '\n') eol++;
+			Account a = parseLegacy(b, line, eol, tok);
+			if (a != null) out.add(a);
+			line = eol + 1;
+		}
+		return out;
+	}
+
+	// 한 줄 해석 (형식이 맞지 않으면 null). 정규식 / 줄 문자열 없이 바이트에서 바로 자른다.
+	private static Account parseLegacy(byte[] b, int from, int to, int[] tok) {
+		int n = 0;
+		for (int i = from; i < to && n < 4; ) {
+			while (i < to && isSpace(b[i])) i++;
+			if (i == to) break;
+			tok[n * 2] = i;
+			while (i < to && !isSpace(b[i])) i++;
+			tok[n * 2 + 1] = i;
+			n++;
+		}
+		if (n == 0) return null;
+
+		// 저장 형식이 맞는지 확인
+		int colon = -1;
+		if (n == 4) {
+			for (int i = tok[2]; i < tok[3]; i++) {
+				if (b[i] == ':') {
+					colon = i;
+					break;
+				}
+			}
+		}
+		byte[] salt = null, hash = null;
+		if (colon >= 0) {
+			int hashEnd = colon + 1;
+			while (hashEnd < tok[3] && b[hashEnd] != ':') hashEnd++;
+			salt = hexToBytes(b, tok[2], colon);
+			hash = hexToBytes(b, colon + 1, hashEnd);
+		}
+		if (salt == null || hash == null) {
+			// 잘못된(구버전) 비밀번호 형식은 무시
+			System.out.println("⚠ 구버전 비밀번호 포맷 발견 — 무시됨: " + new String(b, from, to - from, StandardCharsets.UTF_8).trim());
+			return null;
+		}
+
+		return new Account(utf8(b, tok[0], tok[1]), salt, hash, utf8(b, tok[4], tok[5]), utf8(b, tok[6], tok[7]));
+	}
+
+	// String.split("\\s+")와 같은 공백
+	private static boolean isSpace(byte c) {
+		return c == ' ' || c == '\t' || c == '\r' || c == '\f' || c == 0x0b;
+	}
+
+	private static String utf8(byte[] b, int from, int to) {
+		return new String(b, from, to - from, StandardCharsets.UTF_8);
+	}
+
+	// 16진수 구간 → 바이트 (16진수가 아니면 null)
+	private static byte[] hexToBytes(byte[] b, int from, int to) {
+		byte[] out = new byte[(to - from) / 2];
+		for (int i = 0; i < out.length; i++) {
+			int hi = Character.digit(b[from + i * 2], 16);
+			int lo = Character.digit(b[from + i * 2 + 1], 16);
+			if (hi < 0 || lo < 0) return null;
+			out[i] = (byte) (hi << 4 | lo);
+		}
+		return out;
+	}
+
+	static byte[] hexToBytes(String hex) {
+		byte[] b = new byte[hex.length() / 2];
+		for (int i = 0; i < b.length; i++) {
+			b[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+		}
+		return b;
+	}
+}
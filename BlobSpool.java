@@ -0,0 +1,413 @@
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.util.HexFormat;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// ============================
+//    파일 전송 (보관 + 별도 포트)
+// ============================
+
+// 채팅 연결로는 "이 파일을 보내겠다 / 받겠다"는 짧은 줄만 주고받고, 파일 내용은 별도 포트의
+// 연결로 오간다. 큰 파일이 채팅 송신 대기열(Outbox)에 끼어들거나 힙으로 올라오지 않도록.
+//
+//   채팅 연결  /send 받는사람|#방 크기 이름  →  UPLOAD <id> <포트> <허가표>   (또는 UPLOADFAIL 이유)
+//              /get <id>                     →  FILE <id> <포트> <허가표> <크기> <보낸사람> <이름>
+//   파일 포트  PUT <id> <허가표>              →  OK <이미 받은 바이트>, 나머지 바이트, DONE
+//              GET <id> <허가표> <시작 위치>  →  OK <크기>, 시작 위치부터 끝까지
+//
+// - 받기는 FileChannel.transferFrom, 보내기는 transferTo(리눅스에서는 sendfile)로 CHUNK씩 한다.
+//   바이트는 커널(또는 JDK의 임시 direct 버퍼)만 거치고, 한 번에 CHUNK만 붙잡으므로 느린 상대는
+//   TCP 흐름 제어로 자기 연결만 늦춘다. 동시에 도는 전송은 THREADS개까지 (나머지는 잠시 대기).
+// - 끊기면 다시 PUT/GET 하면 된다. 받은 만큼은 <id>.part에 남아 있고 OK가 이어 받을 위치를 알려 준다.
+// - 허가표는 재접속 토큰과 같은 키로 서명하므로 상태 없이 확인하고 서버를 다시 시작해도 유효하다.
+// - 올라온 파일은 TTL_MS 뒤에 지운다. 다 올라오지 않은 것도 같다.
+// - 파일은 받은 노드에만 있다. 클러스터의 다른 노드에서 /get 하면 찾지 못한다.
+class BlobSpool {
+
+	// 협상 이름 (CAPS 줄에 쓰임)
+	static final String CAP = "files";
+
+	// 파일 포트 (-Dchat.file.port, 기본은 채팅 포트 + 2)
+	static final int PORT = Integer.getInteger("chat.file.port", ChatServer.PORT + 2);
+
+	// 파일 하나 / 보관 전체 최대 크기, 보관 기간
+	static final long MAX_FILE = Long.getLong("chat.file.max.bytes", 256L * 1024 * 1024);
+	static final long QUOTA = Long.getLong("chat.file.quota.bytes", 4L * 1024 * 1024 * 1024);
+	static final long TTL_MS = Long.getLong("chat.file.ttl.ms", 24L * 60 * 60 * 1000);
+
+	// transferFrom/transferTo 한 번에 옮기는 양, 동시 전송 수, 진행이 없으면 끊는 시간
+	static final long CHUNK = Long.getLong("chat.file.chunk", 1024 * 1024);
+	static final int THREADS = Integer.getInteger("chat.file.threads", 16);
+	static final long STALL_MS = Long.getLong("chat.file.stall.ms", 60_000);
+
+	static final int MAX_NAME = 200;
+
+	// 파일 포트 첫 줄 최대 길이
+	private static final int MAX_HEADER = 512;
+
+	// 올린 파일 하나
+	static final class Blob {
+		final String id;
+		final String from;
+		final String to;       // 받는 사람 아이디 또는 "#방이름"
+		final String name;
+		final long size;
+		final long created;
+		volatile boolean complete;
+
+		Blob(String id, String from, String to, String name, long size, long created) {
+			this.id = id;
+			this.from = from;
+			this.to = to;
+			this.name = name;
+			this.size = size;
+			this.created = created;
+		}
+
+		boolean toRoom() {
+			return to.startsWith("#");
+		}
+
+		String room() {
+			return to.substring(1);
+		}
+	}
+
+	// 파일이 다 올라왔을 때 (전송 스레드에서 호출)
+	interface Listener {
+		void onUploaded(Blob b);
+	}
+
+	private final File dir;
+	private final SessionTokens tokens;
+	private Listener listener;
+
+	private final ConcurrentHashMap<String, Blob> blobs = new ConcurrentHashMap<>();
+	private final AtomicLong reserved = new AtomicLong();   // 보관 중인 파일 크기 합 (올라오는 중인 것 포함)
+	private final AtomicInteger active = new AtomicInteger();
+	private final SecureRandom random = new SecureRandom();
+
+	// 진행이 멈춘 전송 끊기 (전송마다 타이머를 만들지 않음)
+	private final TimingWheel stalls = new TimingWheel("file-stall", 1000, 64);
+
+	private BlobSpool(File dir, SessionTokens tokens) {
+		this.dir = dir;
+		this.tokens = tokens;
+	}
+
+	// 보관 폴더를 열고 남아 있는 파일 정보를 읽음 (기한이 지난 것은 지움)
+	static BlobSpool open(File dir, SessionTokens tokens) throws IOException {
+		if (!dir.exists() && !dir.mkdirs()) throw new IOException("cannot create " + dir);
+
+		BlobSpool s = new BlobSpool(dir, tokens);
+		File[] metas = dir.listFiles((d, name) -> name.endsWith(".meta"));
+		if (metas != null) {
+			for (File f : metas) s.load(f);
+		}
+		s.sweep();
+		System.out.println("file spool: " + s.blobs.size() + " files, " + s.reserved.get() + " bytes");
+		return s;
+	}
+
+	// <id>.meta 한 줄: 보낸사람 \t 받는사람 \t 크기 \t 만든 시각 \t 이름
+	private void load(File meta) {
+		String id = meta.getName().substring(0, meta.getName().length() - 5);
+		try {
+			String[] p = new String(Files.readAllBytes(meta.toPath()), StandardCharsets.UTF_8).trim().split("\t", 5);
+			Blob b = new Blob(id, p[0], p[1], p[4], Long.parseLong(p[2]), Long.parseLong(p[3]));
+			b.complete = data(id).exists();
+			blobs.put(id, b);
+			reserved.addAndGet(b.size);
+		} catch (Exception e) {
+			System.out.println("file spool: bad meta " + meta + ": " + e);
+			delete(id);
+		}
+	}
+
+	private File meta(String id) {
+		return new File(dir, id + ".meta");
+	}
+
+	private File part(String id) {
+		return new File(dir, id + ".part");
+	}
+
+	private File data(String id) {
+		return new File(dir, id);
+	}
+
+	private void delete(String id) {
+		meta(id).delete();
+		part(id).delete();
+		data(id).delete();
+	}
+
+
+	// ============================
+	//      올리기 / 받기 준비
+	// ============================
+
+	// 새 파일 자리를 만듦 (보관 용량이 모자라면 null)
+	Blob offer(String from, String to, String name, long size) throws IOException {
+		if (reserved.addAndGet(size) > QUOTA) {
+			reserved.addAndGet(-size);
+			sweep();
+			return null;
+		}
+
+		byte[] r = new byte[16];
+		random.nextBytes(r);
+		Blob b = new Blob(HexFormat.of().formatHex(r), from, to, name, size, System.currentTimeMillis());
+		try {
+			String meta = b.from + "\t" + b.to + "\t" + b.size + "\t" + b.created + "\t" + b.name;
+			Files.write(meta(b.id).toPath(), meta.getBytes(StandardCharsets.UTF_8));
+		} catch (IOException e) {
+			reserved.addAndGet(-size);
+			throw e;
+		}
+		blobs.put(b.id, b);
+		return b;
+	}
+
+	Blob get(String id) {
+		return blobs.get(id);
+	}
+
+	String putTicket(Blob b) {
+		return tokens.ticket("put " + b.id);
+	}
+
+	String getTicket(Blob b) {
+		return tokens.ticket("get " + b.id);
+	}
+
+	// 기한이 지난 파일 지우기 (열 때, 용량이 모자랄 때, 한 시간마다)
+	void sweep() {
+		long old = System.currentTimeMillis() - TTL_MS;
+		for (Blob b : blobs.values()) {
+			if (b.created < old && blobs.remove(b.id, b)) {
+				delete(b.id);
+				reserved.addAndGet(-b.size);
+			}
+		}
+	}
+
+
+	// ============================
+	//      파일 포트
+	// ============================
+
+	void start(Listener listener) throws IOException {
+		this.listener = listener;
+
+		ServerSocketChannel server = ServerSocketChannel.open();
+		server.bind(new InetSocketAddress(PORT), 128);
+
+		// 넘치는 연결은 대기열에서 기다리고, 그것도 차면 끊음 (클라이언트가 다시 시도)
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(THREADS, THREADS, 60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<>(THREADS * 4), r -> {
+					Thread t = new Thread(r, "file-transfer");
+					t.setDaemon(true);
+					return t;
+				});
+
+		Thread t = new Thread(() -> {
+			while (true) {
+				try {
+					SocketChannel ch = server.accept();
+					try {
+						pool.execute(() -> serve(ch));
+					} catch (RejectedExecutionException e) {
+						ch.close();
+					}
+				} catch (IOException e) {
+					System.out.println("file port: " + e);
+				}
+			}
+		}, "file-accept");
+		t.setDaemon(true);
+		t.start();
+
+		Thread sweeper = new Thread(() -> {
+			while (true) {
+				try {
+					Thread.sleep(Math.min(TTL_MS, 60 * 60 * 1000));
+				} catch (InterruptedException e) {
+					return;
+				}
+				sweep();
+			}
+		}, "file-sweep");
+		sweeper.setDaemon(true);
+		sweeper.start();
+
+		System.out.println("file port: " + PORT);
+	}
+
+	// 진행이 STALL_MS 동안 없으면 연결을 끊음 (블로킹 채널에는 읽기 시간 제한이 없으므로)
+	private final class Stall extends TimingWheel.Timeout {
+		final SocketChannel ch;
+		volatile long progress = TimingWheel.now();
+
+		Stall(SocketChannel ch) {
+			this.ch = ch;
+		}
+
+		@Override
+		long expire(long now) {
+			if (now - progress < STALL_MS) return progress + STALL_MS;
+			try { ch.close(); } catch (IOException e) {}
+			return TimingWheel.DONE;
+		}
+	}
+
+	private void serve(SocketChannel ch) {
+		Stall stall = new Stall(ch);
+		stalls.schedule(stall, stall.progress + STALL_MS);
+		active.incrementAndGet();
+		try (ch) {
+			ch.setOption(StandardSocketOptions.TCP_NODELAY, true);
+			String[] p = readLine(ch).split(" ");
+			Blob b = p.length >= 3 ? blobs.get(p[1]) : null;
+
+			if (p[0].equals("PUT") && p.length == 3 && b != null && tokens.checkTicket("put " + b.id, p[2])) {
+				put(ch, b, stall);
+			} else if (p[0].equals("GET") && p.length == 4 && b != null && tokens.checkTicket("get " + b.id, p[2])) {
+				get(ch, b, Long.parseLong(p[3]), stall);
+			} else {
+				reply(ch, "ERR no such file");
+			}
+		} catch (IOException | RuntimeException e) {
+			// 끊김 / 잘못된 요청 (받던 것은 .part에 남아 다시 이어 받음)
+		} finally {
+			active.decrementAndGet();
+			stalls.cancel(stall);
+		}
+	}
+
+	// 받은 만큼 알려 주고 나머지를 파일에 바로 씀
+	private void put(SocketChannel ch, Blob b, Stall stall) throws IOException {
+		if (b.complete) {
+			replyComplete(ch, b);
+			return;
+		}
+
+		synchronized (b) {   // 같은 파일을 두 연결이 동시에 올리지 않도록
+			// 기다리는 동안 앞 연결이 다 올렸으면 (.part는 이미 옮겨짐) 다시 받지 않음
+			if (b.complete) {
+				replyComplete(ch, b);
+				return;
+			}
+
+			File part = part(b.id);
+			try (FileChannel fc = FileChannel.open(part.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+				long pos = Math.min(fc.size(), b.size);
+				fc.truncate(pos);
+				reply(ch, "OK " + pos);
+
+				while (pos < b.size) {
+					long n = fc.transferFrom(ch, pos, Math.min(CHUNK, b.size - pos));
+					if (n <= 0) return;   // 상대가 끊음 (블로킹 채널이므로 0은 끝)
+					pos += n;
+					stall.progress = TimingWheel.now();
+					ServerMetrics.fileBytesIn.add(n);
+				}
+				fc.force(false);
+			}
+			Files.move(part.toPath(), data(b.id).toPath(), StandardCopyOption.ATOMIC_MOVE);
+			b.complete = true;
+		}
+
+		ServerMetrics.filesUploaded.increment();
+		reply(ch, "DONE");
+		listener.onUploaded(b);
+	}
+
+	// 이미 다 받은 파일: 전부 받았다고 알리고 끝냄
+	private static void replyComplete(SocketChannel ch, Blob b) throws IOException {
+		reply(ch, "OK " + b.size);
+		reply(ch, "DONE");
+	}
+
+	// 시작 위치부터 끝까지 소켓으로 바로 보냄
+	private void get(SocketChannel ch, Blob b, long from, Stall stall) throws IOException {
+		if (!b.complete || from < 0 || from > b.size) {
+			reply(ch, "ERR not available");
+			return;
+		}
+
+		try (FileChannel fc = FileChannel.open(data(b.id).toPath(), StandardOpenOption.READ)) {
+			reply(ch, "OK " + b.size);
+			long pos = from;
+			while (pos < b.size) {
+				long n = fc.transferTo(pos, Math.min(CHUNK, b.size - pos), ch);
+				if (n <= 0) return;
+				pos += n;
+				stall.progress = TimingWheel.now();
+				ServerMetrics.fileBytesOut.add(n);
+			}
+		}
+		ServerMetrics.filesDownloaded.increment();
+	}
+
+	// 첫 줄은 한 바이트씩 읽음 (뒤에 오는 파일 내용을 미리 읽어 버리지 않도록)
+	private static String readLine(SocketChannel ch) throws IOException {
+		ByteBuffer one = ByteBuffer.allocate(1);
+		ByteArrayOutputStream line = new ByteArrayOutputStream();
+		while (true) {
+			one.clear();
+			if (ch.read(one) < 0) throw new EOFException();
+			byte c = one.get(0);
+			if (c == '\n') break;
+			if (line.size() >= MAX_HEADER) throw new IOException("header too long");
+			if (c != '\r') line.write(c);
+		}
+		return line.toString(StandardCharsets.UTF_8);
+	}
+
+	private static void reply(SocketChannel ch, String line) throws IOException {
+		ByteBuffer b = ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.UTF_8));
+		while (b.hasRemaining()) ch.write(b);
+	}
+
+	// "1.5MB" 같은 크기 표시
+	static String sizeText(long n) {
+		if (n < 1024) return n + "B";
+		if (n < 1024 * 1024) return String.format("%.1fKB", n / 1024.0);
+		if (n < 1024L * 1024 * 1024) return String.format("%.1fMB", n / (1024.0 * 1024));
+		return String.format("%.1fGB", n / (1024.0 * 1024 * 1024));
+	}
+
+
+	// ============================
+	//      지표
+	// ============================
+
+	long bytes() {
+		return reserved.get();
+	}
+
+	int count() {
+		return blobs.size();
+	}
+
+	int activeTransfers() {
+		return active.get();
+	}
+}
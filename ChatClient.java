@@ -1,344 +1,546 @@
-import java.awt.*;
-import java.io.*;
-import java.net.*;
-import java.util.*;
-import javax.swing.*;
-
-public class ChatClient {
-
-    // 최근 ID 체크 결과 저장 (중복검사 후 회원가입 버튼 활성화에 사용)
-    volatile boolean lastIdCheckOk = false;
-    volatile String lastCheckedId = null;
-
-    // 서버 접속 정보
-    String serverIp;
-    int serverPort;
-
-    // 서버와의 입출력 스트림
-    Scanner in;
-    PrintWriter out;
-
-    // 로그인 창을 다시 띄울 때 사용
-    JDialog loginDialog = null;
-
-    // 메인 채팅 UI
-    JFrame frame = new JFrame("ChatChat");
-    JTextField textField = new JTextField(50);
-    JTextArea messageArea = new JTextArea(16, 50);
-
-    public ChatClient() {
-
-        // ▼ 채팅 입력창 panel 구성
-        JPanel southPanel = new JPanel(new BorderLayout());
-        southPanel.add(textField, BorderLayout.CENTER);
-        frame.getContentPane().add(southPanel, BorderLayout.SOUTH);
-
-        // 기본 서버 주소
-        serverIp = "localhost";
-        serverPort = 59001;
-
-        // ▼ server_info.dat 에서 서버 정보 로드 (있을 경우)
-        File configFile = new File("server_info.dat");
-        if (configFile.exists()) {
-            try (BufferedReader reader = new BufferedReader(new FileReader(configFile))) {
-                String line = reader.readLine();
-                if (line != null) {
-                    String[] parts = line.split("\\s+");
-                    serverIp = parts[0];
-                    serverPort = Integer.parseInt(parts[1]);
-                }
-            } catch (Exception e) { }
-        }
-
-        // 초기에는 메시지 입력 비활성화 (로그인 성공해야 활성화됨)
-        textField.setEditable(false);
-        messageArea.setEditable(false);
-
-        frame.getContentPane().add(new JScrollPane(messageArea), BorderLayout.CENTER);
-        frame.pack();
-
-        // 엔터로 메시지 전송
-        textField.addActionListener(e -> {
-            if (out != null) out.println(textField.getText());
-            textField.setText("");
-        });
-    }
-
-    // ===================================================================================
-    //                               로그인 창 표시
-    // ===================================================================================
-    private void showLoginDialog() {
-
-        // UI는 반드시 EDT에서 실행
-        loginDialog = new JDialog(frame, "Login", true);
-        JDialog dialog = loginDialog;
-
-        dialog.setSize(400, 220);
-        dialog.setLayout(new GridLayout(4, 1));
-
-        JTextField idField = new JTextField();
-        JPasswordField pwField = new JPasswordField();
-        JButton loginBtn = new JButton("Login");
-        JButton registerBtn = new JButton("Register");
-
-        // ▼ ID 입력 필드
-        JPanel idPanel = new JPanel(new BorderLayout());
-        idPanel.add(new JLabel("ID:"), BorderLayout.WEST);
-        idPanel.add(idField, BorderLayout.CENTER);
-
-        // ▼ 비밀번호 입력 필드
-        JPanel pwPanel = new JPanel(new BorderLayout());
-        pwPanel.add(new JLabel("Password:"), BorderLayout.WEST);
-        pwPanel.add(pwField, BorderLayout.CENTER);
-
-        // ▼ 버튼 영역
-        JPanel bottom = new JPanel();
-        bottom.add(loginBtn);
-        bottom.add(registerBtn);
-
-        // ▼ 다이얼로그에 요소 배치
-        dialog.add(idPanel);
-        dialog.add(pwPanel);
-        dialog.add(new JLabel(" ")); // 여백
-        dialog.add(bottom);
-
-        // ------------------ 로그인 버튼 동작 ------------------
-        loginBtn.addActionListener(e -> {
-            String id = idField.getText().trim();
-            String pw = new String(pwField.getPassword());
-
-            if (id.isEmpty() || pw.isEmpty()) {
-                JOptionPane.showMessageDialog(frame, "아이디와 비밀번호를 입력하세요.");
-                return;
-            }
-
-            // 서버로 LOGIN 전송
-            if (out != null) {
-                out.println("LOGIN " + id + " " + pw);
-            }
-
-            dialog.dispose();
-        });
-
-        // ------------------ 회원가입 버튼 ------------------
-        registerBtn.addActionListener(e -> {
-            dialog.setVisible(false);  // 로그인 창 잠시 숨기기
-            showRegisterDialog();      // 회원가입 창 띄우기
-            dialog.setVisible(true);   // 회원가입 후 다시 로그인 창 복귀
-        });
-
-        dialog.setLocationRelativeTo(frame);
-        dialog.setVisible(true);
-    }
-
-    // ===================================================================================
-    //                                 회원가입 창
-    // ===================================================================================
-    private void showRegisterDialog() {
-
-        JDialog dialog = new JDialog(frame, "Register", true);
-        dialog.setSize(420, 300);
-        dialog.setLayout(new GridLayout(6, 2, 4, 4));
-
-        JTextField idField = new JTextField();
-        JButton checkBtn = new JButton("Check ID"); // 아이디 중복확인 버튼
-
-        JTextField nameField = new JTextField();
-        JTextField emailField = new JTextField();
-        JPasswordField pwField = new JPasswordField();
-
-        JLabel checkResult = new JLabel(" "); // 중복검사 결과 표시
-
-        // ------- UI 구성 -------
-        dialog.add(new JLabel("ID:"));
-        dialog.add(idField);
-
-        dialog.add(checkBtn);
-        dialog.add(checkResult);
-
-        dialog.add(new JLabel("Name:"));
-        dialog.add(nameField);
-
-        dialog.add(new JLabel("Email:"));
-        dialog.add(emailField);
-
-        dialog.add(new JLabel("Password:"));
-        dialog.add(pwField);
-
-        JButton okBtn = new JButton("Register");
-        JButton cancelBtn = new JButton("Cancel");
-        dialog.add(okBtn);
-        dialog.add(cancelBtn);
-
-        // ---------------------- ID 중복확인 버튼 ----------------------
-        checkBtn.addActionListener(e -> {
-            String id = idField.getText().trim();
-            if (id.isEmpty()) {
-                SwingUtilities.invokeLater(() -> checkResult.setText("❌ ID를 입력하세요"));
-                return;
-            }
-
-            lastCheckedId = id;
-            if (out != null) out.println("CHECKID " + id); // 서버에게 중복확인 요청
-        });
-
-        // ---------------------- 회원가입 버튼 ----------------------
-        okBtn.addActionListener(e -> {
-            String id = idField.getText().trim();
-
-            if (!id.equals(lastCheckedId) || !lastIdCheckOk) {
-                SwingUtilities.invokeLater(() ->
-                        JOptionPane.showMessageDialog(frame, "ID 중복확인을 먼저 해주세요!")
-                );
-                return;
-            }
-
-            String pw = new String(pwField.getPassword());
-            String name = nameField.getText().trim();
-            String email = emailField.getText().trim();
-
-            if (out != null) {
-                out.println("REGISTER " + id + " " + pw + " " + name + " " + email);
-            }
-
-            dialog.dispose();
-        });
-
-        // ---------------------- 취소 버튼 ----------------------
-        cancelBtn.addActionListener(e -> dialog.dispose());
-
-        dialog.setLocationRelativeTo(frame);
-        dialog.setVisible(true);
-    }
-
-
-    // ===================================================================================
-    //                           서버에서 오는 메시지 처리
-    // ===================================================================================
-    private void handleServerMessage(String line) {
-
-        // --------------- 서버가 BYE를 보낸 경우 (종료) ---------------
-        if (line.equals("BYE")) {
-            SwingUtilities.invokeLater(() -> frame.dispose());
-            return;
-        }
-
-        // --------------- 서버가 로그인 요청 시 로그인 창 띄우기 ---------------
-        if (line.equals("LOGIN")) {
-            SwingUtilities.invokeLater(this::showLoginDialog);
-            return;
-        }
-
-        // 로그인 실패
-        else if (line.equals("LOGINFAIL")) {
-            SwingUtilities.invokeLater(() ->
-                    JOptionPane.showMessageDialog(frame, "❌ 로그인 실패! 다시 시도하세요.")
-            );
-            SwingUtilities.invokeLater(this::showLoginDialog);
-            return;
-        }
-
-        // 계정 없음 → 회원가입 안내
-        else if (line.equals("NEEDREGISTER")) {
-            SwingUtilities.invokeLater(() ->
-                    JOptionPane.showMessageDialog(frame, "❌ 계정이 존재하지 않습니다.")
-            );
-            SwingUtilities.invokeLater(this::showRegisterDialog);
-            return;
-        }
-
-        // 회원가입 성공
-        else if (line.equals("REGISTERSUCCESS")) {
-            SwingUtilities.invokeLater(() ->
-                    JOptionPane.showMessageDialog(frame, "✔ 회원가입 완료! 다시 로그인 해주세요.")
-            );
-            return;
-        }
-
-        // 회원가입 실패
-        else if (line.startsWith("REGFAIL")) {
-            SwingUtilities.invokeLater(() ->
-                    JOptionPane.showMessageDialog(frame, "❌ 회원가입 실패: " + line.substring(7))
-            );
-            return;
-        }
-
-        // 로그인 성공
-        else if (line.startsWith("NAMEACCEPTED")) {
-            final String id = line.substring(13);
-            SwingUtilities.invokeLater(() -> {
-                frame.setTitle("ChatChat - " + id);
-                textField.setEditable(true); // 메시지 입력 가능
-            });
-            return;
-        }
-
-        // 일반 메시지
-        else if (line.startsWith("MESSAGE")) {
-            final String msg = line.substring(8);
-            SwingUtilities.invokeLater(() ->
-                    messageArea.append(msg + "\n")
-            );
-            return;
-        }
-
-        // ID 사용 가능
-        else if (line.equals("IDOK")) {
-            lastIdCheckOk = true;
-            SwingUtilities.invokeLater(() ->
-                    JOptionPane.showMessageDialog(frame, "✔ 사용 가능한 ID입니다!")
-            );
-            return;
-        }
-
-        // ID 중복
-        else if (line.equals("IDUSED")) {
-            lastIdCheckOk = false;
-            SwingUtilities.invokeLater(() ->
-                    JOptionPane.showMessageDialog(frame, "❌ 이미 사용 중인 ID입니다!")
-            );
-            return;
-        }
-
-        // 기타 메시지 로그
-        System.out.println("Unhandled from server: " + line);
-    }
-
-
-    // ===================================================================================
-    //                           클라이언트 실행 (서버 연결)
-    // ===================================================================================
-    private void run() throws IOException {
-
-        // 서버 연결
-        Socket socket = new Socket(serverIp, serverPort);
-        in = new Scanner(socket.getInputStream());
-        out = new PrintWriter(socket.getOutputStream(), true);
-
-        // 서버에서 오는 메시지 처리 스레드
-        new Thread(() -> {
-            try {
-                while (in.hasNextLine()) {
-                    String line = in.nextLine();
-                    handleServerMessage(line);
-                }
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-        }).start();
-    }
-
-    // ===================================================================================
-    //                                        MAIN
-    // ===================================================================================
-    public static void main(String[] args) throws Exception {
-        ChatClient client = new ChatClient();
-        client.frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-        client.frame.setVisible(true);
-        client.run();
-    }
-}
-
-
-
-
+import java.awt.*;
+import java.io.*;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import javax.swing.*;
+
+public class ChatClient implements ClientProtocol.Listener {
+
+    // 최근 ID 체크 결과 저장 (중복검사 후 회원가입 버튼 활성화에 사용)
+    volatile boolean lastIdCheckOk = false;
+    volatile String lastCheckedId = null;
+
+    // 서버 접속 정보
+    String serverIp;
+    int serverPort;
+
+    // 서버 연결 (서버가 지원하면 바이너리 프레임, -Dchat.binary=false면 항상 텍스트)
+    static final boolean BINARY = !"false".equals(System.getProperty("chat.binary"));
+    volatile ClientConnection conn;
+
+    // 연결이 끊기면 RECONNECT_MIN_MS부터 두 배씩 (최대 RECONNECT_MAX_MS) 그 절반 이상에서 무작위로 기다렸다가
+    // 다시 접속한다 (서버가 다시 뜰 때 모든 클라이언트가 한꺼번에 몰리지 않도록).
+    // 로그인했던 적이 있으면 받아 둔 토큰으로 로그인하고 끊긴 동안의 방 메시지를 받는다.
+    static final long RECONNECT_MIN_MS = Long.getLong("chat.client.reconnect.min.ms", 500);
+    static final long RECONNECT_MAX_MS = Long.getLong("chat.client.reconnect.max.ms", 30_000);
+    final ClientConnection.Resume resume = new ClientConnection.Resume();
+    volatile boolean quitting;     // BYE를 받음: 다시 접속하지 않음
+    volatile int attempts;         // 로그인에 성공한 뒤로 연속 실패한 접속 횟수
+
+    // 서버에 요청할 선택 기능 (접속자 목록, 파일 전송은 항상, 압축은 -Dchat.deflate=false면 끔)
+    static final boolean DEFLATE = !"false".equals(System.getProperty("chat.deflate"));
+    static final Set<String> CAPS = caps();
+
+    private static Set<String> caps() {
+        Set<String> caps = new HashSet<>(Set.of(ClientProtocol.CAP_PRESENCE, ClientProtocol.CAP_FILES));
+        if (BINARY) caps.add(Wire.CAP);
+        if (DEFLATE) caps.add(Deflate.CAP);
+        return Collections.unmodifiableSet(caps);
+    }
+
+    // /get으로 받은 파일을 저장할 폴더 (-Dchat.client.download.dir)
+    static final Path DOWNLOAD_DIR = Paths.get(System.getProperty("chat.client.download.dir",
+            System.getProperty("user.home") + File.separator + "Downloads"));
+
+    // 로그인 창을 다시 띄울 때 사용
+    JDialog loginDialog = null;
+
+    // 메인 채팅 UI
+    JFrame frame = new JFrame("ChatChat");
+    JTextField textField = new JTextField(50);
+
+    // 메시지 목록: 최근 LINES줄만 메모리에 두고 나머지는 스크롤할 때 파일에서 읽음
+    static final int LINES = Integer.getInteger("chat.client.lines", 2000);
+    MessageListModel messages = new MessageListModel(LINES);
+    JList<String> messageList = new JList<>(messages);
+
+    // 수신 스레드가 쌓아 두면 EDT가 TICK_MS마다 한 번에 목록에 반영
+    // (메시지마다 invokeLater + 화면 갱신을 하지 않도록)
+    static final int TICK_MS = Integer.getInteger("chat.client.tick", 50);
+    static final int MAX_PER_TICK = 10_000;
+    final ConcurrentLinkedQueue<String> incoming = new ConcurrentLinkedQueue<>();
+    final javax.swing.Timer tick = new javax.swing.Timer(TICK_MS, e -> drainIncoming());
+
+    // 접속자 목록 (서버가 presence를 지원할 때): 로그인 직후 전체 목록, 그 뒤로 변경분
+    // 변경은 수신 스레드가 rosterUpdates에 쌓고 EDT가 tick마다 한 번에 반영해서 목록을 다시 그린다
+    // (많은 사람이 한꺼번에 들어와도 화면 갱신은 tick당 한 번). 아래 필드는 EDT에서만 사용.
+    final ConcurrentLinkedQueue<Runnable> rosterUpdates = new ConcurrentLinkedQueue<>();
+    final TreeSet<String> roster = new TreeSet<>();
+    long rosterVersion = -1;      // 전체 목록의 버전 (이하의 변경분은 이미 반영됨)
+    boolean rosterFresh;          // 다음 ROSTER는 새 전체 목록의 처음
+    final RosterModel rosterModel = new RosterModel();
+    final JLabel rosterTitle = new JLabel("접속자");
+    final JPanel rosterPanel = new JPanel(new BorderLayout());
+
+    public ChatClient() {
+
+        // ▼ 채팅 입력창 panel 구성
+        JPanel southPanel = new JPanel(new BorderLayout());
+        southPanel.add(textField, BorderLayout.CENTER);
+        frame.getContentPane().add(southPanel, BorderLayout.SOUTH);
+
+        // 기본 서버 주소
+        serverIp = "localhost";
+        serverPort = 59001;
+
+        // ▼ server_info.dat 에서 서버 정보 로드 (있을 경우)
+        File configFile = new File("server_info.dat");
+        if (configFile.exists()) {
+            try (BufferedReader reader = new BufferedReader(new FileReader(configFile))) {
+                String line = reader.readLine();
+                if (line != null) {
+                    String[] parts = line.split("\\s+");
+                    serverIp = parts[0];
+                    serverPort = Integer.parseInt(parts[1]);
+                }
+            } catch (Exception e) { }
+        }
+
+        // 초기에는 메시지 입력 비활성화 (로그인 성공해야 활성화됨)
+        textField.setEditable(false);
+
+        // 셀 크기를 고정해야 JList가 모든 줄을 재지 않고 보이는 줄만 그림
+        messageList.setPrototypeCellValue("m".repeat(50));
+        messageList.setVisibleRowCount(16);
+        messageList.setCellRenderer(new DefaultListCellRenderer() {
+            @Override
+            public Component getListCellRendererComponent(JList<?> list, Object value, int index,
+                                                          boolean selected, boolean focused) {
+                super.getListCellRendererComponent(list, value, index, selected, focused);
+                setToolTipText(value == null ? null : value.toString());   // 잘린 긴 줄은 툴팁으로
+                return this;
+            }
+        });
+
+        frame.getContentPane().add(new JScrollPane(messageList), BorderLayout.CENTER);
+
+        // ▼ 접속자 목록 (서버가 presence를 지원하지 않으면 숨김)
+        JList<String> rosterList = new JList<>(rosterModel);
+        rosterList.setPrototypeCellValue("m".repeat(12));
+        rosterList.setVisibleRowCount(16);
+        rosterList.addMouseListener(new java.awt.event.MouseAdapter() {
+            @Override
+            public void mouseClicked(java.awt.event.MouseEvent e) {
+                // 두 번 누르면 귓속말 입력 시작
+                String id = rosterList.getSelectedValue();
+                if (e.getClickCount() == 2 && id != null && textField.isEditable()) {
+                    textField.setText("/w " + id + " ");
+                    textField.requestFocusInWindow();
+                }
+            }
+        });
+        rosterPanel.add(rosterTitle, BorderLayout.NORTH);
+        rosterPanel.add(new JScrollPane(rosterList), BorderLayout.CENTER);
+        rosterPanel.setVisible(false);
+        frame.getContentPane().add(rosterPanel, BorderLayout.EAST);
+
+        frame.pack();
+        tick.start();
+
+        // 엔터로 메시지 전송
+        textField.addActionListener(e -> {
+            if (conn != null) conn.input(textField.getText());
+            textField.setText("");
+        });
+    }
+
+    // ===================================================================================
+    //                               로그인 창 표시
+    // ===================================================================================
+    private void showLoginDialog() {
+
+        // UI는 반드시 EDT에서 실행
+        loginDialog = new JDialog(frame, "Login", true);
+        JDialog dialog = loginDialog;
+
+        dialog.setSize(400, 220);
+        dialog.setLayout(new GridLayout(4, 1));
+
+        JTextField idField = new JTextField();
+        JPasswordField pwField = new JPasswordField();
+        JButton loginBtn = new JButton("Login");
+        JButton registerBtn = new JButton("Register");
+
+        // ▼ ID 입력 필드
+        JPanel idPanel = new JPanel(new BorderLayout());
+        idPanel.add(new JLabel("ID:"), BorderLayout.WEST);
+        idPanel.add(idField, BorderLayout.CENTER);
+
+        // ▼ 비밀번호 입력 필드
+        JPanel pwPanel = new JPanel(new BorderLayout());
+        pwPanel.add(new JLabel("Password:"), BorderLayout.WEST);
+        pwPanel.add(pwField, BorderLayout.CENTER);
+
+        // ▼ 버튼 영역
+        JPanel bottom = new JPanel();
+        bottom.add(loginBtn);
+        bottom.add(registerBtn);
+
+        // ▼ 다이얼로그에 요소 배치
+        dialog.add(idPanel);
+        dialog.add(pwPanel);
+        dialog.add(new JLabel(" ")); // 여백
+        dialog.add(bottom);
+
+        // ------------------ 로그인 버튼 동작 ------------------
+        loginBtn.addActionListener(e -> {
+            String id = idField.getText().trim();
+            String pw = new String(pwField.getPassword());
+
+            if (id.isEmpty() || pw.isEmpty()) {
+                JOptionPane.showMessageDialog(frame, "아이디와 비밀번호를 입력하세요.");
+                return;
+            }
+
+            // 서버로 LOGIN 전송
+            if (conn != null) {
+                conn.login(id, pw);
+            }
+
+            dialog.dispose();
+        });
+
+        // ------------------ 회원가입 버튼 ------------------
+        registerBtn.addActionListener(e -> {
+            dialog.setVisible(false);  // 로그인 창 잠시 숨기기
+            showRegisterDialog();      // 회원가입 창 띄우기
+            dialog.setVisible(true);   // 회원가입 후 다시 로그인 창 복귀
+        });
+
+        dialog.setLocationRelativeTo(frame);
+        dialog.setVisible(true);
+    }
+
+    // ===================================================================================
+    //                                 회원가입 창
+    // ===================================================================================
+    private void showRegisterDialog() {
+
+        JDialog dialog = new JDialog(frame, "Register", true);
+        dialog.setSize(420, 300);
+        dialog.setLayout(new GridLayout(6, 2, 4, 4));
+
+        JTextField idField = new JTextField();
+        JButton checkBtn = new JButton("Check ID"); // 아이디 중복확인 버튼
+
+        JTextField nameField = new JTextField();
+        JTextField emailField = new JTextField();
+        JPasswordField pwField = new JPasswordField();
+
+        JLabel checkResult = new JLabel(" "); // 중복검사 결과 표시
+
+        // ------- UI 구성 -------
+        dialog.add(new JLabel("ID:"));
+        dialog.add(idField);
+
+        dialog.add(checkBtn);
+        dialog.add(checkResult);
+
+        dialog.add(new JLabel("Name:"));
+        dialog.add(nameField);
+
+        dialog.add(new JLabel("Email:"));
+        dialog.add(emailField);
+
+        dialog.add(new JLabel("Password:"));
+        dialog.add(pwField);
+
+        JButton okBtn = new JButton("Register");
+        JButton cancelBtn = new JButton("Cancel");
+        dialog.add(okBtn);
+        dialog.add(cancelBtn);
+
+        // ---------------------- ID 중복확인 버튼 ----------------------
+        checkBtn.addActionListener(e -> {
+            String id = idField.getText().trim();
+            if (id.isEmpty()) {
+                SwingUtilities.invokeLater(() -> checkResult.setText("❌ ID를 입력하세요"));
+                return;
+            }
+
+            lastCheckedId = id;
+            if (conn != null) conn.checkId(id); // 서버에게 중복확인 요청
+        });
+
+        // ---------------------- 회원가입 버튼 ----------------------
+        okBtn.addActionListener(e -> {
+            String id = idField.getText().trim();
+
+            if (!id.equals(lastCheckedId) || !lastIdCheckOk) {
+                SwingUtilities.invokeLater(() ->
+                        JOptionPane.showMessageDialog(frame, "ID 중복확인을 먼저 해주세요!")
+                );
+                return;
+            }
+
+            String pw = new String(pwField.getPassword());
+            String name = nameField.getText().trim();
+            String email = emailField.getText().trim();
+
+            if (conn != null) {
+                conn.register(id, pw, name, email);
+            }
+
+            dialog.dispose();
+        });
+
+        // ---------------------- 취소 버튼 ----------------------
+        cancelBtn.addActionListener(e -> dialog.dispose());
+
+        dialog.setLocationRelativeTo(frame);
+        dialog.setVisible(true);
+    }
+
+
+    // ===================================================================================
+    //                           서버에서 오는 메시지 처리
+    // ===================================================================================
+    // 해석은 ClientConnection / ClientProtocol이 하고, 화면 처리는 아래 메서드들이 담당
+
+    // --------------- 서버가 BYE를 보낸 경우 (종료) ---------------
+    @Override
+    public void onBye() {
+        quitting = true;
+        SwingUtilities.invokeLater(() -> {
+            tick.stop();
+            frame.dispose();
+            messages.close();
+        });
+    }
+
+    // --------------- 서버가 로그인 요청 시 로그인 창 띄우기 ---------------
+    @Override
+    public void onLoginRequested() {
+        SwingUtilities.invokeLater(this::showLoginDialog);
+    }
+
+    // 로그인 실패
+    @Override
+    public void onLoginFailed() {
+        SwingUtilities.invokeLater(() ->
+                JOptionPane.showMessageDialog(frame, "❌ 로그인 실패! 다시 시도하세요.")
+        );
+        SwingUtilities.invokeLater(this::showLoginDialog);
+    }
+
+    // 시도 횟수 초과 / 서버가 바쁨
+    @Override
+    public void onLoginLimited() {
+        SwingUtilities.invokeLater(() ->
+                JOptionPane.showMessageDialog(frame, "⏳ 시도가 너무 많습니다. 잠시 후 다시 시도하세요.")
+        );
+        SwingUtilities.invokeLater(this::showLoginDialog);
+    }
+
+    // 다른 곳에서 이미 로그인한 ID
+    @Override
+    public void onAlreadyLoggedIn() {
+        SwingUtilities.invokeLater(() ->
+                JOptionPane.showMessageDialog(frame, "❌ 이미 접속 중인 ID입니다.")
+        );
+        SwingUtilities.invokeLater(this::showLoginDialog);
+    }
+
+    // 계정 없음 → 회원가입 안내
+    @Override
+    public void onNeedRegister() {
+        SwingUtilities.invokeLater(() ->
+                JOptionPane.showMessageDialog(frame, "❌ 계정이 존재하지 않습니다.")
+        );
+        SwingUtilities.invokeLater(this::showRegisterDialog);
+    }
+
+    // 회원가입 성공
+    @Override
+    public void onRegistered() {
+        SwingUtilities.invokeLater(() ->
+                JOptionPane.showMessageDialog(frame, "✔ 회원가입 완료! 다시 로그인 해주세요.")
+        );
+    }
+
+    // 회원가입 실패
+    @Override
+    public void onRegisterFailed(String reason) {
+        SwingUtilities.invokeLater(() ->
+                JOptionPane.showMessageDialog(frame, "❌ 회원가입 실패: " + reason)
+        );
+    }
+
+    // 로그인 성공
+    @Override
+    public void onLoggedIn(String id) {
+        attempts = 0;
+        SwingUtilities.invokeLater(() -> {
+            frame.setTitle("ChatChat - " + id);
+            textField.setEditable(true); // 메시지 입력 가능
+        });
+        rosterUpdates.add(() -> rosterFresh = true);
+    }
+
+    // 접속자 전체 목록 (여러 번에 나눠 올 수 있음)
+    @Override
+    public void onRoster(long version, String[] ids) {
+        rosterUpdates.add(() -> {
+            if (rosterFresh) {
+                roster.clear();
+                rosterVersion = version;
+                rosterFresh = false;
+                if (!rosterPanel.isVisible()) {
+                    rosterPanel.setVisible(true);
+                    frame.revalidate();
+                }
+            }
+            roster.addAll(Arrays.asList(ids));
+        });
+    }
+
+    // 접속자 변경분
+    @Override
+    public void onPresence(long version, String[] joined, String[] left) {
+        rosterUpdates.add(() -> {
+            if (version <= rosterVersion) return;
+            roster.addAll(Arrays.asList(joined));
+            roster.removeAll(Arrays.asList(left));
+        });
+    }
+
+    // /get에 대한 답: 바로 내려받기 폴더로 받음
+    @Override
+    public void onFile(String id, int port, String ticket, long size, String from, String name) {
+        incoming.add("📎 받는 중: " + name + " (" + from + ", " + size + " bytes)");
+        ClientConnection c = conn;
+        if (c != null) c.download(id, port, ticket, size, name, DOWNLOAD_DIR);
+    }
+
+    // 파일 올리기/받기 진행 상황
+    @Override
+    public void onFileStatus(String text) {
+        incoming.add("📎 " + text);
+    }
+
+    // 일반 메시지
+    @Override
+    public void onMessage(String msg) {
+        // 여러 줄짜리(바이너리 프레임)는 목록에서 줄마다 한 칸
+        if (msg.indexOf('\n') < 0) incoming.add(msg);
+        else incoming.addAll(Arrays.asList(msg.split("\n", -1)));
+    }
+
+    // EDT: 쌓인 메시지를 목록에 한 번에 추가, 맨 아래를 보고 있었으면 계속 따라감
+    private void drainIncoming() {
+        drainRoster();
+        if (incoming.isEmpty()) return;
+
+        java.util.List<String> batch = new ArrayList<>();
+        String m;
+        while (batch.size() < MAX_PER_TICK && (m = incoming.poll()) != null) batch.add(m);
+
+        int last = messages.getSize() - 1;
+        boolean follow = last < 0 || messageList.getLastVisibleIndex() >= last;
+        messages.addAll(batch);
+        if (follow) messageList.ensureIndexIsVisible(messages.getSize() - 1);
+    }
+
+    // EDT: 쌓인 접속자 변경을 반영하고 목록을 한 번만 다시 그림
+    private void drainRoster() {
+        if (rosterUpdates.isEmpty()) return;
+
+        Runnable u;
+        while ((u = rosterUpdates.poll()) != null) u.run();
+
+        rosterModel.set(roster.toArray(new String[0]));
+        rosterTitle.setText("접속자 (" + roster.size() + ")");
+    }
+
+    // 정렬된 접속자 배열을 통째로 바꾸는 목록 모델 (바꿀 때 변경 알림 한 번)
+    static final class RosterModel extends AbstractListModel<String> {
+        private static final long serialVersionUID = 1L;
+
+        private String[] ids = new String[0];
+
+        void set(String[] next) {
+            int old = ids.length;
+            ids = next;
+            if (old > next.length) fireIntervalRemoved(this, next.length, old - 1);
+            if (next.length > old) fireIntervalAdded(this, old, next.length - 1);
+            if (Math.min(old, next.length) > 0) fireContentsChanged(this, 0, Math.min(old, next.length) - 1);
+        }
+
+        @Override
+        public int getSize() {
+            return ids.length;
+        }
+
+        @Override
+        public String getElementAt(int index) {
+            return ids[index];
+        }
+    }
+
+    // ID 사용 가능 / 중복
+    @Override
+    public void onIdChecked(boolean available) {
+        lastIdCheckOk = available;
+        SwingUtilities.invokeLater(() ->
+                JOptionPane.showMessageDialog(frame, available ? "✔ 사용 가능한 ID입니다!" : "❌ 이미 사용 중인 ID입니다!")
+        );
+    }
+
+
+    // ===================================================================================
+    //                           클라이언트 실행 (서버 연결)
+    // ===================================================================================
+    private void run() throws IOException {
+
+        // 서버 연결 (처음 접속이 실패하면 예전처럼 바로 알림)
+        conn = new ClientConnection(serverIp, serverPort, this, CAPS, resume);
+
+        // 서버에서 오는 메시지 처리 스레드 (끊기면 다시 접속)
+        new Thread(this::connectionLoop, "chat-connection").start();
+    }
+
+    private void connectionLoop() {
+        while (true) {
+            try {
+                if (conn == null) conn = new ClientConnection(serverIp, serverPort, this, CAPS, resume);
+                conn.readLoop();
+            } catch (IOException e) {
+                // 접속 실패 또는 끊김: 아래에서 다시 시도
+            }
+            conn = null;
+            if (quitting) return;
+
+            long wait = backoff(attempts++);
+            SwingUtilities.invokeLater(() -> textField.setEditable(false));
+            incoming.add("⚠ 서버 연결이 끊겼습니다. " + (wait + 999) / 1000 + "초 뒤 다시 연결합니다...");
+            try {
+                Thread.sleep(wait);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    // n번째 다시 시도 전 대기 시간: cap = min(MAX, MIN × 2^n)일 때 cap/2 ~ cap 사이 무작위 (equal jitter)
+    // 절반은 꼭 기다리므로 서버가 아직 뜨지 않았을 때 곧바로 다시 두드리지 않는다
+    static long backoff(int n) {
+        long cap = Math.min(RECONNECT_MAX_MS, RECONNECT_MIN_MS << Math.min(n, 20));
+        return java.util.concurrent.ThreadLocalRandom.current().nextLong(cap / 2, cap + 1);
+    }
+
+    // ===================================================================================
+    //                                        MAIN
+    // ===================================================================================
+    public static void main(String[] args) throws Exception {
+        ChatClient client = new ChatClient();
+        client.frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        client.frame.setVisible(true);
+        client.run();
+    }
+}
+
+
+
+
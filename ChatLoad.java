@@ -0,0 +1,342 @@
+import java.io.*;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+// ===================================================================================
+//                       부하 생성기 (화면 없는 ChatClient 여러 개)
+// ===================================================================================
+
+// 가상 사용자마다 가상 스레드로 접속해서 ChatClient와 같은 연결 코드(ClientConnection)로
+// 가입/로그인/채팅/귓속말을 보낸다. 메시지에 보낼 예정이던 시각을 넣어서
+// 받는 쪽에서 종단 간 지연을 재고, 주기마다 처리량과 백분위를 출력한다.
+//
+// 실행 예 (서버는 같은 IP에서 로그인이 몰리므로 제한을 풀고 실행):
+//   java -Dchat.login.ip.rate=100000 -Dchat.login.ip.burst=100000 ChatServer
+//   java -Dload.users=5000 -Dload.rate=0.5 -Dload.rooms=50 ChatLoad
+//   java -Dload.port=59011,59012,59013 ChatLoad     (클러스터 노드에 나눠 접속)
+// 사용자당 초당 5개(chat.flood.rate)보다 빨리 보내려면 서버의 속도 제한도 올린다 (-Dchat.flood.rate=0이면 끔).
+//
+// 동시 접속 시험 (로그인한 채로 2만 연결 유지, 예: 가상 스레드 모드):
+//   java -Dchat.io=virtual -Dchat.kdf.iterations=1000 -Dchat.login.ip.rate=100000 -Dchat.login.ip.burst=100000
+//        -Dchat.hash.queue=20000 -Dchat.idle.ms=300000 ChatServer
+//   java -Xss256k -Dload.users=20000 -Dload.rate=0 -Dload.register=1 -Dload.presence=false -Dload.rampup=120000
+//        -Dload.duration=240 -Dload.expect.online=20000 ChatLoad
+// - load.expect.online: 측정이 끝날 때 로그인해 있는 사용자가 이보다 적으면 종료 코드 1 (서버 chat_sessions 지표와 비교)
+// - 서버와 부하 생성기 모두 연결 수보다 넉넉한 파일 수 제한이 필요하다 (ulimit -n 65536, systemd면 LimitNOFILE).
+// - 같은 주소 하나로 2만 연결을 열므로 임시 포트 범위도 넉넉해야 한다
+//   (sysctl net.ipv4.ip_local_port_range="15000 65000", 모자라면 -Dload.port로 여러 포트/노드에 나눔).
+// - 가입 해시가 몰리지 않도록 시험용 서버는 kdf 반복 수를 낮추고, 같은 IP 로그인 제한을 푼다.
+//   해시 대기열(chat.hash.queue)이 가득 차면 LOGINLIMIT으로 돌려보내 다시 시도하느라 느려진다.
+// - 서버와 부하 생성기가 CPU를 나눠 쓰면 PONG이 늦어 하트비트로 끊길 수 있으므로 chat.idle.ms를 늘린다.
+//   코어 하나에서는 19500명이 모두 로그인하는 데 5분 남짓 걸렸으므로 load.duration을 그만큼 잡는다.
+public class ChatLoad {
+
+    // ---------------- 설정 (-Dload.*) ----------------
+    static final String HOST = System.getProperty("load.host", "localhost");
+    static final int[] PORTS = ports(System.getProperty("load.port", "59001"));  // 여러 개면 사용자를 나눠 접속 (클러스터)
+    static final int USERS = Integer.getInteger("load.users", 100);
+    static final long RAMPUP_MS = Long.getLong("load.rampup", 5_000);      // 전원 접속까지 걸리는 시간
+    static final long DURATION_S = Long.getLong("load.duration", 30);       // 전원 접속 후 측정 시간
+    static final int REPORT_S = Integer.getInteger("load.report", 5);       // 중간 출력 주기
+    static final double RATE = dbl("load.rate", 1.0);                        // 사용자당 초당 메시지 수
+    static final double WHISPER = dbl("load.whisper", 0.1);                  // 메시지 중 귓속말 비율
+    static final double REGISTER = dbl("load.register", 0.0);               // 새 ID로 가입부터 하는 사용자 비율
+    static final int ROOMS = Integer.getInteger("load.rooms", 0);           // 0이면 모두 기본 방
+    static final String PREFIX = System.getProperty("load.prefix", "load");
+    static final String PASSWORD = System.getProperty("load.password", "loadpw");
+    static final boolean BINARY = !"false".equals(System.getProperty("load.binary")); // 서버가 지원하면 바이너리 프레임
+    static final boolean PRESENCE = !"false".equals(System.getProperty("load.presence")); // 접속자 목록 받기 (끄면 입장/퇴장 알림)
+    static final boolean DEFLATE = Boolean.getBoolean("load.deflate");  // 서버 → 클라이언트 압축 (서버 chat_deflate_* 지표로 비교)
+    static final int EXPECT_ONLINE = Integer.getInteger("load.expect.online", 0);   // 끝날 때 이만큼 로그인해 있어야 성공
+
+    // 이번 실행에서 보낸 메시지 표시 (입장 시 받는 지난 기록은 지연 계산에서 제외)
+    static final String RUN = Long.toString(System.currentTimeMillis() % 1_000_000_000L, 36);
+    static final String MARK = "#lt" + RUN + " ";
+
+    // ---------------- 통계 ----------------
+    static final LatencyHistogram latency = new LatencyHistogram();   // 메시지 전달 지연
+    static final LatencyHistogram loginLatency = new LatencyHistogram();
+    static final LongAdder sent = new LongAdder();
+    static final LongAdder received = new LongAdder();
+    static final LongAdder registered = new LongAdder();
+    static final LongAdder limited = new LongAdder();
+    static final LongAdder failures = new LongAdder();
+    static final AtomicInteger online = new AtomicInteger();
+
+    static final long BASE = System.nanoTime();
+    static volatile boolean running = true;
+    static volatile boolean measuring;   // 전원 접속 후 측정 구간
+
+    // 로그인한 사용자 ID (귓속말 상대 고르기용)
+    static final String[] onlineIds = new String[USERS];
+
+    static Set<String> caps() {
+        Set<String> caps = new HashSet<>();
+        if (BINARY) caps.add(Wire.CAP);
+        if (PRESENCE) caps.add(ClientProtocol.CAP_PRESENCE);
+        if (DEFLATE) caps.add(Deflate.CAP);
+        return caps;
+    }
+
+    static int[] ports(String list) {
+        String[] p = list.split(",");
+        int[] out = new int[p.length];
+        for (int i = 0; i < p.length; i++) out[i] = Integer.parseInt(p[i].trim());
+        return out;
+    }
+
+    static double dbl(String key, double def) {
+        String v = System.getProperty(key);
+        return v == null ? def : Double.parseDouble(v);
+    }
+
+
+    // ===================================================================================
+    //                                 가상 사용자 하나
+    // ===================================================================================
+    static final class User implements ClientProtocol.Listener, Runnable {
+
+        final int index;
+        final String id;
+        final boolean registerFirst;
+
+        volatile ClientConnection conn;
+        long connectedAt;
+        int retries;
+
+        User(int index) {
+            this.index = index;
+            this.registerFirst = ThreadLocalRandom.current().nextDouble() < REGISTER;
+            this.id = registerFirst ? PREFIX + RUN + "x" + index : PREFIX + index;
+        }
+
+        void close() {
+            if (conn != null) conn.close();
+        }
+
+        // 수신 스레드: 서버 메시지를 ClientConnection/ClientProtocol로 해석
+        @Override
+        public void run() {
+            try {
+                connectedAt = System.nanoTime();
+                conn = new ClientConnection(HOST, PORTS[index % PORTS.length], this, caps());
+                conn.readLoop();
+            } catch (IOException e) {
+                // 종료 시 소켓을 닫으면 여기로 옴
+            } finally {
+                if (onlineIds[index] != null) {
+                    onlineIds[index] = null;
+                    online.decrementAndGet();
+                }
+                if (running) failures.increment();
+                close();
+            }
+        }
+
+        @Override
+        public void onLoginRequested() {
+            if (registerFirst) conn.checkId(id);
+            else conn.login(id, PASSWORD);
+        }
+
+        @Override
+        public void onIdChecked(boolean available) {
+            if (available) register();
+            else conn.login(id, PASSWORD);
+        }
+
+        @Override
+        public void onNeedRegister() {
+            register();
+        }
+
+        private void register() {
+            conn.register(id, PASSWORD, id, id + "@load.test");
+        }
+
+        @Override
+        public void onRegistered() {
+            registered.increment();
+            conn.login(id, PASSWORD);
+        }
+
+        @Override
+        public void onRegisterFailed(String reason) {
+            // 다른 실행에서 이미 만든 ID면 로그인
+            if (reason.equals("DuplicateID")) conn.login(id, PASSWORD);
+            else fail("REGFAIL " + reason);
+        }
+
+        // 시도 제한: 잠시 기다렸다가 다시 (최대 5초 간격)
+        @Override
+        public void onLoginLimited() {
+            limited.increment();
+            long wait = Math.min(5_000, 100L << Math.min(retries++, 6));
+            sleep(ThreadLocalRandom.current().nextLong(wait / 2, wait + 1));
+            onLoginRequested();
+        }
+
+        @Override
+        public void onLoginFailed() {
+            fail("LOGINFAIL (load.password가 기존 계정과 다름)");
+        }
+
+        @Override
+        public void onAlreadyLoggedIn() {
+            fail("ALREADYLOGGEDIN (같은 load.prefix로 실행 중인 부하 생성기가 있음)");
+        }
+
+        private void fail(String why) {
+            if (failures.sum() < 10) System.out.println("⚠ " + id + ": " + why);
+            close();
+        }
+
+        @Override
+        public void onLoggedIn(String name) {
+            loginLatency.record(System.nanoTime() - connectedAt);
+            onlineIds[index] = id;
+            online.incrementAndGet();
+
+            if (ROOMS > 0) conn.join("r" + (index % ROOMS));
+            Thread.ofVirtual().name("load-send-" + index).start(this::sendLoop);
+        }
+
+        // 수신한 메시지 중 이번 실행에서 보낸 것만 지연 측정
+        @Override
+        public void onMessage(String text) {
+            int at = text.indexOf(MARK);
+            if (at < 0) return;
+            if (text.startsWith("(귓→")) return;   // 보낸 사람에게 돌아온 확인
+
+            long scheduled = Long.parseLong(text.substring(at + MARK.length()).trim());
+            latency.record(System.nanoTime() - BASE - scheduled);
+            received.increment();
+        }
+
+        @Override
+        public void onBye() {
+            close();
+        }
+
+        @Override
+        public void onUnhandled(String line) {
+            // 부하 중에는 출력하지 않음
+        }
+
+        // 송신 스레드: 정해진 간격으로 메시지 전송
+        // 보낼 예정이던 시각을 넣으므로 송신이 밀려도 그 지연까지 측정된다.
+        private void sendLoop() {
+            if (RATE <= 0) return;
+            long interval = (long) (1e9 / RATE);
+            long next = System.nanoTime() - BASE + ThreadLocalRandom.current().nextLong(interval);
+
+            while (running && !conn.isClosed()) {
+                long wait = next - (System.nanoTime() - BASE);
+                if (wait > 0) sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+
+                String payload = MARK + next;
+                String target = WHISPER > 0 && ThreadLocalRandom.current().nextDouble() < WHISPER ? pickTarget() : null;
+                if (target != null) conn.whisper(target, payload);
+                else conn.chat(payload);
+                sent.increment();
+
+                next += interval;
+            }
+        }
+
+        private String pickTarget() {
+            for (int tries = 0; tries < 4; tries++) {
+                String t = onlineIds[ThreadLocalRandom.current().nextInt(USERS)];
+                if (t != null && !t.equals(id)) return t;
+            }
+            return null;
+        }
+    }
+
+    static void sleep(long ms) {
+        sleep(ms, 0);
+    }
+
+    static void sleep(long ms, int nanos) {
+        try {
+            Thread.sleep(ms, nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    // ===================================================================================
+    //                                        MAIN
+    // ===================================================================================
+    public static void main(String[] args) throws Exception {
+        System.out.println("load: users=" + USERS + " rate=" + RATE + "/s whisper=" + WHISPER
+                + " register=" + REGISTER + " rooms=" + ROOMS + " binary=" + BINARY + " presence=" + PRESENCE + " → " + HOST + ":" + Arrays.toString(PORTS));
+
+        User[] users = new User[USERS];
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor();
+        LatencyHistogram.Snapshot overall = new LatencyHistogram().snapshot(false);
+        long[] last = new long[2];
+        long started = System.nanoTime();
+
+        // 주기 출력 (구간 지연은 출력 후 비우고 전체 요약에 합침)
+        reporter.scheduleAtFixedRate(() -> {
+            LatencyHistogram.Snapshot s = latency.snapshot(true);
+            if (measuring) {
+                synchronized (overall) { overall.add(s); }
+            }
+
+            long sn = sent.sum(), rn = received.sum();
+            System.out.printf("[%3ds] online=%d sent=%d/s recv=%d/s limited=%d fail=%d | %s%n",
+                    (System.nanoTime() - started) / 1_000_000_000L, online.get(),
+                    (sn - last[0]) / REPORT_S, (rn - last[1]) / REPORT_S,
+                    limited.sum(), failures.sum(), s.summary());
+            last[0] = sn;
+            last[1] = rn;
+        }, REPORT_S, REPORT_S, TimeUnit.SECONDS);
+
+        // 접속 (RAMPUP_MS 동안 고르게)
+        for (int i = 0; i < USERS; i++) {
+            users[i] = new User(i);
+            Thread.ofVirtual().name("load-" + i).start(users[i]);
+            if (RAMPUP_MS > 0) sleep(RAMPUP_MS * (i + 1) / USERS - RAMPUP_MS * i / USERS);
+        }
+
+        // 측정 시작 전까지의 지연은 전체 요약에서 제외 (접속 중 구간)
+        long measureStart = System.nanoTime();
+        long sent0 = sent.sum(), recv0 = received.sum();
+        measuring = true;
+
+        Thread.sleep(DURATION_S * 1000);
+        running = false;
+        reporter.shutdown();
+        reporter.awaitTermination(REPORT_S, TimeUnit.SECONDS);
+
+        synchronized (overall) { overall.add(latency.snapshot(true)); }
+        double secs = (System.nanoTime() - measureStart) / 1e9;
+
+        System.out.println("================ 결과 ================");
+        System.out.printf("online=%d registered=%d limited=%d failures=%d%n",
+                online.get(), registered.sum(), limited.sum(), failures.sum());
+        System.out.printf("sent=%.0f/s received=%.0f/s (%.0f초)%n",
+                (sent.sum() - sent0) / secs, (received.sum() - recv0) / secs, secs);
+        System.out.println("login   " + loginLatency.snapshot(false).summary());
+        System.out.println("message " + overall.summary() + " (n=" + overall.count() + ")");
+
+        int finalOnline = online.get();
+        boolean ok = finalOnline >= EXPECT_ONLINE;
+        if (EXPECT_ONLINE > 0) {
+            System.out.println((ok ? "PASS" : "FAIL") + ": online=" + finalOnline + " expected>=" + EXPECT_ONLINE);
+        }
+
+        for (User u : users) {
+            if (u != null && u.conn != null) {
+                u.conn.logout();
+            }
+        }
+        System.exit(ok ? 0 : 1);
+    }
+}
@@ -0,0 +1,370 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// ============================
+//    NIO 리액터 (Selector 기반)
+// ============================
+
+// 스레드 하나가 Selector 하나로 여러 연결을 처리한다.
+// 연결마다 스레드를 점유하지 않으므로 유휴 접속자는 버퍼 몇 KB만 차지한다.
+public class ChatReactor implements Runnable {
+
+	// 한 줄 최대 길이 (넘으면 연결 종료)
+	static final int MAX_LINE = 64 * 1024;
+
+	// 연결당 초기 읽기 버퍼 크기
+	static final int READ_BUFFER = 4 * 1024;
+
+	// 읽기 한 번(차례 하나)에 처리하는 최대 줄 수 (-Dchat.reactor.quantum)
+	// 한 연결이 버퍼에 줄을 잔뜩 쌓아 보내도 같은 리액터의 다른 연결이 그동안 기다리지 않도록
+	static final int QUANTUM = Math.max(1, Integer.getInteger("chat.reactor.quantum", 16));
+
+	private final Selector selector;
+
+	// 다른 스레드에서 넘겨준 새 연결
+	private final ConcurrentLinkedQueue<SocketChannel> pendingAccepts = new ConcurrentLinkedQueue<>();
+
+	// 다른 스레드에서 전송 요청이 들어온 연결
+	private final ConcurrentLinkedQueue<Connection> pendingFlushes = new ConcurrentLinkedQueue<>();
+
+	// 다른 스레드에서 끝난 작업의 후속 처리 (비밀번호 확인 후 읽기 재개 등)
+	private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+	// 쓰기를 미룬 연결 (리액터 스레드 전용, 기한 순). 중간에 빼지 않고 기한이 되면
+	// flush()가 다시 판단한다 (그 사이에 이미 보냈으면 할 일 없음).
+	private final PriorityQueue<Connection> lingering =
+			new PriorityQueue<>((a, b) -> Long.compare(a.flushAt - b.flushAt, 0));
+
+	// 처리할 줄이 남았는데 차례를 넘긴 연결 (리액터 스레드 전용, 도착 순). 루프 한 바퀴마다
+	// 맨 앞부터 한 번씩 QUANTUM줄을 처리하고, 아직 남았으면 다시 맨 뒤로 (라운드 로빈)
+	private final ArrayDeque<Connection> backlog = new ArrayDeque<>();
+
+	ChatReactor() throws IOException {
+		this.selector = Selector.open();
+	}
+
+
+	// ============================
+	//    서버 실행 (accept 루프)
+	// ============================
+
+	static void serve(int port, int threads) throws IOException {
+		ChatReactor[] reactors = new ChatReactor[Math.max(1, threads)];
+		for (int i = 0; i < reactors.length; i++) {
+			reactors[i] = new ChatReactor();
+			Thread t = new Thread(reactors[i], "reactor-" + i);
+			t.start();
+		}
+
+		System.out.println("NIO reactors: " + reactors.length);
+
+		// 메인 스레드는 accept만 하고 연결을 리액터에 순서대로 분배
+		try (ServerSocketChannel listener = ServerSocketChannel.open()) {
+			listener.bind(new InetSocketAddress(port), 1024);
+			ServerMetrics.listening();
+			int next = 0;
+			while (true) {
+				SocketChannel ch = listener.accept();
+				reactors[next].register(ch);
+				next = (next + 1) % reactors.length;
+			}
+		}
+	}
+
+	// 새 연결을 이 리액터에 등록 (accept 스레드에서 호출)
+	private void register(SocketChannel ch) {
+		pendingAccepts.add(ch);
+		selector.wakeup();
+	}
+
+
+	// ============================
+	//       이벤트 루프
+	// ============================
+
+	public void run() {
+		while (true) {
+			try {
+				// 미룬 쓰기의 기한까지만 기다림
+				// 차례를 기다리는 연결이 있으면 기다리지 않음
+				Connection due = lingering.peek();
+				if (!backlog.isEmpty()) {
+					selector.selectNow();
+				} else if (due == null) {
+					selector.select();
+				} else {
+					long wait = due.flushAt - System.nanoTime();
+					if (wait <= 0) selector.selectNow();
+					else selector.select(Math.max(1, (wait + 999_999) / 1_000_000));
+				}
+
+				// 기한이 된 미룬 쓰기
+				long now = System.nanoTime();
+				while ((due = lingering.peek()) != null && due.flushAt - now <= 0) {
+					lingering.poll();
+					due.lingered = false;
+					due.flush();
+				}
+
+				// 새 연결 등록
+				SocketChannel ch;
+				while ((ch = pendingAccepts.poll()) != null) {
+					accept(ch);
+				}
+
+				// 다른 스레드가 요청한 전송 처리
+				Connection c;
+				while ((c = pendingFlushes.poll()) != null) {
+					c.flush();
+				}
+
+				Runnable task;
+				while ((task = tasks.poll()) != null) {
+					task.run();
+				}
+
+				Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+				while (it.hasNext()) {
+					SelectionKey key = it.next();
+					it.remove();
+
+					Connection conn = (Connection) key.attachment();
+					if (!key.isValid()) {
+						conn.close();
+						continue;
+					}
+					if (key.isWritable()) conn.flush();
+					if (key.isValid() && key.isReadable()) conn.read();
+				}
+
+				// 차례를 넘긴 연결마다 한 번씩 (이번에 다시 넘긴 연결은 다음 바퀴에)
+				for (int n = backlog.size(); n > 0; n--) {
+					backlog.poll().takeTurn();
+				}
+			} catch (Exception e) {
+				System.out.println(e);
+			}
+		}
+	}
+
+	private void accept(SocketChannel ch) {
+		try {
+			ch.configureBlocking(false);
+			ch.setOption(StandardSocketOptions.TCP_NODELAY, true);   // 묶기는 Outbox가 함
+			Connection conn = new Connection(ch);
+			conn.key = ch.register(selector, SelectionKey.OP_READ, conn);
+			conn.onOpen();
+		} catch (IOException e) {
+			System.out.println(e);
+			try { ch.close(); } catch (IOException ignored) {}
+		}
+	}
+
+
+	// ============================
+	//     연결 (NIO 세션)
+	// ============================
+
+	private class Connection extends ChatServer.Session {
+
+		private final SocketChannel ch;
+		private SelectionKey key;
+
+		// 수신 바이트 (아직 줄바꿈이 오지 않은 부분 포함)
+		private ByteBuffer readBuf = ByteBuffer.allocate(READ_BUFFER);
+
+		// 송신 대기열에서 꺼내 아직 다 쓰지 못한 묶음 (모아쓰기용)
+		private final ByteBuffer[] inflight = new ByteBuffer[64];
+		private int inflightPos, inflightLen;
+
+		// 리액터에 전송 요청을 이미 넣었는지
+		private final AtomicBoolean flushRequested = new AtomicBoolean();
+
+		// 쓰기 묶기: 마지막 쓰기 시각, 미룬 쓰기의 기한 (lingering에 들어 있으면 lingered)
+		private long lastWrite = System.nanoTime() - Outbox.LINGER_NANOS;
+		private long flushAt;
+		private boolean lingered;
+
+		private final AtomicBoolean open = new AtomicBoolean(true);
+		private boolean closing;   // 남은 데이터 전송 후 종료 (LOGOUT)
+		private boolean suspended; // 비동기 작업(비밀번호 확인 등) 대기 중: 읽기 중단
+		private boolean backlogged; // 차례를 넘기고 backlog에서 기다리는 중: 읽기 중단
+
+		Connection(SocketChannel ch) {
+			this.ch = ch;
+			this.remote = hostOf(ch);
+		}
+
+		// 어느 스레드에서든 호출됨: 리액터에 전송 요청 (이미 요청했으면 생략)
+		@Override
+		void onQueued() {
+			if (open.get() && flushRequested.compareAndSet(false, true)) {
+				pendingFlushes.add(this);
+				selector.wakeup();
+			}
+		}
+
+		// 리액터 스레드에서만 호출: 대기열의 데이터를 모아쓰기로 가능한 만큼 전송
+		// 마지막 쓰기 후 LINGER가 지나지 않았으면 묶음이 찰 때까지 기한을 잡아 미룬다.
+		void flush() {
+			if (!open.get()) return;
+			flushRequested.set(false);
+			try {
+				while (true) {
+					if (inflightPos == inflightLen) {
+						long now = System.nanoTime();
+						if (!closing && now - lastWrite < Outbox.LINGER_NANOS && !outbox.ready(inflight.length)) {
+							if (!lingered && !outbox.isEmpty()) {
+								flushAt = lastWrite + Outbox.LINGER_NANOS;
+								lingered = true;
+								lingering.add(this);
+							}
+							break;
+						}
+
+						inflightPos = 0;
+						inflightLen = outbox.drain(inflight);
+						if (inflightLen == 0) break;
+						ServerMetrics.framesWritten.add(inflightLen);
+						inflightLen = outbox.pack(inflight, inflightLen);
+						lastWrite = now;
+					}
+
+					ch.write(inflight, inflightPos, inflightLen - inflightPos);
+					ServerMetrics.writes.increment();
+					while (inflightPos < inflightLen && !inflight[inflightPos].hasRemaining()) {
+						inflight[inflightPos++] = null;
+					}
+					if (inflightPos < inflightLen) break;   // 소켓 버퍼가 가득 참
+				}
+
+				boolean pending = inflightPos < inflightLen;
+				if (closing && !pending && outbox.isEmpty()) {
+					close();
+					return;
+				}
+
+				// 남은 데이터가 있으면 쓰기 가능 이벤트를 기다림
+				int ops = suspended || backlogged ? 0 : SelectionKey.OP_READ;
+				key.interestOps(pending ? ops | SelectionKey.OP_WRITE : ops);
+			} catch (IOException | CancelledKeyException e) {
+				close();
+			}
+		}
+
+		// 리액터 스레드에서만 호출: 소켓에서 읽고 줄 단위로 처리
+		void read() {
+			if (closing || suspended || backlogged) return;
+			try {
+				int n = ch.read(readBuf);
+				if (n < 0) {
+					close();
+					return;
+				}
+				touch();
+				processLines();
+			} catch (Exception e) {
+				System.out.println(e);
+				close();
+			}
+		}
+
+		// 읽기 버퍼에 쌓인 줄/프레임을 처리 (readBuf는 호출 전후 모두 쓰기 모드)
+		private void processLines() throws Exception {
+			readBuf.flip();
+			for (int lines = 1; ; lines++) {
+				int r = next(readBuf);
+				if (r == QUIT) {
+					// 응답(BYE 등)을 모두 보낸 뒤 종료
+					closing = true;
+					flush();
+					return;
+				}
+				if (r == MORE) break;
+
+				// 비밀번호 확인 등이 끝날 때까지 남은 입력은 그대로 두고 읽기 중단
+				CompletableFuture<?> f = takePending();
+				if (f != null && !f.isDone()) {
+					readBuf.compact();
+					suspend(f);
+					return;
+				}
+
+				// 이번 차례를 다 썼으면 남은 입력은 두고 다른 연결에 넘김
+				if (lines == QUANTUM && readBuf.hasRemaining()) {
+					readBuf.compact();
+					yieldTurn();
+					return;
+				}
+			}
+
+			// 줄바꿈 없이 버퍼가 가득 차면 버퍼를 키움 (최대 MAX_LINE)
+			readBuf = compact(readBuf);
+			if (readBuf == null) close();
+		}
+
+		// 작업이 끝나면 리액터 스레드에서 읽기 재개
+		private void suspend(CompletableFuture<?> f) {
+			suspended = true;
+			key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+
+			f.whenComplete((r, e) -> {
+				tasks.add(this::resume);
+				selector.wakeup();
+			});
+		}
+
+		private void resume() {
+			if (!open.get()) return;
+			suspended = false;
+			readAgain();
+		}
+
+		// 읽기를 멈추고 backlog 맨 뒤에서 차례를 기다림
+		private void yieldTurn() {
+			backlogged = true;
+			key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+			backlog.add(this);
+			ServerMetrics.reactorYields.increment();
+		}
+
+		// backlog에서 차례가 옴: 남은 줄을 QUANTUM개까지 처리하고 다 처리했으면 다시 읽기
+		private void takeTurn() {
+			if (!open.get()) return;
+			backlogged = false;
+			readAgain();
+		}
+
+		private void readAgain() {
+			try {
+				key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+				processLines();
+			} catch (Exception e) {
+				System.out.println(e);
+				close();
+			}
+		}
+
+		// 어느 스레드에서든 호출 가능 (대기열 초과 시 보내는 쪽에서 호출됨)
+		@Override
+		void close() {
+			if (!open.compareAndSet(true, false)) return;
+			outbox.close();
+			outbox.release();
+
+			if (key != null) key.cancel();
+			try { ch.close(); } catch (IOException e) {}
+
+			onClose();
+		}
+	}
+}
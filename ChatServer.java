@@ -1,339 +1,1396 @@
-import java.io.*;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.security.MessageDigest;
-import java.security.SecureRandom;
-import java.util.*;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-
-public class ChatServer {
-
-	// 현재 접속 중인 사용자 ID 목록
-	private static Set<String> names = new HashSet<>();
-
-	// 현재 접속 중인 모든 클라이언트 출력 스트림(브로드캐스트용)
-	private static Set<PrintWriter> writers = new HashSet<>();
-
-	// 계정 정보 저장 파일
-	private static File accountFile = new File("accounts.dat");
-
-	// 계정 정보(id → [salt, hash, name, email])
-	private static Map<String, String[]> accounts = new HashMap<>();
-
-	// 유저별 출력 스트림(귓속말 처리용)
-	private static Map<String, PrintWriter> userWriters = new HashMap<>();
-
-
-	public static void main(String[] args) throws Exception {
-		System.out.println("The chat server is running...");
-
-		// 서버 시작 시 계정 정보 로드
-		loadAccounts();
-
-		ExecutorService pool = Executors.newFixedThreadPool(500);
-
-		// 59001 포트에서 서버 실행
-		try (ServerSocket listener = new ServerSocket(59001)) {
-			while (true) {
-				// 접속될 때마다 새로운 Handler 스레드 실행
-				pool.execute(new Handler(listener.accept()));
-			}
-		}
-	}
-
-
-	// ============================
-	//    PASSWORD HASH 함수들
-	// ============================
-
-	// 바이트 배열 → 16진수 문자열 변환
-	private static String bytesToHex(byte[] bytes) {
-		StringBuilder sb = new StringBuilder();
-		for (byte b : bytes) sb.append(String.format("%02x", b));
-		return sb.toString();
-	}
-
-	// 랜덤 솔트 생성 (16바이트)
-	private static String generateSalt() {
-		byte[] salt = new byte[16];
-		new SecureRandom().nextBytes(salt);
-		return bytesToHex(salt);
-	}
-
-	// SHA-256 해시 계산 (salt + password)
-	private static String hashPassword(String password, String salt) throws Exception {
-		MessageDigest md = MessageDigest.getInstance("SHA-256");
-		md.update(salt.getBytes("UTF-8"));
-		byte[] hashed = md.digest(password.getBytes("UTF-8"));
-		return bytesToHex(hashed);
-	}
-
-
-	// ============================
-	//    계정 파일에서 로드
-	// ============================
-
-	private static void loadAccounts() {
-		accounts.clear();
-
-		if (!accountFile.exists()) {
-			System.out.println("accounts.dat 없음 — 새로 시작");
-			return;
-		}
-
-		try (BufferedReader br = new BufferedReader(new FileReader(accountFile))) {
-			String line;
-
-			while ((line = br.readLine()) != null) {
-				line = line.trim();
-				if (line.isEmpty()) continue;
-
-				// 저장되는 형식:
-				// id salt:hash name email
-				String[] tok = line.split("\\s+");
-
-				// 저장 형식이 맞는지 확인
-				if (tok.length >= 4 && tok[1].contains(":")) {
-					String id = tok[0];
-
-					String[] sh = tok[1].split(":");
-					String salt = sh[0];
-					String hash = sh[1];
-
-					String name = tok[2];
-					String email = tok[3];
-
-					accounts.put(id, new String[]{salt, hash, name, email});
-				} else {
-					// 잘못된(구버전) 비밀번호 형식은 무시
-					System.out.println("⚠ 구버전 비밀번호 포맷 발견 — 무시됨: " + line);
-				}
-			}
-
-			System.out.println("accounts loaded: " + accounts.size());
-		} catch (Exception e) {
-			System.out.println("계정 파일 로드 실패: " + e);
-		}
-	}
-
-
-	// ============================
-	//    계정 저장 (추가)
-	// ============================
-
-	private static synchronized void saveAccount(String id, String salt, String hash, String name, String email) {
-		try (PrintWriter writer = new PrintWriter(new FileWriter(accountFile, true))) {
-			writer.println(id + " " + salt + ":" + hash + " " + name + " " + email);
-		} catch (IOException e) {
-			System.out.println("계정 저장 실패: " + e);
-		}
-	}
-
-
-	// ============================
-	//         클라이언트 핸들러
-	// ============================
-
-	private static class Handler implements Runnable {
-
-		private String id;         // 로그인한 사용자 ID
-		private Socket socket;     // 소켓
-		private Scanner in;        // 입력 스트림
-		private PrintWriter out;   // 출력 스트림
-
-		public Handler(Socket socket) {
-			this.socket = socket;
-		}
-
-		public void run() {
-			try {
-				in = new Scanner(socket.getInputStream());
-				out = new PrintWriter(socket.getOutputStream(), true);
-
-				// 클라이언트에게 로그인 요구
-				out.println("LOGIN");
-
-				while (true) {
-					if (!in.hasNextLine()) return;
-
-					String line = in.nextLine().trim();
-					if (line.isEmpty()) continue;
-
-					// ---------------- CHECKID ----------------
-					// 아이디 중복 확인 요청
-					if (line.startsWith("CHECKID ")) {
-						String checkId = line.substring(8).trim();
-						boolean used = accounts.containsKey(checkId);
-						out.println(used ? "IDUSED" : "IDOK");
-						continue;
-					}
-
-					// ---------------- REGISTER ----------------
-					// 회원가입 처리
-					if (line.startsWith("REGISTER ")) {
-						String[] p = line.split(" ");
-						if (p.length >= 5) {
-
-							String newId = p[1];
-							String pw = p[2];
-							String name = p[3];
-							String email = p[4];
-
-							synchronized (accounts) {
-								// 이미 존재하는 ID인지 확인
-								if (accounts.containsKey(newId)) {
-									out.println("REGFAIL DuplicateID");
-								} else {
-									// 솔트 생성 후 비밀번호 해시 저장
-									String salt = generateSalt();
-									String hash = hashPassword(pw, salt);
-
-									accounts.put(newId, new String[]{salt, hash, name, email});
-									saveAccount(newId, salt, hash, name, email);
-
-									out.println("REGISTERSUCCESS");
-								}
-							}
-						} else {
-							out.println("REGFAIL BadFormat");
-						}
-						continue;
-					}
-
-					// ---------------- LOGIN ----------------
-					// 로그인 처리
-					if (line.startsWith("LOGIN ")) {
-						String[] parts = line.split(" ");
-						if (parts.length == 3) {
-							String loginId = parts[1];
-							String loginPw = parts[2];
-
-							// ID 존재 여부 확인
-							if (!accounts.containsKey(loginId)) {
-								out.println("NEEDREGISTER");
-								continue;
-							}
-
-							String[] acc = accounts.get(loginId);
-							String salt = acc[0];
-							String storedHash = acc[1];
-
-							// 입력된 비밀번호 해시 계산
-							String inputHash = hashPassword(loginPw, salt);
-
-							if (!storedHash.equals(inputHash)) {
-								out.println("LOGINFAIL");
-								continue;
-							}
-
-							// 이미 로그인 중인 사용자인지 확인
-							synchronized (names) {
-								if (names.contains(loginId)) {
-									out.println("ALREADYLOGGEDIN");
-									continue;
-								}
-							}
-
-							this.id = loginId;
-							break;
-						}
-						continue;
-					}
-
-					// 회원가입 화면에서 취소 누른 경우
-					if (line.equals("CANCELREGISTER")) {
-						out.println("LOGIN");
-						continue;
-					}
-				}
-
-				// ============================
-				// 로그인 성공 후 처리
-				// ============================
-
-				synchronized (names) {
-					names.add(id);
-				}
-
-				userWriters.put(id, out);
-				writers.add(out);
-
-				// 클라이언트에 로그인 성공 알림
-				out.println("NAMEACCEPTED " + id);
-
-				// 전체 사용자에게 입장 메시지 브로드캐스트
-				for (PrintWriter w : writers)
-					w.println("MESSAGE " + id + " has joined");
-
-				// ============================
-				//       채팅 루프
-				// ============================
-				while (true) {
-					if (!in.hasNextLine()) break;
-
-					String msg = in.nextLine().trim();
-
-					// 로그아웃 처리
-					if (msg.equals("LOGOUT")) {
-						out.println("BYE");
-						break;
-					}
-
-					// 귓속말 (/w 사용자 메시지)
-					if (msg.startsWith("/w ")) {
-						handleWhisper(msg);
-						continue;
-					}
-
-					// 일반 메시지 브로드캐스트
-					for (PrintWriter w : writers)
-						w.println("MESSAGE " + id + ": " + msg);
-				}
-
-			} catch (Exception e) {
-				System.out.println(e);
-
-			} finally {
-				// 종료 처리
-				if (id != null) {
-					names.remove(id);
-					writers.remove(out);
-					userWriters.remove(id);
-
-					// 전체 사용자에게 퇴장 메시지 브로드캐스트
-					for (PrintWriter w : writers)
-						w.println("MESSAGE " + id + " has left");
-				}
-
-				try { socket.close(); } catch (IOException e) {}
-			}
-		}
-
-		// ============================
-		//      귓속말 처리 함수
-		// ============================
-		private void handleWhisper(String msg) {
-			String[] p = msg.split(" ", 3);
-
-			if (p.length < 3) {
-				out.println("MESSAGE Whisper 사용법: /w [유저명] [메시지]");
-				return;
-			}
-
-			PrintWriter target = userWriters.get(p[1]);
-
-			if (target == null) {
-				out.println("MESSAGE ⚠ 상대방 없음");
-				return;
-			}
-
-			// 발신자에게 표시
-			out.println("MESSAGE (귓→" + p[1] + ") " + p[2]);
-			// 수신자에게 전달
-			target.println("MESSAGE (귓←" + id + ") " + p[2]);
-		}
-	}
-}
-
-
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+public class ChatServer {
+
+	// 현재 접속 중인 세션 (ID별 조회, 전달은 방 참여자 배열로)
+	private static final SessionRegistry sessions = new SessionRegistry();
+
+	// 채팅방 (방 이름 → 참여 세션)
+	private static final RoomIndex roomIndex = new RoomIndex();
+
+	// 채팅 기록 (입장 시 최근 메시지 전달용)
+	private static HistoryStore history;
+
+	// 입장할 때 보여줄 최근 메시지 수 (-Dchat.history.backfill=50)
+	private static final int BACKFILL = Integer.getInteger("chat.history.backfill", 50);
+
+	// 예전 계정 정보 파일 (처음 실행 시 계정 저장소로 옮김)
+	private static File accountFile = new File("accounts.dat");
+
+	// 계정 저장소 (id → salt, hash, name, email)
+	private static AccountStore accounts;
+
+	// 비밀번호 해시 전용 스레드 풀 / 로그인 시도 제한
+	private static PasswordHasher hasher;
+	private static final LoginLimiter limiter = new LoginLimiter();
+
+	// 귓속말 전달 / 접속하지 않은 사람에게 온 귓속말 보관함
+	private static WhisperRouter whispers;
+
+	// 전체 접속자 목록 (CAPS presence를 고른 클라이언트에게 변경분 전달)
+	private static final Presence presence = new Presence(sessions);
+
+	// 재접속 토큰 (CAPS resume를 고른 클라이언트에게 로그인할 때 줌)
+	private static SessionTokens tokens;
+
+	// 파일 보관함과 파일 포트 (CAPS files를 고른 클라이언트의 /send, /get)
+	private static BlobSpool files;
+
+	// 재접속할 때 방마다 다시 보내는 놓친 메시지 최대 수 (-Dchat.resume.replay.max=500)
+	static final int REPLAY_MAX = Integer.getInteger("chat.resume.replay.max", 500);
+
+	// 서버 포트 (-Dchat.port, 한 컴퓨터에서 여러 노드를 띄울 때 노드마다 다르게)
+	static final int PORT = Integer.getInteger("chat.port", 59001);
+
+	// 다른 서버 노드와 접속 현황/메시지 공유 (-Dchat.cluster.*, 설정이 없으면 null)
+	private static Cluster cluster;
+
+	// 하트비트: IDLE_MS 동안 아무것도 받지 못한 연결에 PING을 보내고, 그 뒤 PONG_TIMEOUT_MS 안에도
+	// 아무것도 오지 않으면 (CAPS heartbeat를 고른 클라이언트만) 끊는다. 반쯤 열린 연결(상대가 죽음)이
+	// 세션 목록과 ID를 붙잡고 있지 않도록. (-Dchat.idle.ms=30000 -Dchat.pong.timeout.ms=15000, 0이면 끔)
+	static final long IDLE_MS = Long.getLong("chat.idle.ms", 30_000);
+	static final long PONG_TIMEOUT_MS = Long.getLong("chat.pong.timeout.ms", 15_000);
+	static final String HEARTBEAT_CAP = "heartbeat";
+
+	// 모든 연결의 하트비트 기한 (연결마다 타이머 작업을 만들지 않음, -Dchat.idle.tick.ms=250)
+	private static final TimingWheel idleWheel = new TimingWheel("idle-reaper", Long.getLong("chat.idle.tick.ms", 250), 1024);
+
+	// 보내는 속도 제한(FloodControl)으로 미룬 메시지를 때가 되면 처리 (연결마다 스레드나 타이머를 두지 않음)
+	private static final ScheduledExecutorService floodDelay = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread t = new Thread(r, "flood-delay");
+		t.setDaemon(true);
+		return t;
+	});
+
+	// 연결 직후 "CAPS ..."로 알리는 선택 기능 (클라이언트가 "CAPS ..."로 고름)
+	// - binary: 길이 접두 바이너리 프레임 (-Dchat.binary=false로 끔)
+	// - presence: 접속자 목록과 변경분 (-Dchat.presence=false로 끔)
+	// - heartbeat: PING에 PONG으로 답함 (답이 없으면 끊어도 됨)
+	// - resume: 재접속 토큰과 방 메시지 seq (-Dchat.resume=false로 끔)
+	// - files: 별도 포트로 파일 올리기/받기 (-Dchat.files=false로 끔)
+	// - deflate: 서버 → 클라이언트 압축 (-Dchat.deflate=false로 끔, CPU가 포화되면 자동으로 멈춤)
+	static final List<String> CAPS = new ArrayList<>();
+	static {
+		if (Boolean.parseBoolean(System.getProperty("chat.binary", "true"))) CAPS.add(Wire.CAP);
+		if (Boolean.parseBoolean(System.getProperty("chat.presence", "true"))) CAPS.add(Presence.CAP);
+		if (IDLE_MS > 0) CAPS.add(HEARTBEAT_CAP);
+		if (Boolean.parseBoolean(System.getProperty("chat.resume", "true"))) CAPS.add(SessionTokens.CAP);
+		if (Boolean.parseBoolean(System.getProperty("chat.files", "true"))) CAPS.add(BlobSpool.CAP);
+		if (Boolean.parseBoolean(System.getProperty("chat.deflate", "true"))) CAPS.add(Deflate.CAP);
+	}
+
+
+	public static void main(String[] args) throws Exception {
+		System.out.println("The chat server is running...");
+
+		// 서버 시작 시 계정 저장소 열기 (-Dchat.accounts.dir=accountdb)
+		// 로그 다시 읽기 / 예전 파일 옮기기는 뒤에서 계속하고 접속은 먼저 받는다
+		accounts = AccountStore.openInBackground(new File(System.getProperty("chat.accounts.dir", "accountdb")), accountFile);
+		accounts.loaded().whenComplete((v, e) -> {
+			if (e != null) System.exit(1);   // 계정 저장소를 열 수 없으면 로그인을 받을 수 없음
+			ServerMetrics.accountsLoaded();
+		});
+		hasher = new PasswordHasher(accounts);
+
+		// 채팅 기록 열기 (-Dchat.history.dir=history)
+		history = HistoryStore.open(new File(System.getProperty("chat.history.dir", "history")));
+
+		// 귓속말 보관함 (-Dchat.spool.dir=spool)
+		whispers = WhisperRouter.open(new File(System.getProperty("chat.spool.dir", "spool")), sessions, accounts);
+
+		// 재접속 토큰/노드 간 인증 서명 키 (-Dchat.resume.key=session.key, 클러스터면 모든 노드가 같은 파일)
+		tokens = SessionTokens.open(new File(System.getProperty("chat.resume.key", "session.key")));
+
+		// 파일 보관함 (-Dchat.file.dir=files), 파일 포트는 -Dchat.file.port (기본 채팅 포트 + 2)
+		files = BlobSpool.open(new File(System.getProperty("chat.file.dir", "files")), tokens);
+		if (CAPS.contains(BlobSpool.CAP)) files.start(ChatServer::onUploaded);
+
+		// 클러스터 (-Dchat.cluster.peers=주소,주소,... -Dchat.cluster.node=번호)
+		cluster = Cluster.start(sessions, roomIndex, history, accounts, whispers, presence, tokens);
+
+		// 지표 (JMX + 관리 포트 -Dchat.admin.port=59002)
+		registerGauges();
+		ServerMetrics.start();
+		if (CAPS.contains(Deflate.CAP)) Deflate.startGuard();
+
+		// 입출력 모드 선택 (-Dchat.io=nio | thread | virtual)
+		String io = System.getProperty("chat.io", "nio");
+
+		// 연결별 송신 대기열 통계 출력 (-Dchat.stats.interval=초)
+		int statsInterval = Integer.getInteger("chat.stats.interval", 0);
+		if (statsInterval > 0) startStatsReporter(statsInterval);
+
+		if (io.equals("thread")) {
+			// 기존 방식: 연결마다 플랫폼 스레드 하나를 점유 (최대 500개)
+			// 송신 writer는 별도 풀에서 실행 (핸들러 풀 자리를 차지하지 않도록)
+			ThreadPoolExecutor pool = (ThreadPoolExecutor) Executors.newFixedThreadPool(500);
+			ServerMetrics.gauge("chat_handler_pool_active", "busy handler threads", pool::getActiveCount);
+			ServerMetrics.gauge("chat_handler_pool_max", "handler pool size", pool::getMaximumPoolSize);
+			ServerMetrics.gauge("chat_handler_pool_queue", "connections waiting for a handler thread", () -> pool.getQueue().size());
+			runHandlers(pool, Executors.newCachedThreadPool());
+		} else if (io.equals("virtual")) {
+			// 연결마다 가상 스레드 하나 (Java 21) — 블로킹 코드 그대로, 접속 수 제한 없음
+			ExecutorService vt = Executors.newVirtualThreadPerTaskExecutor();
+			runHandlers(vt, vt);
+		} else {
+			// 코어 수만큼의 리액터 스레드가 모든 연결을 처리
+			int reactors = Integer.getInteger("chat.reactors", Runtime.getRuntime().availableProcessors());
+			ChatReactor.serve(PORT, reactors);
+		}
+	}
+
+	// 블로킹 핸들러 방식: 접속될 때마다 Handler를 pool에서 실행
+	private static void runHandlers(ExecutorService pool, ExecutorService writerPool) throws IOException {
+		// 59001 포트에서 서버 실행 (모아쓰기를 위해 채널 기반 소켓 사용)
+		try (ServerSocketChannel listener = ServerSocketChannel.open()) {
+			listener.bind(new InetSocketAddress(PORT), 1024);
+			ServerMetrics.listening();
+			while (true) {
+				// 접속될 때마다 새로운 Handler 실행
+				SocketChannel ch = listener.accept();
+				ch.setOption(StandardSocketOptions.TCP_NODELAY, true);   // 묶기는 Outbox가 함
+				pool.execute(new Handler(ch, writerPool));
+			}
+		}
+	}
+
+	// 지표로 내보낼 상태값 (조회할 때 계산)
+	private static void registerGauges() {
+		ServerMetrics.gauge("chat_sessions", "logged-in sessions", sessions::size);
+		ServerMetrics.gauge("chat_rooms", "rooms", roomIndex::size);
+		ServerMetrics.gauge("chat_accounts", "registered accounts", accounts::size);
+		ServerMetrics.gauge("chat_hash_queue", "password hashes waiting for a hasher thread", hasher::queueDepth);
+		ServerMetrics.gauge("chat_hash_active", "password hashes in progress", hasher::activeCount);
+		ServerMetrics.gauge("chat_account_commit_queue", "account writes waiting for commit", accounts::commitQueueDepth);
+		ServerMetrics.gauge("chat_whisper_spool_depth", "stored whispers waiting for their recipient to log in", whispers::depth);
+		ServerMetrics.gauge("chat_whisper_spool_depth_max", "most stored whispers for one user", whispers::maxDepth);
+		ServerMetrics.gauge("chat_whisper_spool_bytes", "stored whisper bytes on disk", whispers::bytes);
+		ServerMetrics.gauge("chat_presence_online", "users in the presence roster (all nodes)", presence::size);
+		ServerMetrics.gauge("chat_presence_subscribers", "sessions receiving presence updates", presence::subscriberCount);
+		ServerMetrics.gauge("chat_presence_version", "presence roster version", presence::version);
+		ServerMetrics.gauge("chat_file_spool_files", "files kept in the file spool", files::count);
+		ServerMetrics.gauge("chat_file_spool_bytes", "bytes reserved in the file spool (including partial uploads)", files::bytes);
+		ServerMetrics.gauge("chat_file_transfers_active", "uploads/downloads in progress on the file port", files::activeTransfers);
+		ServerMetrics.gauge("chat_deflate_connections", "connections with compressed output", Deflate::activeConnections);
+		ServerMetrics.gauge("chat_deflate_suspended", "1 while compression is suspended for CPU", () -> Deflate.isSuspended() ? 1 : 0);
+		ServerMetrics.gauge("chat_idle_wheel_entries", "connections tracked by the idle reaper", idleWheel::size);
+		if (cluster != null) {
+			ServerMetrics.gauge("chat_cluster_peers_connected", "other nodes this node can send to", cluster::connectedPeers);
+			ServerMetrics.gauge("chat_cluster_remote_sessions", "sessions logged in on other nodes", cluster::remoteCount);
+		}
+
+		// 연결별 송신 대기열 (로그인한 세션 기준)
+		ServerMetrics.gauge("chat_outbox_depth_total", "queued frames over all sessions", () -> {
+			long sum = 0;
+			for (Session s : sessions.list()) sum += s.outbox.depth();
+			return sum;
+		});
+		ServerMetrics.gauge("chat_outbox_depth_max", "deepest session queue", () -> {
+			long max = 0;
+			for (Session s : sessions.list()) max = Math.max(max, s.outbox.depth());
+			return max;
+		});
+		ServerMetrics.gauge("chat_outbox_dropped_total", "frames dropped or coalesced by overflow policy", () -> {
+			long sum = 0;
+			for (Session s : sessions.list()) sum += s.outbox.dropped();
+			return sum;
+		});
+	}
+
+	// 이 서버의 노드 번호 (클러스터가 아니면 0)
+	static int node() {
+		return cluster == null ? 0 : cluster.self();
+	}
+
+	// 재접속 가능한 세션에 보내는 방 메시지: "SEQ seq 시각 MESSAGE ..."
+	static String seqLine(HistoryStore.Record rec) {
+		return "SEQ " + rec.seq + " " + rec.time + " " + rec.line;
+	}
+
+	// 주기적으로 송신 대기열 상태 출력 (대기열이 가장 긴 연결 5개 포함)
+	private static void startStatsReporter(int intervalSec) {
+		ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "stats");
+			t.setDaemon(true);
+			return t;
+		});
+
+		timer.scheduleAtFixedRate(() -> {
+			try {
+				List<Session> list = sessions.list();
+				long depth = 0, dropped = 0;
+				for (Session s : list) {
+					depth += s.outbox.depth();
+					dropped += s.outbox.dropped();
+				}
+
+				list.sort((a, b) -> Integer.compare(b.outbox.depth(), a.outbox.depth()));
+				StringBuilder top = new StringBuilder();
+				for (Session s : list.subList(0, Math.min(5, list.size()))) {
+					top.append(' ').append(s.id).append('=').append(s.outbox.depth())
+							.append("(hw ").append(s.outbox.highWater()).append(')');
+				}
+
+				System.out.println("outbox: sessions=" + list.size() + " rooms=" + roomIndex.size() + " depth=" + depth
+						+ " dropped=" + dropped + " top:" + top);
+			} catch (Exception e) {
+				System.out.println("stats 실패: " + e);
+			}
+		}, intervalSec, intervalSec, TimeUnit.SECONDS);
+	}
+
+
+	// ============================
+	//    PASSWORD HASH 함수들
+	// ============================
+
+	// 솔트용 난수 생성기 (호출마다 새로 만들지 않고 공유, 스레드 안전)
+	private static final SecureRandom random = new SecureRandom();
+
+	// 바이트 배열 → 16진수 문자열 변환
+	static String bytesToHex(byte[] bytes) {
+		StringBuilder sb = new StringBuilder();
+		for (byte b : bytes) sb.append(String.format("%02x", b));
+		return sb.toString();
+	}
+
+	// 랜덤 솔트 생성 (16바이트)
+	static byte[] generateSalt() {
+		byte[] salt = new byte[16];
+		random.nextBytes(salt);
+		return salt;
+	}
+
+	// SHA-256 해시 계산 (salt + password) — 예전 방식 계정 확인용
+	static String hashPassword(String password, String salt) throws Exception {
+		MessageDigest md = MessageDigest.getInstance("SHA-256");
+		md.update(salt.getBytes("UTF-8"));
+		byte[] hashed = md.digest(password.getBytes("UTF-8"));
+		return bytesToHex(hashed);
+	}
+
+	// PBKDF2-HMAC-SHA256 (iterations로 계산 비용 조절)
+	static byte[] pbkdf2(String password, byte[] salt, int iterations) throws Exception {
+		PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, 256);
+		try {
+			return SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(spec).getEncoded();
+		} finally {
+			spec.clearPassword();
+		}
+	}
+
+
+	// ============================
+	//      세션 (프로토콜 처리)
+	// ============================
+
+	// 전송 방식(블로킹 스레드 / NIO 리액터)과 무관하게
+	// 한 줄씩 들어오는 명령을 처리하는 연결 단위 상태 머신
+	static abstract class Session {
+
+		volatile String id;        // 로그인한 사용자 ID (로그인 전에는 null, 다른 스레드에서도 읽음)
+		private boolean closed;    // 종료 처리 완료 여부
+
+		// 송신 대기열 (소켓 쓰기는 연결별 writer가 담당)
+		final Outbox outbox = new Outbox();
+
+		// 참여 중인 방 목록과 일반 메시지를 보낼 현재 방
+		final Set<RoomIndex.Room> rooms = ConcurrentHashMap.newKeySet();
+		volatile RoomIndex.Room room;
+
+		// 바이너리 프레임 사용 여부 (CAPS 협상 후 켜짐)
+		boolean binaryIn;            // 읽는 쪽 (읽기 스레드에서만 사용)
+		volatile boolean binaryOut;  // 보내는 쪽 (어느 스레드에서나 send)
+
+		// 접속자 목록(Presence)을 받음 (로그인 전 CAPS 협상에서만 정해짐)
+		// 켜져 있으면 기본 방 입장/퇴장 알림은 보내지 않는다
+		boolean roster;
+
+		// 하트비트 (연결마다 타이밍 휠 항목 하나, 입력이 올 때는 시각만 기록)
+		private volatile long lastInput = TimingWheel.now();   // 마지막으로 무엇이든 받은 시각
+		volatile boolean heartbeat;                             // CAPS heartbeat: 답이 없으면 끊음
+		private final Idle idle = new Idle();
+
+		// 재접속 (CAPS resume): 방 메시지에 seq를 붙여 받고, 로그인하면 토큰을 받음
+		volatile boolean resumable;
+		private Resume resuming;        // RESUME으로 로그인하는 중이면 놓친 메시지 위치
+		private volatile String token;  // 이 연결에 준 토큰 (같은 클라이언트의 재접속인지 확인용)
+
+		// 파일 전송 (CAPS files): UPLOAD/FILE 줄을 이해함
+		boolean fileCapable;
+
+		// 보내는 쪽 압축을 켬 (CAPS deflate, 한 번 켜면 끄지 않음)
+		private boolean deflated;
+
+		// 방 메시지/귓속말 속도 제한, 버림 알림을 마지막으로 보낸 시각 (입력 처리 스레드 전용)
+		private final FloodControl flood = new FloodControl();
+		private long floodNoticeAt = System.nanoTime() - FLOOD_NOTICE_NANOS;
+		private static final long FLOOD_NOTICE_NANOS = 1_000_000_000L;
+
+		// 클라이언트에게 한 줄 전송 (다른 스레드에서도 호출됨)
+		void send(String line) {
+			send(Frame.of(line));
+		}
+
+		// 미리 인코딩된 프레임 전송
+		// 대기열에 넣기만 하므로 상대가 느려도 호출한 쪽은 막히지 않는다.
+		void send(Frame frame) {
+			ServerMetrics.framesOut.increment();
+			if (!outbox.offer(binaryOut ? frame.binary() : frame)) {
+				// 대기열 초과 (DISCONNECT 정책)
+				close();
+				return;
+			}
+			onQueued();
+		}
+
+		// 대기열에 새 줄이 들어왔을 때 writer를 깨우는 용도
+		void onQueued() {}
+
+		// 방에 들어가며 최근 기록을 보내는 동안(joinRoom) 그 방의 새 메시지는 모았다가 기록 뒤에 보냄
+		private volatile String backfilling;              // 그 방 이름
+		private List<Frame> deferred;                     // this로 보호
+		private List<HistoryStore.Record> deferredRecs;
+
+		// 방 메시지 한 줄 (RoomIndex.post, rec는 기록되지 않았으면 null)
+		void post(String roomName, Frame frame, HistoryStore.Record rec) {
+			if (roomName.equals(backfilling)) {
+				synchronized (this) {
+					if (roomName.equals(backfilling)) {
+						deferred.add(frame);
+						deferredRecs.add(rec);
+						return;
+					}
+				}
+			}
+			send(frame);
+		}
+
+		// 상대 주소 (로그인 시도 제한용)
+		String remote = "?";
+
+		// 진행 중인 비동기 작업 (비밀번호 해시 등)
+		// 전송 계층은 이것이 끝날 때까지 이 연결의 다음 줄을 처리하지 않는다.
+		private CompletableFuture<?> pending;
+
+		void suspendUntil(CompletableFuture<?> f) {
+			pending = f;
+
+			// 기다리는 동안은 전송 계층이 읽지 않으므로 (PONG도 읽히지 않음) 하트비트를 미룬다
+			waiting = true;
+			f.whenComplete((r, e) -> {
+				waiting = false;
+				touch();
+			});
+		}
+
+		// suspendUntil로 넘긴 작업이 아직 끝나지 않음
+		private volatile boolean waiting;
+
+		// onLine 직후 전송 계층이 호출: 기다려야 할 작업이 있으면 넘겨주고 비움
+		CompletableFuture<?> takePending() {
+			CompletableFuture<?> f = pending;
+			pending = null;
+			return f;
+		}
+
+		static String hostOf(SocketChannel ch) {
+			try {
+				return ((InetSocketAddress) ch.getRemoteAddress()).getAddress().getHostAddress();
+			} catch (Exception e) {
+				return "?";
+			}
+		}
+
+		// 연결 끊기
+		abstract void close();
+
+		// 연결 직후 호출: 제공 기능을 알리고 로그인 요구
+		// (예전 클라이언트는 모르는 CAPS 줄을 무시하고 텍스트로 계속 진행)
+		void onOpen() {
+			ServerMetrics.connectionsOpened.increment();
+			if (IDLE_MS > 0) idleWheel.schedule(idle, lastInput + IDLE_MS);
+			if (!CAPS.isEmpty()) send("CAPS " + String.join(" ", CAPS));
+			send("LOGIN");
+		}
+
+		// 소켓에서 무엇이든 읽을 때마다 전송 계층이 호출 (휠은 건드리지 않음)
+		void touch() {
+			lastInput = TimingWheel.now();
+		}
+
+		private static final Frame PING = Frame.shared("PING");
+
+		// 하트비트 기한 (휠 스레드에서 호출)
+		// 조용함 → PING → 그래도 조용함 → heartbeat 클라이언트면 끊음. 예전 클라이언트는 PONG을
+		// 모르므로 끊지 않고 IDLE_MS마다 PING만 보낸다 (상대가 죽었으면 쓰기가 실패해서 닫힘).
+		private final class Idle extends TimingWheel.Timeout {
+			private long pingedAt = -1;   // 답을 기다리는 PING을 보낸 시각
+
+			@Override
+			long expire(long now) {
+				if (closed) return TimingWheel.DONE;
+				if (waiting) {
+					// 서버 쪽 작업(비밀번호 확인 등)을 기다리는 중: 클라이언트 탓이 아님
+					pingedAt = -1;
+					return now + IDLE_MS;
+				}
+				long last = lastInput;
+
+				if (pingedAt >= 0 && last < pingedAt) {
+					// PING 뒤로 아무것도 오지 않음
+					pingedAt = -1;
+					if (heartbeat) {
+						ServerMetrics.idleEvictions.increment();
+						System.out.println("idle: closing " + (id != null ? id : remote) + " (no PONG)");
+						close();
+						return TimingWheel.DONE;
+					}
+				} else if (now - last < IDLE_MS) {
+					pingedAt = -1;
+					return last + IDLE_MS;
+				}
+
+				pingedAt = now;
+				ServerMetrics.heartbeatPings.increment();
+				send(PING);
+				return now + (heartbeat ? PONG_TIMEOUT_MS : IDLE_MS);
+			}
+		}
+
+
+		// ============================
+		//      입력 (줄 / 프레임)
+		// ============================
+
+		// next()의 결과
+		static final int MORE = 0;   // 줄/프레임이 아직 다 오지 않음
+		static final int DONE = 1;   // 하나 처리함
+		static final int QUIT = 2;   // 연결 종료 요청 (LOGOUT)
+
+		// 읽기 버퍼(읽기 모드, 힙 버퍼)에서 줄 또는 프레임 하나를 꺼내 처리
+		// 바이너리로 바뀐 뒤에는 같은 버퍼의 나머지를 프레임으로 읽는다.
+		int next(ByteBuffer in) throws Exception {
+			// 서버 시작 직후 계정 저장소를 다 읽기 전: 로그인 전 입력은 버퍼에 그대로 두고 기다림
+			if (id == null && in.hasRemaining() && !accounts.isLoaded()) {
+				suspendUntil(accounts.loaded());
+				return DONE;
+			}
+
+			if (binaryIn) {
+				int start = in.position();
+				ByteBuffer payload = Wire.nextFrame(in);
+				if (payload == null) return MORE;
+				return onFrame(in.get(start) & 0xff, payload) ? DONE : QUIT;
+			}
+
+			byte[] arr = in.array();
+			int off = in.arrayOffset();
+			int start = in.position();
+			for (int i = start; i < in.limit(); i++) {
+				if (arr[off + i] != '\n') continue;
+
+				int end = i;
+				if (end > start && arr[off + end - 1] == '\r') end--;
+				in.position(i + 1);
+				return onLine(new String(arr, off + start, end - start, StandardCharsets.UTF_8)) ? DONE : QUIT;
+			}
+			return MORE;
+		}
+
+		// 처리하고 남은 바이트를 앞으로 당기고 쓰기 모드로 돌려줌
+		// 가득 차면 버퍼를 키우고, 최대 크기(MAX_LINE)를 넘으면 null
+		static ByteBuffer compact(ByteBuffer in) {
+			in.compact();
+			if (in.hasRemaining()) return in;
+			if (in.capacity() >= ChatReactor.MAX_LINE) return null;
+
+			ByteBuffer bigger = ByteBuffer.allocate(Math.min(in.capacity() * 2, ChatReactor.MAX_LINE));
+			in.flip();
+			bigger.put(in);
+			return bigger;
+		}
+
+		// 텍스트 한 줄 처리. false를 반환하면 연결을 종료한다.
+		boolean onLine(String line) throws Exception {
+			ServerMetrics.linesIn.increment();
+			line = line.trim();
+			if (line.equals("PONG")) return true;   // 하트비트 답 (받은 시각은 touch에서)
+			if (id == null) {
+				if (!line.isEmpty()) onLoginLine(line);
+				return true;
+			}
+			return onChatLine(line);
+		}
+
+		// 바이너리 프레임 하나 처리 (필드는 내용 slice에서 바로 문자열로). false면 연결 종료
+		boolean onFrame(int op, ByteBuffer p) throws Exception {
+			ServerMetrics.linesIn.increment();
+			if (op == Wire.C_PONG) return true;
+
+			if (id == null) {
+				switch (op) {
+					case Wire.C_CHECKID:
+						checkId(Wire.readField(p));
+						break;
+					case Wire.C_REGISTER:
+						register(Wire.readField(p), Wire.readField(p), Wire.readField(p), Wire.readField(p));
+						break;
+					case Wire.C_LOGIN:
+						login(Wire.readField(p), Wire.readField(p));
+						break;
+					case Wire.C_CANCELREGISTER:
+						send("LOGIN");
+						break;
+					case Wire.C_RESUME:
+						resume(Wire.readField(p), Wire.readField(p), Wire.readField(p), Wire.readField(p));
+						break;
+				}
+				return true;
+			}
+
+			switch (op) {
+				case Wire.C_LOGOUT:
+					return logout();
+				case Wire.C_CHAT:
+					chat(Wire.readField(p));
+					break;
+				case Wire.C_WHISPER:
+					whisper(Wire.readField(p), Wire.readField(p));
+					break;
+				case Wire.C_JOIN:
+					handleJoin(Wire.readField(p).trim());
+					break;
+				case Wire.C_LEAVE:
+					handleLeave(Wire.readField(p).trim());
+					break;
+				case Wire.C_ROOMS:
+					handleRooms();
+					break;
+				case Wire.C_SEND:
+					sendFile(Wire.readField(p), Wire.readField(p), Wire.readField(p));
+					break;
+				case Wire.C_GET:
+					getFile(Wire.readField(p).trim());
+					break;
+			}
+			return true;
+		}
+
+		// 로그인 전 명령 처리 (텍스트)
+		private void onLoginLine(String line) throws Exception {
+
+			// ---------------- CAPS ----------------
+			// 클라이언트가 고른 기능
+			if (line.startsWith("CAPS ")) {
+				selectCaps(line.substring(5).trim().split("\\s+"));
+				return;
+			}
+
+			// ---------------- CHECKID ----------------
+			// 아이디 중복 확인 요청
+			if (line.startsWith("CHECKID ")) {
+				checkId(line.substring(8).trim());
+				return;
+			}
+
+			// ---------------- REGISTER ----------------
+			// 회원가입 처리
+			if (line.startsWith("REGISTER ")) {
+				String[] p = line.split(" ");
+				if (p.length >= 5) {
+					register(p[1], p[2], p[3], p[4]);
+				} else {
+					send("REGFAIL BadFormat");
+				}
+				return;
+			}
+
+			// ---------------- LOGIN ----------------
+			// 로그인 처리
+			if (line.startsWith("LOGIN ")) {
+				String[] parts = line.split(" ");
+				if (parts.length == 3) login(parts[1], parts[2]);
+				return;
+			}
+
+			// ---------------- RESUME ----------------
+			// 재접속: RESUME 토큰 마지막seq 마지막시각 [방...]
+			if (line.startsWith("RESUME ")) {
+				String[] p = line.split(" ", 5);
+				if (p.length >= 4) resume(p[1], p[2], p[3], p.length == 5 ? p[4] : "");
+				else send("RESUMEFAIL");
+				return;
+			}
+
+			// 회원가입 화면에서 취소 누른 경우
+			if (line.equals("CANCELREGISTER")) {
+				send("LOGIN");
+			}
+		}
+
+		// 서버가 제공하는 것만 받아들이고 CAPSACK으로 알린 뒤 적용
+		// 로그인 전에만 받으므로 이 연결로 다른 스레드가 보내는 것(브로드캐스트 등)이 아직 없다.
+		private void selectCaps(String[] wanted) {
+			StringBuilder ack = new StringBuilder("CAPSACK");
+			boolean binary = false;
+			Deflate.Out deflate = null;
+			for (String c : wanted) {
+				if (!CAPS.contains(c)) continue;
+				if (c.equals(Deflate.CAP)) {
+					// 압축하는 연결이 너무 많거나 CPU가 포화되었으면 압축 없이
+					if (deflated || (deflate = Deflate.acquire()) == null) continue;
+					deflated = true;
+				}
+				ack.append(' ').append(c);
+				if (c.equals(Wire.CAP)) binary = true;
+				if (c.equals(Presence.CAP)) roster = true;
+				if (c.equals(HEARTBEAT_CAP)) heartbeat = true;
+				if (c.equals(SessionTokens.CAP)) resumable = true;
+				if (c.equals(BlobSpool.CAP)) fileCapable = true;
+			}
+
+			// 압축은 이 줄 다음부터 (사이에 다른 줄이 끼지 않게 넣으면서 켬)
+			if (deflate == null) {
+				send(ack.toString());
+			} else {
+				ServerMetrics.framesOut.increment();
+				if (!outbox.offerThenDeflate(Frame.of(ack.toString()), deflate)) {
+					deflate.end();
+					close();
+					return;
+				}
+				onQueued();
+			}
+
+			if (binary) {
+				binaryIn = true;
+				binaryOut = true;
+				outbox.binary = true;
+			}
+		}
+
+		// 아이디 중복 확인
+		private void checkId(String checkId) {
+			boolean used = accounts.exists(checkId);
+			send(used ? "IDUSED" : "IDOK");
+		}
+
+		// 아이디는 텍스트 명령에 그대로 들어가므로 공백 불가
+		private static boolean isValidId(String s) {
+			if (s.isEmpty()) return false;
+			for (int i = 0; i < s.length(); i++) {
+				if (Character.isWhitespace(s.charAt(i))) return false;
+			}
+			return true;
+		}
+
+		// 회원가입
+		private void register(String newId, String pw, String name, String email) {
+			if (!isValidId(newId) || pw.isEmpty()) {
+				send("REGFAIL BadFormat");
+				return;
+			}
+
+			// 이미 존재하는 ID인지 확인
+			if (accounts.exists(newId)) {
+				send("REGFAIL DuplicateID");
+				return;
+			}
+
+			if (!limiter.tryAttempt(remote)) {
+				send("LOGINLIMIT");
+				return;
+			}
+
+			// 해시 계산은 해시 전용 스레드에서, 디스크에 확정된 뒤 응답
+			// (동시에 같은 ID로 가입하면 한쪽만 성공)
+			long start = System.nanoTime();
+			suspendUntil(hasher.create(newId, pw, name, email)
+					.thenCompose(Session::store)
+					.handle((ok, err) -> {
+						if (err != null) send(isOverloaded(err) ? "LOGINLIMIT" : "REGFAIL ServerError");
+						else send(ok ? "REGISTERSUCCESS" : "REGFAIL DuplicateID");
+						ServerMetrics.registerTime.record(System.nanoTime() - start);
+						return null;
+					}));
+		}
+
+		// 계정 저장 (클러스터면 ID 담당 노드에 먼저 예약하고, 저장 후 다른 노드에 복제)
+		private static CompletableFuture<Boolean> store(AccountStore.Account a) {
+			if (cluster == null) return accounts.register(a);
+
+			return cluster.reserve(a.id)
+					.thenCompose(ok -> ok ? accounts.register(a) : CompletableFuture.completedFuture(false))
+					.thenApply(ok -> {
+						if (ok) cluster.replicate(a);
+						return ok;
+					});
+		}
+
+		// 로그인
+		private void login(String loginId, String loginPw) {
+			resuming = null;
+
+			// 실패가 많은 ID / 시도가 많은 IP는 해시 계산 전에 거절
+			if (limiter.isLocked(loginId) || !limiter.tryAttempt(remote)) {
+				send("LOGINLIMIT");
+				return;
+			}
+
+			// 비밀번호 확인은 해시 전용 스레드에서 (끝날 때까지 다음 줄은 처리하지 않음)
+			long start = System.nanoTime();
+			suspendUntil(hasher.verify(loginId, loginPw).handle((result, err) -> {
+				ServerMetrics.loginTime.record(System.nanoTime() - start);
+				if (err != null) {
+					send(isOverloaded(err) ? "LOGINLIMIT" : "LOGINFAIL");
+					return DONE_FUTURE;
+				}
+
+				switch (result) {
+					case NO_ACCOUNT:
+						// ID 없음
+						send("NEEDREGISTER");
+						return DONE_FUTURE;
+					case WRONG_PASSWORD:
+						limiter.onFailure(loginId);
+						send("LOGINFAIL");
+						return DONE_FUTURE;
+					default:
+						limiter.onSuccess(loginId);
+						return completeLogin(loginId);
+				}
+			}).thenCompose(f -> f));
+		}
+
+		// 재접속 토큰으로 로그인 (비밀번호 해시 없이 HMAC 확인만)
+		// 토큰이 틀렸거나 만료되면 RESUMEFAIL → 클라이언트는 보통 로그인으로 돌아감
+		private void resume(String token, String lastSeq, String lastTime, String roomList) {
+			SessionTokens.Claims c = tokens.verify(token);
+			if (c == null || !resumable) {
+				ServerMetrics.resumeFailures.increment();
+				send("RESUMEFAIL");
+				return;
+			}
+
+			// 같은 클라이언트의 끊긴 연결(그 연결에 준 토큰을 냄)이 아직 정리되지 않았으면 (하트비트 전)
+			// 그 연결을 닫고 잠시 뒤 다시 시도하게 함. 다른 곳에서 접속 중이면 비밀번호 로그인과 같음
+			Session old = sessions.get(c.id);
+			if (old != null) {
+				if (token.equals(old.token)) {
+					old.close();
+					send("LOGINLIMIT");
+				} else {
+					send("ALREADYLOGGEDIN");
+				}
+				return;
+			}
+
+			try {
+				resuming = new Resume(c.node, Long.parseLong(lastSeq), Long.parseLong(lastTime),
+						roomList.isBlank() ? new String[0] : roomList.trim().split("\\s+"));
+			} catch (NumberFormatException e) {
+				send("RESUMEFAIL");
+				return;
+			}
+			ServerMetrics.resumes.increment();
+			suspendUntil(completeLogin(c.id));
+		}
+
+		private static final CompletableFuture<Void> DONE_FUTURE = CompletableFuture.completedFuture(null);
+
+		// 비밀번호 확인 후: 중복 로그인 확인 (확인과 등록을 한 번에)
+		// 클러스터면 다른 노드에 접속 중인지 ID 담당 노드에 확인한다 (끝날 때까지 다음 줄은 대기)
+		private CompletableFuture<?> completeLogin(String loginId) {
+			if (!sessions.claim(loginId, this)) {
+				send("ALREADYLOGGEDIN");
+				return DONE_FUTURE;
+			}
+			if (cluster == null) {
+				// 해시를 계산하는 동안 연결이 끊겼으면 되돌림
+				if (!takeId(loginId)) {
+					sessions.remove(loginId, this);
+					return DONE_FUTURE;
+				}
+				onLoggedIn();
+				return DONE_FUTURE;
+			}
+
+			return cluster.claim(loginId).handle((ok, err) -> {
+				if (err != null || !ok) {
+					sessions.remove(loginId, this);
+					// 시간 초과면 담당 노드는 이미 허락했을 수 있으므로 그 기록도 지움
+					if (err != null) cluster.offline(loginId);
+					send(err != null ? "LOGINLIMIT" : "ALREADYLOGGEDIN");
+					return null;
+				}
+
+				// 확인하는 동안 연결이 끊겼으면 되돌림
+				if (!takeId(loginId)) {
+					sessions.remove(loginId, this);
+					cluster.offline(loginId);
+					return null;
+				}
+
+				cluster.online(loginId);
+				onLoggedIn();
+				return null;
+			});
+		}
+
+		// 로그인 확정: 아직 연결되어 있으면 id를 정함. 이미 끊겼으면 (onClose가 id 없이 지나감) false
+		// onClose와 같은 잠금으로 확인하므로 둘 중 하나만 세션 목록을 정리하게 된다
+		private boolean takeId(String loginId) {
+			synchronized (this) {
+				if (closed) return false;
+				this.id = loginId;
+				return true;
+			}
+		}
+
+		// 해시 풀이 가득 찼거나 다른 노드의 응답이 늦어 거절된 경우
+		private static boolean isOverloaded(Throwable err) {
+			if (err instanceof CompletionException && err.getCause() != null) err = err.getCause();
+			return err instanceof RejectedExecutionException || err instanceof TimeoutException;
+		}
+
+		// ============================
+		// 로그인 성공 후 처리
+		// ============================
+		private void onLoggedIn() {
+			// 클라이언트에 로그인 성공 알림
+			send("NAMEACCEPTED " + id);
+			if (resumable) {
+				token = tokens.issue(id, node());
+				send("SESSION " + token);
+			}
+
+			// 접속자 목록에 추가하고, 구독하는 클라이언트에게는 전체 목록
+			presence.refresh(id);
+			if (roster) presence.subscribe(this);
+
+			// 기본 방 입장 (방 사용자에게 입장 메시지 브로드캐스트)
+			// 재접속이면 전에 있던 방에도 다시 들어가고 방마다 놓친 메시지만 보냄
+			Resume r = resuming;
+			resuming = null;
+			joinRoom(RoomIndex.LOBBY, r);
+			if (r != null) {
+				for (String name : r.rooms) {
+					if (RoomIndex.isValidName(name) && !name.equals(RoomIndex.LOBBY)) joinRoom(name, r);
+				}
+			}
+
+			// 위 처리 중에 연결이 끊겼으면 onClose가 방/구독을 일부만 보고 지나갔을 수 있으므로 마저 정리
+			// (끊긴 것이 이 확인 뒤라면 onClose가 모두 봄)
+			if (isClosed()) {
+				leaveAll();
+				return;
+			}
+
+			// 접속하지 않은 동안 온 귓속말
+			whispers.flush(id);
+		}
+
+		// ============================
+		//       채팅 처리
+		// ============================
+		private boolean onChatLine(String msg) {
+
+			// 로그아웃 처리
+			if (msg.equals("LOGOUT")) {
+				return logout();
+			}
+
+			// 귓속말 (/w 사용자 메시지)
+			if (msg.startsWith("/w ")) {
+				String[] p = msg.split(" ", 3);
+				whisper(p[1], p.length < 3 ? "" : p[2]);
+				return true;
+			}
+
+			// 방 입장 / 퇴장 / 목록
+			if (msg.equals("/join") || msg.startsWith("/join ")) {
+				handleJoin(msg.substring(5).trim());
+				return true;
+			}
+			if (msg.equals("/leave") || msg.startsWith("/leave ")) {
+				handleLeave(msg.substring(6).trim());
+				return true;
+			}
+			if (msg.equals("/rooms")) {
+				handleRooms();
+				return true;
+			}
+
+			// 파일 보내기 (/send 받는사람|#방 크기 이름) / 받기 (/get id)
+			if (msg.startsWith("/send ")) {
+				String[] p = msg.split(" ", 4);
+				sendFile(p[1], p.length > 2 ? p[2] : "", p.length > 3 ? p[3] : "");
+				return true;
+			}
+			if (msg.startsWith("/get ")) {
+				getFile(msg.substring(5).trim());
+				return true;
+			}
+
+			chat(msg);
+			return true;
+		}
+
+		private boolean logout() {
+			send("BYE");
+			return false;
+		}
+
+		// 일반 메시지는 기록한 뒤 현재 방에만 브로드캐스트
+		private void chat(String msg) {
+			RoomIndex.Room r = room;
+			if (r == null) {
+				send("MESSAGE ⚠ 참여 중인 방이 없습니다 (/join [방이름])");
+				return;
+			}
+
+			long wait = admit(msg);
+			if (wait == 0) chat(r, msg);
+			else if (wait > 0) later(wait, () -> chat(r, msg));
+		}
+
+		private void chat(RoomIndex.Room r, String msg) {
+			String line = "MESSAGE " + r.tag() + id + ": " + msg;
+			HistoryStore.Record rec = history.append(r.name, line);
+			r.post(Frame.shared(line, r.memberCount()), rec);
+			if (cluster != null) cluster.room(r.name, line, true);
+		}
+
+		// 보내는 속도 확인 (FloodControl): 0 = 바로 보냄, 양수 = 그만큼(나노초) 뒤에 later로,
+		// 음수 = 버림 (너무 빠르다는 알림은 1초에 한 번만). 보통의 경우 할당 없음
+		private long admit(String text) {
+			long now = System.nanoTime();
+			long wait = flood.reserve(now, FloodControl.utf8Length(text));
+			if (wait > 0) {
+				ServerMetrics.floodThrottled.increment();
+			} else if (wait < 0) {
+				ServerMetrics.floodDropped.increment();
+				if (now - floodNoticeAt >= FLOOD_NOTICE_NANOS) {
+					floodNoticeAt = now;
+					send("MESSAGE ⚠ 메시지를 너무 빨리 보내고 있어 일부를 보내지 않았습니다");
+				}
+			}
+			return wait;
+		}
+
+		// wait 뒤에 then을 실행하고, 그때까지 이 연결의 다음 줄을 읽지 않음 (보내는 쪽은 TCP로 밀림)
+		private void later(long wait, Runnable then) {
+			CompletableFuture<Void> f = new CompletableFuture<>();
+			floodDelay.schedule(() -> {
+				try {
+					then.run();
+				} finally {
+					f.complete(null);
+				}
+			}, wait, TimeUnit.NANOSECONDS);
+			suspendUntil(f);
+		}
+
+		// 입장/퇴장 알림 (다른 노드의 같은 방 참여자에게도)
+		private static void notice(RoomIndex.Room r, String line) {
+			r.notice(Frame.shared(line, r.memberCount()));
+			if (cluster != null) cluster.room(r.name, line, false);
+		}
+
+		// 연결 종료 시 한 번만 호출
+		void onClose() {
+			synchronized (this) {
+				if (closed) return;
+				closed = true;
+			}
+			ServerMetrics.connectionsClosed.increment();
+			idleWheel.cancel(idle);
+
+			// 종료 처리
+			if (id != null) {
+				sessions.remove(id, this);
+				if (cluster != null) cluster.offline(id);
+				presence.refresh(id);
+				leaveAll();
+			}
+		}
+
+		// 접속자 목록 구독을 끊고 참여했던 방마다 퇴장 메시지 브로드캐스트
+		// (onClose와 로그인 처리가 함께 불러도 방마다 한 번만 나감)
+		private void leaveAll() {
+			if (roster) presence.unsubscribe(this);
+			for (RoomIndex.Room r : new ArrayList<>(rooms)) {
+				if (roomIndex.leave(r, this))
+					notice(r, "MESSAGE " + r.tag() + id + " has left");
+			}
+		}
+
+		private synchronized boolean isClosed() {
+			return closed;
+		}
+
+		// ============================
+		//      채팅방 처리 함수
+		// ============================
+
+		// 재접속한 클라이언트가 마지막으로 받은 방 메시지 위치
+		private static final class Resume {
+			final int node;          // 토큰을 준 노드
+			final long lastSeq;      // 그 노드 기록의 seq (-1이면 받은 것 없음)
+			final long lastTime;
+			final String[] rooms;    // 기본 방 말고 들어가 있던 방
+
+			Resume(int node, long lastSeq, long lastTime, String[] rooms) {
+				this.node = node;
+				this.lastSeq = lastSeq;
+				this.lastTime = lastTime;
+				this.rooms = rooms;
+			}
+
+			// 방의 놓친 메시지. seq는 노드마다 따로 매기므로 다른 노드에서 받던 것이면 시각으로 찾는다
+			// (같은 ms의 메시지는 한 번 더 갈 수 있음). 받은 것이 없으면 보통 입장과 같음.
+			// REPLAY_MAX개보다 많으면 최근 것 REPLAY_MAX + 1개를 돌려준다 (앞이 빠졌는지 알 수 있도록)
+			List<HistoryStore.Record> missed(String room) {
+				List<HistoryStore.Record> recs;
+				if (lastSeq < 0) recs = history.last(room, BACKFILL);
+				else if (node == node()) recs = history.since(room, lastSeq, REPLAY_MAX + 1);
+				else recs = history.sinceTime(room, lastTime, REPLAY_MAX + 1);
+				ServerMetrics.resumeReplayed.add(Math.min(recs.size(), REPLAY_MAX));
+				return recs;
+			}
+		}
+
+		// 방 입장 후 현재 방으로 전환
+		private void joinRoom(String name) {
+			joinRoom(name, null);
+		}
+
+		// resume이 있으면 최근 기록 대신 재접속 전에 받은 것 이후만 보냄
+		private void joinRoom(String name, Resume resume) {
+			RoomIndex.Room joined = roomIndex.get(name);
+			if (joined != null && rooms.contains(joined)) {
+				// 이미 참여 중인 방: 현재 방만 바꿈
+				room = joined;
+				send("MESSAGE 현재 방: " + name);
+				return;
+			}
+
+			// 먼저 들어간 뒤 그 시점(upTo)까지의 최근 기록을 보냄 (seq를 받는 세션에는 seq를 붙여서)
+			// 기록을 읽고 나서 들어가면 그 사이에 올라온 메시지를 놓치므로. 기록을 다 보낼 때까지 이 방의
+			// 새 메시지는 모아 두었다가, 기록에 이미 들어간 것(seq가 upTo 이하)은 빼고 보낸다.
+			synchronized (this) {
+				deferred = new ArrayList<>();
+				deferredRecs = new ArrayList<>();
+				backfilling = name;
+			}
+			RoomIndex.Room r = roomIndex.join(name, this);
+			long upTo = history.lastSeq();
+			try {
+				if (r != null) {
+					List<HistoryStore.Record> recs = new ArrayList<>();
+					for (HistoryStore.Record rec : resume != null ? resume.missed(name) : history.last(name, BACKFILL)) {
+						if (rec.seq <= upTo) recs.add(rec);
+					}
+					if (resume != null && recs.size() > REPLAY_MAX) {
+						// 놓친 것이 너무 많으면 최근 것만 보내고 그 앞이 빠졌다고 알림
+						recs = recs.subList(recs.size() - REPLAY_MAX, recs.size());
+						send("MESSAGE " + r.tag() + "⚠ 끊긴 동안의 메시지가 많아 최근 " + REPLAY_MAX + "개만 보냅니다 (그 앞은 빠짐)");
+					}
+					for (HistoryStore.Record rec : recs) {
+						send(resumable ? seqLine(rec) : rec.line);
+					}
+				}
+			} finally {
+				synchronized (this) {
+					for (int i = 0; i < deferred.size(); i++) {
+						HistoryStore.Record rec = deferredRecs.get(i);
+						if (rec == null || rec.seq > upTo) send(deferred.get(i));
+					}
+					backfilling = null;
+					deferred = null;
+					deferredRecs = null;
+				}
+			}
+			if (r == null) return;
+
+			room = r;
+			notice(r, "MESSAGE " + r.tag() + id + " has joined");
+		}
+
+		private void handleJoin(String name) {
+			if (!RoomIndex.isValidName(name)) {
+				send("MESSAGE 방 이름은 공백 없이 " + RoomIndex.MAX_NAME + "자 이하로 입력하세요");
+				return;
+			}
+			joinRoom(name);
+		}
+
+		// 이름이 없으면 현재 방에서 나감
+		private void handleLeave(String name) {
+			RoomIndex.Room r = name.isEmpty() ? room : roomIndex.get(name);
+			if (r == null || !roomIndex.leave(r, this)) {
+				send("MESSAGE ⚠ 참여 중인 방이 아닙니다");
+				return;
+			}
+
+			notice(r, "MESSAGE " + r.tag() + id + " has left");
+			send("MESSAGE " + r.name + " 방에서 나왔습니다");
+
+			// 현재 방에서 나왔으면 남은 방 중 하나로 전환
+			if (room == r) {
+				Iterator<RoomIndex.Room> it = rooms.iterator();
+				room = it.hasNext() ? it.next() : null;
+				if (room != null) send("MESSAGE 현재 방: " + room.name);
+			}
+		}
+
+		// 방 목록 (참여 인원, 초당 메시지 수)
+		private void handleRooms() {
+			StringBuilder sb = new StringBuilder("MESSAGE 방 목록:");
+			for (RoomIndex.Room r : roomIndex.list()) {
+				sb.append(' ').append(r.name)
+						.append('(').append(r.memberCount()).append("명, ")
+						.append(String.format("%.1f", r.messagesPerSecond())).append(" msg/s)");
+				if (r == room) sb.append('*');
+			}
+			send(sb.toString());
+		}
+
+		// ============================
+		//      귓속말 처리 함수
+		// ============================
+		private void whisper(String to, String text) {
+			if (to.isEmpty() || text.isEmpty()) {
+				send("MESSAGE Whisper 사용법: /w [유저명] [메시지]");
+				return;
+			}
+
+			long wait = admit(text);
+			if (wait == 0) deliver(to, text);
+			else if (wait > 0) later(wait, () -> deliver(to, text));
+		}
+
+		private void deliver(String to, String text) {
+			switch (whispers.send(to, "MESSAGE (귓←" + id + ") " + text)) {
+				case DELIVERED:
+					send(Frame.of("MESSAGE (귓→" + to + ") " + text));
+					break;
+				case SPOOLED:
+					send(Frame.of("MESSAGE (귓→" + to + ", 접속하면 전달) " + text));
+					break;
+				case FULL:
+					send("MESSAGE ⚠ 상대방 보관함이 가득 참");
+					break;
+				case UNKNOWN:
+					send("MESSAGE ⚠ 상대방 없음");
+					break;
+			}
+		}
+
+		// ============================
+		//      파일 전송 처리 함수
+		// ============================
+
+		// 파일 자리를 만들고 파일 포트로 올릴 허가표를 줌 (다 올라오면 onUploaded)
+		private void sendFile(String to, String sizeText, String name) {
+			if (!fileCapable) {
+				send("MESSAGE ⚠ 이 클라이언트는 파일 전송을 지원하지 않습니다");
+				return;
+			}
+
+			long size;
+			try {
+				size = Long.parseLong(sizeText);
+			} catch (NumberFormatException e) {
+				size = -1;
+			}
+			if (size < 0 || name.isEmpty() || name.length() > BlobSpool.MAX_NAME || name.indexOf('\t') >= 0 || name.indexOf('\n') >= 0) {
+				send("UPLOADFAIL 사용법: /send [유저명|#방이름] [파일]");
+				return;
+			}
+			if (size > BlobSpool.MAX_FILE) {
+				send("UPLOADFAIL 파일이 너무 큽니다 (최대 " + BlobSpool.sizeText(BlobSpool.MAX_FILE) + ")");
+				return;
+			}
+
+			// 방이면 참여 중인 방에만, 사람이면 가입자에게만 (접속하지 않았으면 귓속말 보관함으로 알림)
+			if (to.startsWith("#")) {
+				RoomIndex.Room r = roomIndex.get(to.substring(1));
+				if (r == null || !rooms.contains(r)) {
+					send("UPLOADFAIL 참여 중인 방이 아닙니다");
+					return;
+				}
+			} else if (!accounts.exists(to)) {
+				send("UPLOADFAIL 상대방 없음");
+				return;
+			}
+
+			BlobSpool.Blob b;
+			try {
+				b = files.offer(id, to, name, size);
+			} catch (IOException e) {
+				System.out.println("file spool 쓰기 실패: " + e);
+				b = null;
+			}
+			if (b == null) {
+				send("UPLOADFAIL 서버 파일 보관함이 가득 찼습니다");
+				return;
+			}
+			send("UPLOAD " + b.id + " " + BlobSpool.PORT + " " + files.putTicket(b));
+		}
+
+		// 받을 수 있는 사람(받는 사람, 보낸 사람, 그 방 참여자)에게 받을 허가표를 줌
+		private void getFile(String fileId) {
+			if (!fileCapable) {
+				send("MESSAGE ⚠ 이 클라이언트는 파일 전송을 지원하지 않습니다");
+				return;
+			}
+
+			BlobSpool.Blob b = files.get(fileId);
+			boolean allowed = b != null && (b.to.equals(id) || b.from.equals(id)
+					|| (b.toRoom() && rooms.contains(roomIndex.get(b.room()))));
+			if (!allowed || !b.complete) {
+				send("MESSAGE ⚠ 파일을 찾을 수 없습니다 (기한이 지났거나 다른 서버에 있음)");
+				return;
+			}
+			send("FILE " + b.id + " " + BlobSpool.PORT + " " + files.getTicket(b) + " " + b.size + " " + b.from + " " + b.name);
+		}
+	}
+
+
+	// 파일이 다 올라옴 (파일 전송 스레드): 받는 쪽에 /get 안내를 보통 메시지로
+	// 방이면 방 메시지로 기록까지 하므로 나중에 들어온 사람도 보고, 사람이면 귓속말과 같은 길로
+	// 보내므로 접속하지 않았으면 보관함에 들어간다.
+	private static void onUploaded(BlobSpool.Blob b) {
+		String what = "📎 " + b.name + " (" + BlobSpool.sizeText(b.size) + ") /get " + b.id;
+		Session sender = sessions.get(b.from);
+
+		if (b.toRoom()) {
+			RoomIndex.Room r = roomIndex.get(b.room());
+			String line = "MESSAGE " + (r != null ? r.tag() : "[" + b.room() + "] ") + b.from + ": " + what;
+			HistoryStore.Record rec = history.append(b.room(), line);
+			if (r != null) r.post(Frame.shared(line, r.memberCount()), rec);
+			if (cluster != null) cluster.room(b.room(), line, true);
+		} else {
+			whispers.send(b.to, "MESSAGE (귓←" + b.from + ") " + what);
+			if (sender != null) sender.send("MESSAGE (귓→" + b.to + ") " + what);
+		}
+	}
+
+
+	// ============================
+	//         클라이언트 핸들러
+	// ============================
+
+	// 연결 하나당 스레드 하나를 사용하는 블로킹 방식 세션
+	// 읽기는 이 스레드가, 쓰기는 별도의 writer 태스크가 담당한다.
+	private static class Handler extends Session implements Runnable {
+
+		private SocketChannel ch;  // 소켓 (블로킹 모드 채널)
+
+		private ExecutorService writerPool;   // writer 태스크 실행용
+		private Future<?> writer;             // 송신 대기열을 비우는 태스크
+
+		public Handler(SocketChannel ch, ExecutorService writerPool) {
+			this.ch = ch;
+			this.remote = hostOf(ch);
+			this.writerPool = writerPool;
+		}
+
+		@Override
+		void close() {
+			try { ch.close(); } catch (IOException e) {}
+		}
+
+		public void run() {
+			try {
+				writer = writerPool.submit(this::writeLoop);
+
+				onOpen();
+
+				// 줄/프레임 단위로 잘라 처리 (남은 조각은 다음 읽기와 이어 붙임)
+				ByteBuffer in = ByteBuffer.allocate(ChatReactor.READ_BUFFER);
+				loop:
+				while (ch.read(in) >= 0) {
+					touch();
+					in.flip();
+					while (true) {
+						int r = next(in);
+						if (r == QUIT) break loop;
+						if (r == MORE) break;
+
+						// 비밀번호 확인 등이 끝날 때까지 기다림
+						CompletableFuture<?> f = takePending();
+						if (f != null) f.exceptionally(e -> null).join();
+					}
+
+					in = compact(in);
+					if (in == null) break;   // 한 줄이 너무 김
+				}
+
+			} catch (Exception e) {
+				System.out.println(e);
+
+			} finally {
+				onClose();
+
+				// 남은 응답(BYE 등)을 잠시 기다렸다가 소켓 닫기
+				outbox.close();
+				try {
+					if (writer != null) writer.get(1, TimeUnit.SECONDS);
+				} catch (Exception e) {}
+				close();
+			}
+		}
+
+		// 송신 대기열에서 꺼내 소켓에 쓰는 루프 (대기열이 닫히고 비면 종료)
+		// 꺼낸 묶음은 모아쓰기(gathering write) 한 번으로 보낸다.
+		// 마지막 쓰기 후 LINGER 동안 들어온 줄은 모아서 다음 쓰기로 (Outbox 참고)
+		private void writeLoop() {
+			ByteBuffer[] batch = new ByteBuffer[64];
+			try {
+				int n;
+				long lastWrite = System.nanoTime() - Outbox.LINGER_NANOS;
+				while ((n = outbox.await(batch, lastWrite + Outbox.LINGER_NANOS)) > 0) {
+					ServerMetrics.framesWritten.add(n);
+					n = outbox.pack(batch, n);
+					int pos = 0;
+					while (pos < n) {
+						ch.write(batch, pos, n - pos);
+						ServerMetrics.writes.increment();
+						while (pos < n && !batch[pos].hasRemaining()) batch[pos++] = null;
+					}
+					lastWrite = System.nanoTime();
+				}
+			} catch (IOException | InterruptedException e) {
+				close();
+			} finally {
+				outbox.release();
+			}
+		}
+	}
+}
+
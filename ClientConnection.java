@@ -0,0 +1,439 @@
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+// ===================================================================================
+//                     서버 연결 (텍스트 / 바이너리 프레임 공용)
+// ===================================================================================
+
+// 서버가 연결 직후 "CAPS binary"를 알려 오면 "CAPS binary"로 고르고 곧바로 보내는 쪽을
+// 바이너리로 바꾼다. 받는 쪽은 서버의 "CAPSACK binary" 다음부터 바이너리로 읽는다.
+// 예전 서버는 CAPS를 보내지 않으므로 그대로 텍스트로 동작한다.
+// 서버의 하트비트(PING)에는 여기서 바로 PONG으로 답하므로 listener는 신경 쓰지 않아도 된다.
+// "deflate"를 고르고 서버가 받아들이면 CAPSACK 줄 다음부터 받는 바이트를 풀어서 읽는다 (Deflate 참고).
+//
+// Resume을 넘기면 서버가 주는 재접속 토큰(SESSION)과 마지막으로 받은 방 메시지 위치(SEQ)를
+// 거기에 적어 두고, 다음 연결에서 서버가 로그인을 요구하면(LOGIN) 비밀번호 대신 토큰으로
+// 로그인한다(RESUME). 토큰이 거절되면(RESUMEFAIL) 그때 listener에게 로그인 요구를 넘긴다.
+// 파일(/send, /get)은 채팅 연결로 허가표만 받고 내용은 FileTransfer가 서버의 파일 포트로 따로 옮긴다.
+// ChatClient(화면)와 ChatLoad(부하 생성기)가 같이 쓴다.
+public class ClientConnection {
+
+    private final String host;
+    private final Socket socket;
+    private final OutputStream out;
+    private final InputStream in;
+    private final ClientProtocol.Listener listener;
+
+    // 쓰고 싶은 선택 기능 (서버가 제공하는 것만 실제로 사용)
+    private final Set<String> wanted;
+
+    private boolean binaryOut;          // send()에서만 (synchronized)
+    private boolean binaryIn;           // 수신 스레드에서만
+    private Deflate.In inflater;        // 압축을 켠 뒤 (수신 스레드에서만)
+    private boolean inflateNext;        // 방금 처리한 CAPSACK 다음부터 압축
+    private volatile Set<String> accepted = Collections.emptySet();
+
+    // 재접속 정보 (없으면 null)
+    private final Resume resume;
+    private boolean resumeOffered;      // 서버가 resume을 제공해서 골랐음 (수신 스레드에서만)
+    private boolean resuming;           // RESUME을 보내고 결과를 기다리는 중 (수신 스레드에서만)
+
+    // /send를 보내고 서버의 UPLOAD / UPLOADFAIL을 기다리는 파일 (서버는 보낸 순서대로 답함)
+    private final Queue<Path> uploads = new java.util.concurrent.ConcurrentLinkedQueue<>();
+
+    // 재접속할 때 이어 가기 위한 정보 (연결이 바뀌어도 ChatClient가 같은 것을 계속 넘김)
+    public static final class Resume {
+        volatile String token;                  // 마지막으로 받은 토큰 (LOGOUT 하면 버림)
+        volatile long lastSeq = -1;             // 마지막으로 받은 방 메시지 seq / 시각
+        volatile long lastTime;
+        final Set<String> rooms = Collections.synchronizedSet(new LinkedHashSet<>());  // 기본 방 말고 들어간 방
+
+        public boolean hasToken() {
+            return token != null;
+        }
+    }
+
+    public ClientConnection(String host, int port, ClientProtocol.Listener listener, boolean binary) throws IOException {
+        this(host, port, listener, binary ? Set.of(Wire.CAP) : Set.of());
+    }
+
+    // wanted: 쓰고 싶은 기능 이름 (Wire.CAP, ClientProtocol.CAP_PRESENCE 등)
+    public ClientConnection(String host, int port, ClientProtocol.Listener listener, Set<String> wanted) throws IOException {
+        this(host, port, listener, wanted, null);
+    }
+
+    // resume: 재접속 정보 (이 연결에서 받은 토큰/seq를 적고, 토큰이 있으면 그것으로 로그인)
+    public ClientConnection(String host, int port, ClientProtocol.Listener listener, Set<String> wanted,
+                            Resume resume) throws IOException {
+        this.host = host;
+        this.socket = new Socket(host, port);
+        this.socket.setTcpNoDelay(true);
+        this.out = new BufferedOutputStream(socket.getOutputStream());
+        this.in = socket.getInputStream();
+        this.listener = listener;
+        Set<String> w = new HashSet<>(wanted);
+        w.add(ClientProtocol.CAP_HEARTBEAT);   // PING에는 항상 답함
+        if (resume != null) w.add(ClientProtocol.CAP_RESUME);
+        this.wanted = w;
+        this.resume = resume;
+    }
+
+    // 서버가 받아들인 기능
+    public Set<String> accepted() {
+        return accepted;
+    }
+
+    public boolean isClosed() {
+        return socket.isClosed();
+    }
+
+    public void close() {
+        try { socket.close(); } catch (IOException e) { }
+    }
+
+    // ===================================================================================
+    //                                 받기
+    // ===================================================================================
+
+    // 호출한 스레드에서 연결이 끊길 때까지 서버 메시지를 읽어 listener로 전달
+    // 줄/프레임은 읽기 버퍼에서 바로 잘라 쓰고, 필드만 문자열로 바꾼다.
+    public void readLoop() throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(8 * 1024);
+        try {
+            while (true) {
+                if (!fill(buf)) return;
+
+                buf.flip();
+                while (nextMessage(buf)) {
+                    if (inflateNext) {
+                        // 버퍼에 남은 것은 이미 압축된 바이트
+                        inflateNext = false;
+                        inflater = new Deflate.In(buf);
+                        break;
+                    }
+                }
+                buf.compact();
+
+                // 한 줄/프레임이 버퍼보다 크면 키움
+                if (!buf.hasRemaining()) {
+                    if (buf.capacity() >= 64 * 1024) throw new IOException("server message too long");
+                    ByteBuffer bigger = ByteBuffer.allocate(buf.capacity() * 2);
+                    buf.flip();
+                    bigger.put(buf);
+                    buf = bigger;
+                }
+            }
+        } finally {
+            close();
+            if (inflater != null) inflater.end();
+        }
+    }
+
+    // 받은 것을 buf에 더 채움 (압축 중이면 풀어서). 연결이 끊겼으면 false
+    private boolean fill(ByteBuffer buf) throws IOException {
+        if (inflater == null) {
+            int n = in.read(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining());
+            if (n < 0) return false;
+            buf.position(buf.position() + n);
+            return true;
+        }
+
+        // 앞에서 받은 것을 다 풀었으면 더 읽음
+        if (inflater.needsInput()) {
+            ByteBuffer raw = inflater.rawBuffer();
+            int n = in.read(raw.array(), raw.arrayOffset(), raw.capacity());
+            if (n < 0) return false;
+            inflater.received(n);
+        }
+        inflater.inflate(buf);
+        return true;
+    }
+
+    // 줄/프레임 하나를 처리했으면 true, 아직 다 오지 않았으면 false
+    private boolean nextMessage(ByteBuffer buf) {
+        if (binaryIn) {
+            int start = buf.position();
+            ByteBuffer payload = Wire.nextFrame(buf);
+            if (payload == null) return false;
+            int op = buf.get(start) & 0xff;
+            switch (op) {
+                case Wire.PING -> pong();
+                case Wire.LINE -> onLine(Wire.readField(payload));   // SEQ, SESSION 등
+                case Wire.LOGIN -> onLoginRequested();
+                default -> {
+                    if (!resuming || !onResumeReply(Wire.verbOf(op))) ClientProtocol.dispatch(op, payload, listener);
+                }
+            }
+            return true;
+        }
+
+        byte[] arr = buf.array();
+        int start = buf.position();
+        for (int i = start; i < buf.limit(); i++) {
+            if (arr[i] != '\n') continue;
+
+            int end = i;
+            if (end > start && arr[end - 1] == '\r') end--;
+            buf.position(i + 1);
+            onLine(new String(arr, start, end - start, StandardCharsets.UTF_8));
+            return true;
+        }
+        return false;
+    }
+
+    private void onLine(String line) {
+        // 서버가 제공하는 기능 알림 → 원하는 것만 고름
+        if (line.startsWith("CAPS ")) {
+            List<String> pick = new ArrayList<>();
+            for (String c : line.substring(5).trim().split("\\s+")) {
+                if (wanted.contains(c)) pick.add(c);
+            }
+            if (!pick.isEmpty()) selectCaps(pick);
+            return;
+        }
+
+        // 서버가 받아들인 기능 → 이 줄 다음부터 적용
+        if (line.startsWith("CAPSACK")) {
+            Set<String> ok = new HashSet<>(Arrays.asList(line.substring(7).trim().split("\\s+")));
+            accepted = ok;
+            if (ok.contains(Wire.CAP)) binaryIn = true;
+            if (ok.contains(Deflate.CAP)) inflateNext = true;
+            return;
+        }
+
+        if (line.equals("PING")) {
+            pong();
+            return;
+        }
+
+        // 재접속 정보
+        if (line.startsWith("SEQ ") && resume != null) {
+            // "SEQ seq 시각 MESSAGE ..." → 위치를 적고 나머지를 보통 메시지로
+            int a = line.indexOf(' ', 4);
+            int b = a < 0 ? -1 : line.indexOf(' ', a + 1);
+            if (b > 0) {
+                long seq = Long.parseLong(line.substring(4, a));
+                if (seq > resume.lastSeq) {
+                    resume.lastSeq = seq;
+                    resume.lastTime = Long.parseLong(line.substring(a + 1, b));
+                }
+                line = line.substring(b + 1);
+            }
+        } else if (line.startsWith("UPLOAD ")) {
+            // "UPLOAD id 포트 허가표" → 기다리던 파일을 파일 포트로
+            String[] p = line.split(" ");
+            Path file = uploads.poll();
+            if (file != null) transfer(() -> {
+                if (FileTransfer.upload(host, Integer.parseInt(p[2]), p[1], p[3], file, listener::onFileStatus))
+                    listener.onFileStatus("올리기 완료: " + file.getFileName());
+            });
+            return;
+        } else if (line.startsWith("UPLOADFAIL")) {
+            Path file = uploads.poll();
+            listener.onFileStatus("⚠ " + (file != null ? file.getFileName() + ": " : "") + line.substring(10).trim());
+            return;
+        } else if (line.startsWith("SESSION ") && resume != null) {
+            resume.token = line.substring(8).trim();
+            return;
+        } else if (line.equals("LOGIN")) {
+            onLoginRequested();
+            return;
+        } else if (line.equals("RESUMEFAIL")) {
+            // 토큰이 만료되었거나 서버 키가 바뀜: 보통 로그인으로
+            resuming = false;
+            if (resume != null) resume.token = null;
+            listener.onLoginRequested();
+            return;
+        }
+
+        if (resuming) {
+            int sp = line.indexOf(' ');
+            if (onResumeReply(sp < 0 ? line : line.substring(0, sp))) return;
+        }
+        ClientProtocol.dispatch(line, listener);
+    }
+
+    // 서버가 로그인을 요구함: 토큰이 있으면 그것으로, 없으면 listener에게 (로그인 창 등)
+    private void onLoginRequested() {
+        Resume r = resume;
+        String token = r == null ? null : r.token;
+        if (token == null || !resumeOffered) {
+            listener.onLoginRequested();
+            return;
+        }
+
+        resuming = true;
+        String rooms;
+        synchronized (r.rooms) {
+            rooms = String.join(" ", r.rooms);
+        }
+        String seq = Long.toString(r.lastSeq), time = Long.toString(r.lastTime);
+        send("RESUME " + token + " " + seq + " " + time + " " + rooms, Wire.C_RESUME, token, seq, time, rooms);
+    }
+
+    // RESUME에 대한 서버 응답 (verb: 응답의 첫 단어). 여기서 처리했으면 true (listener에 넘기지 않음)
+    private boolean onResumeReply(String verb) {
+        if (verb == null) return false;
+        switch (verb) {
+            case "NAMEACCEPTED" -> resuming = false;
+            case "LOGINLIMIT" -> {
+                // 앞의 연결이 아직 정리되는 중이거나 서버가 바쁨: 끊고 (잠시 뒤 다시 접속해서) 다시 시도
+                resuming = false;
+                close();
+                return true;
+            }
+            case "ALREADYLOGGEDIN" -> {
+                // 다른 곳에서 같은 ID로 접속 중: 토큰은 버리고 보통 로그인으로
+                resuming = false;
+                resume.token = null;
+            }
+        }
+        return false;
+    }
+
+    // 고른 기능을 알리고, 바이너리를 골랐으면 다음 보내는 것부터 바이너리
+    private synchronized void selectCaps(List<String> pick) {
+        writeRaw(("CAPS " + String.join(" ", pick) + "\n").getBytes(StandardCharsets.UTF_8));
+        if (pick.contains(Wire.CAP)) binaryOut = true;
+        if (pick.contains(ClientProtocol.CAP_RESUME)) resumeOffered = true;
+    }
+
+    // ===================================================================================
+    //                                 보내기
+    // ===================================================================================
+
+    public void login(String id, String pw) {
+        send(ClientProtocol.login(id, pw), Wire.C_LOGIN, id, pw);
+    }
+
+    public void register(String id, String pw, String name, String email) {
+        send(ClientProtocol.register(id, pw, name, email), Wire.C_REGISTER, id, pw, name, email);
+    }
+
+    public void checkId(String id) {
+        send(ClientProtocol.checkId(id), Wire.C_CHECKID, id);
+    }
+
+    public void chat(String text) {
+        send(text, Wire.C_CHAT, text);
+    }
+
+    public void whisper(String to, String text) {
+        send(ClientProtocol.whisper(to, text), Wire.C_WHISPER, to, text);
+    }
+
+    public void join(String room) {
+        if (resume != null && !room.isEmpty()) resume.rooms.add(room);
+        send("/join " + room, Wire.C_JOIN, room);
+    }
+
+    public void leave(String room) {
+        if (resume != null) resume.rooms.remove(room);
+        send(room.isEmpty() ? "/leave" : "/leave " + room, Wire.C_LEAVE, room);
+    }
+
+    // 파일 보내기: 서버에 자리를 요청하고 (UPLOAD가 오면) 파일 포트로 올림
+    // to는 받는 사람 아이디 또는 "#방이름"
+    public void sendFile(String to, Path file) {
+        if (!accepted.contains(ClientProtocol.CAP_FILES)) {
+            listener.onFileStatus("⚠ 서버가 파일 전송을 지원하지 않습니다");
+            return;
+        }
+        long size;
+        try {
+            size = Files.size(file);
+        } catch (IOException e) {
+            listener.onFileStatus("⚠ 파일을 읽을 수 없습니다: " + file);
+            return;
+        }
+
+        String name = file.getFileName().toString();
+        synchronized (this) {   // 큐에 넣는 순서와 보내는 순서를 맞춤
+            uploads.add(file);
+            send("/send " + to + " " + size + " " + name, Wire.C_SEND, to, Long.toString(size), name);
+        }
+    }
+
+    // 파일 받을 허가 요청 (/get id) → 서버가 FILE로 답하면 listener.onFile
+    public void getFile(String id) {
+        send("/get " + id, Wire.C_GET, id);
+    }
+
+    // onFile로 받은 파일을 dir에 받음 (따로 스레드에서)
+    public void download(String id, int port, String ticket, long size, String name, Path dir) {
+        transfer(() -> {
+            try {
+                Files.createDirectories(dir);
+            } catch (IOException e) {
+                listener.onFileStatus("⚠ 폴더를 만들 수 없습니다: " + dir);
+                return;
+            }
+            // 서버가 준 이름에서 경로 부분은 버림
+            String safe = Paths.get(name.replace('\\', '/')).getFileName().toString();
+            Path saved = FileTransfer.download(host, port, id, ticket, size, dir.resolve(safe), listener::onFileStatus);
+            if (saved != null) listener.onFileStatus("받기 완료: " + saved);
+        });
+    }
+
+    private static void transfer(Runnable r) {
+        Thread t = new Thread(r, "file-transfer");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    // 하트비트 답 (수신 스레드에서)
+    private void pong() {
+        send("PONG", Wire.C_PONG);
+    }
+
+    public void logout() {
+        if (resume != null) resume.token = null;
+        send(ClientProtocol.LOGOUT, Wire.C_LOGOUT);
+    }
+
+    // 입력창에 친 한 줄 (명령이면 해당 명령으로)
+    public void input(String line) {
+        String t = line.trim();
+        if (t.equals("LOGOUT")) {
+            logout();
+        } else if (t.startsWith("/w ")) {
+            String[] p = t.split(" ", 3);
+            whisper(p[1], p.length < 3 ? "" : p[2]);
+        } else if (t.equals("/join") || t.startsWith("/join ")) {
+            join(t.substring(5).trim());
+        } else if (t.equals("/leave") || t.startsWith("/leave ")) {
+            leave(t.substring(6).trim());
+        } else if (t.startsWith("/send ")) {
+            String[] p = t.split(" ", 3);
+            if (p.length < 3) listener.onFileStatus("⚠ 사용법: /send [유저명|#방이름] [파일 경로]");
+            else sendFile(p[1], Paths.get(p[2]));
+        } else if (t.startsWith("/get ")) {
+            getFile(t.substring(5).trim());
+        } else if (t.equals("/rooms")) {
+            send(t, Wire.C_ROOMS);
+        } else {
+            chat(line);
+        }
+    }
+
+    // 협상 결과에 따라 텍스트 한 줄 또는 프레임으로 보냄
+    private synchronized void send(String textLine, int op, String... fields) {
+        if (binaryOut) writeRaw(Wire.encode(op, fields));
+        else writeRaw((textLine + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void writeRaw(byte[] b) {
+        try {
+            out.write(b);
+            out.flush();
+        } catch (IOException e) {
+            close();
+        }
+    }
+}
@@ -0,0 +1,167 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// ===================================================================================
+//                        클라이언트 쪽 프로토콜 (서버 메시지 해석)
+// ===================================================================================
+
+// 서버가 보내는 한 줄(또는 바이너리 프레임)을 해석해서 Listener의 해당 메서드를 호출한다.
+// 화면(ChatClient)과 부하 생성기(ChatLoad)가 같은 해석 코드를 쓰도록 분리했다.
+public final class ClientProtocol {
+
+    private ClientProtocol() {}
+
+    // 접속자 목록 협상 이름 (서버 Presence.CAP와 같음)
+    public static final String CAP_PRESENCE = "presence";
+
+    // 하트비트 협상 이름 (서버 ChatServer.HEARTBEAT_CAP와 같음, PING/PONG은 ClientConnection이 처리)
+    public static final String CAP_HEARTBEAT = "heartbeat";
+
+    // 재접속 협상 이름 (서버 SessionTokens.CAP와 같음, 토큰/SEQ는 ClientConnection이 처리)
+    public static final String CAP_RESUME = "resume";
+
+    // 파일 전송 협상 이름 (서버 BlobSpool.CAP와 같음, UPLOAD는 ClientConnection이 처리)
+    public static final String CAP_FILES = "files";
+
+    // 서버 메시지별 처리 (필요한 것만 구현)
+    public interface Listener {
+        default void onLoginRequested() {}              // LOGIN
+        default void onLoginFailed() {}                 // LOGINFAIL
+        default void onLoginLimited() {}                // LOGINLIMIT
+        default void onAlreadyLoggedIn() {}             // ALREADYLOGGEDIN
+        default void onNeedRegister() {}                // NEEDREGISTER
+        default void onRegistered() {}                  // REGISTERSUCCESS
+        default void onRegisterFailed(String reason) {} // REGFAIL 이유
+        default void onLoggedIn(String id) {}           // NAMEACCEPTED 아이디
+        default void onMessage(String text) {}          // MESSAGE 내용
+        default void onIdChecked(boolean available) {}  // IDOK / IDUSED
+        default void onBye() {}                         // BYE
+
+        // 접속자 목록 (CAPS presence): 로그인 직후 전체 목록, 그 뒤로 변경분
+        // 둘 다 길면 같은 버전으로 여러 번 온다
+        default void onRoster(long version, String[] ids) {}                  // ROSTER 버전 아이디...
+        default void onPresence(long version, String[] joined, String[] left) {} // PRESENCE 버전 +아이디 -아이디...
+
+        // 파일 전송 (CAPS files): /get에 대한 답 (받을지와 받을 곳은 listener가 정함)
+        default void onFile(String id, int port, String ticket, long size, String from, String name) {} // FILE ...
+        default void onFileStatus(String text) {}       // 올리기/받기 진행 상황 (ClientConnection이 만듦)
+
+        // 알 수 없는 메시지
+        default void onUnhandled(String line) {
+            System.out.println("Unhandled from server: " + line);
+        }
+    }
+
+    // ===================================================================================
+    //                               서버 → 클라이언트
+    // ===================================================================================
+    public static void dispatch(String line, Listener l) {
+
+        // 일반 메시지 (가장 많으므로 먼저 확인)
+        if (line.startsWith("MESSAGE ")) {
+            l.onMessage(line.substring(8));
+        }
+        else if (line.equals("BYE")) {
+            l.onBye();
+        }
+        else if (line.equals("LOGIN")) {
+            l.onLoginRequested();
+        }
+        else if (line.equals("LOGINFAIL")) {
+            l.onLoginFailed();
+        }
+        else if (line.equals("LOGINLIMIT")) {
+            l.onLoginLimited();
+        }
+        else if (line.equals("ALREADYLOGGEDIN")) {
+            l.onAlreadyLoggedIn();
+        }
+        else if (line.equals("NEEDREGISTER")) {
+            l.onNeedRegister();
+        }
+        else if (line.equals("REGISTERSUCCESS")) {
+            l.onRegistered();
+        }
+        else if (line.startsWith("REGFAIL")) {
+            l.onRegisterFailed(line.substring(7).trim());
+        }
+        else if (line.startsWith("NAMEACCEPTED ")) {
+            l.onLoggedIn(line.substring(13));
+        }
+        else if (line.equals("IDOK")) {
+            l.onIdChecked(true);
+        }
+        else if (line.equals("IDUSED")) {
+            l.onIdChecked(false);
+        }
+        else if (line.startsWith("PRESENCE ")) {
+            presence(line, l);
+        }
+        else if (line.startsWith("FILE ")) {
+            String[] p = line.split(" ", 7);
+            l.onFile(p[1], Integer.parseInt(p[2]), p[3], Long.parseLong(p[4]), p[5], p[6]);
+        }
+        else if (line.startsWith("ROSTER ")) {
+            String[] p = line.split(" ");
+            l.onRoster(Long.parseLong(p[1]), Arrays.copyOfRange(p, 2, p.length));
+        }
+        else {
+            l.onUnhandled(line);
+        }
+    }
+
+    // "PRESENCE 버전 +a +b -c" → 들어온 사람 / 나간 사람
+    private static void presence(String line, Listener l) {
+        String[] p = line.split(" ");
+        List<String> joined = new ArrayList<>();
+        List<String> left = new ArrayList<>();
+        for (int i = 2; i < p.length; i++) {
+            if (p[i].length() < 2) continue;
+            if (p[i].charAt(0) == '+') joined.add(p[i].substring(1));
+            else if (p[i].charAt(0) == '-') left.add(p[i].substring(1));
+        }
+        l.onPresence(Long.parseLong(p[1]), joined.toArray(new String[0]), left.toArray(new String[0]));
+    }
+
+    // 바이너리 프레임 (Wire): 내용은 필드 하나 또는 없음
+    public static void dispatch(int op, java.nio.ByteBuffer payload, Listener l) {
+        switch (op) {
+            case Wire.MESSAGE -> l.onMessage(Wire.readField(payload));
+            case Wire.BYE -> l.onBye();
+            case Wire.LOGIN -> l.onLoginRequested();
+            case Wire.LOGINFAIL -> l.onLoginFailed();
+            case Wire.LOGINLIMIT -> l.onLoginLimited();
+            case Wire.ALREADYLOGGEDIN -> l.onAlreadyLoggedIn();
+            case Wire.NEEDREGISTER -> l.onNeedRegister();
+            case Wire.REGISTERSUCCESS -> l.onRegistered();
+            case Wire.REGFAIL -> l.onRegisterFailed(Wire.readField(payload).trim());
+            case Wire.NAMEACCEPTED -> l.onLoggedIn(Wire.readField(payload));
+            case Wire.IDOK -> l.onIdChecked(true);
+            case Wire.IDUSED -> l.onIdChecked(false);
+            case Wire.LINE -> dispatch(Wire.readField(payload), l);
+            default -> l.onUnhandled("op " + op);
+        }
+    }
+
+    // ===================================================================================
+    //                               클라이언트 → 서버
+    // ===================================================================================
+    public static String login(String id, String pw) {
+        return "LOGIN " + id + " " + pw;
+    }
+
+    public static String register(String id, String pw, String name, String email) {
+        return "REGISTER " + id + " " + pw + " " + name + " " + email;
+    }
+
+    public static String checkId(String id) {
+        return "CHECKID " + id;
+    }
+
+    public static String whisper(String to, String msg) {
+        return "/w " + to + " " + msg;
+    }
+
+    public static final String LOGOUT = "LOGOUT";
+}
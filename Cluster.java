@@ -0,0 +1,329 @@
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// ============================
+//    클러스터 (여러 서버 노드)
+// ============================
+
+// 모든 노드에 같은 주소 목록과 각자의 번호를 주면 여러 서버 프로세스가 한 채팅 서버처럼 동작한다.
+//   -Dchat.cluster.peers=127.0.0.1:59101,127.0.0.1:59102 -Dchat.cluster.node=0
+// (클라이언트 포트 -Dchat.port, 관리 포트, -Dchat.accounts.dir / -Dchat.history.dir는 노드마다 다르게)
+//
+// - 접속 현황: 각 노드는 자기 세션의 로그인/로그아웃을 모든 노드에 알리고(ONLINE/OFFLINE)
+//   다른 노드에 접속한 ID → 노드 번호를 remote에 둔다. 연결될 때마다 전체 목록부터 보낸다.
+// - 중복 로그인: ID마다 담당 노드(해시로 정하고 연결이 끊긴 노드는 건너뜀)가 있고, 로그인은
+//   담당 노드의 허락(CLAIM)을 받아야 한다. 한 곳에서 차례로 판단하므로 두 노드에서 동시에
+//   같은 ID로 로그인해도 한쪽만 성공한다. 가입할 ID도 같은 방식으로 예약(RESERVE)한다.
+// - 접속자 목록(Presence)에는 다른 노드의 ONLINE/OFFLINE도 반영한다.
+// - 방 메시지는 모든 노드에 보내고 각 노드가 자기 쪽 참여자에게 전달하고 기록한다.
+// - 귓속말은 받는 사람이 접속한 노드로만 보낸다. 접속해 있지 않으면 보낸 노드가 보관했다가
+//   ONLINE을 받으면 그 노드로 보낸다 (WhisperRouter).
+// - 계정은 가입한 노드가 다른 노드에 복제한다. 꺼져 있던 노드는 그동안의 가입을 모르므로
+//   노드는 같은 계정 저장소 사본으로 시작한다.
+final class Cluster implements PeerBus.Handler {
+
+	// 담당 노드 응답 대기 (넘으면 실패 → 클라이언트에게는 LOGINLIMIT, 잠시 뒤 다시 시도)
+	static final long TIMEOUT_MS = Long.getLong("chat.cluster.timeout.ms", 2000);
+
+	// ---------------- 메시지 (TcpPeerBus.HELLO 다음 번호부터) ----------------
+	static final int ONLINE = 0x41;    // 아이디... (여러 개)
+	static final int OFFLINE = 0x42;   // 아이디
+	static final int CLAIM = 0x43;     // 요청 번호, 아이디
+	static final int RESERVE = 0x44;   // 요청 번호, 아이디
+	static final int REPLY = 0x45;     // 요청 번호, "1" / "0"
+	static final int ROOM = 0x46;      // 방 이름, 한 줄, "1"(채팅: 기록함) / "0"(입장/퇴장 알림)
+	static final int WHISPER = 0x47;   // 받는 사람, 한 줄
+	static final int ACCOUNT = 0x48;   // 아이디, salt, hash, 이름, 이메일, kdf, iterations
+
+	// 연결 직후 보내는 접속자 목록을 나누는 크기
+	private static final int SNAPSHOT_CHUNK = 1000;
+
+	private final PeerBus bus;
+	private final int self;
+	private final SessionRegistry sessions;
+	private final RoomIndex rooms;
+	private final HistoryStore history;
+	private final AccountStore accounts;
+	private final WhisperRouter whispers;
+	private final Presence presence;
+
+	// 다른 노드에 접속한 ID → 노드
+	private final ConcurrentHashMap<String, Integer> remote = new ConcurrentHashMap<>();
+
+	// 담당 노드로서 허락한 로그인 / 가입 예약 (ID → 노드)
+	private final ConcurrentHashMap<String, Integer> claimed = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<String, Integer> reserved = new ConcurrentHashMap<>();
+
+	// 응답을 기다리는 요청
+	private final AtomicLong nextRequest = new AtomicLong();
+	private final ConcurrentHashMap<Long, CompletableFuture<Boolean>> requests = new ConcurrentHashMap<>();
+
+	// ONLINE/OFFLINE과 연결 직후 목록의 순서를 맞추기 위한 잠금
+	// (목록을 만든 뒤 보내기 전에 OFFLINE이 먼저 나가면 받는 쪽에 나간 사람이 남는다)
+	private final Object presenceLock = new Object();
+
+	Cluster(PeerBus bus, SessionRegistry sessions, RoomIndex rooms, HistoryStore history, AccountStore accounts,
+			WhisperRouter whispers, Presence presence) {
+		this.bus = bus;
+		this.self = bus.self();
+		this.sessions = sessions;
+		this.rooms = rooms;
+		this.history = history;
+		this.accounts = accounts;
+		this.whispers = whispers;
+		this.presence = presence;
+	}
+
+	// 설정(-Dchat.cluster.*)대로 시작. 설정이 없으면 null (노드 하나로 동작)
+	// 노드 간 연결은 tokens의 키로 인증하므로 모든 노드가 같은 키 파일을 써야 한다
+	static Cluster start(SessionRegistry sessions, RoomIndex rooms, HistoryStore history, AccountStore accounts,
+			WhisperRouter whispers, Presence presence, SessionTokens tokens) throws Exception {
+		String peers = System.getProperty("chat.cluster.peers", "");
+		if (peers.isBlank()) return null;
+
+		List<InetSocketAddress> list = new ArrayList<>();
+		for (String p : peers.split(",")) {
+			p = p.trim();
+			int colon = p.lastIndexOf(':');
+			list.add(new InetSocketAddress(p.substring(0, colon), Integer.parseInt(p.substring(colon + 1))));
+		}
+		int node = Integer.getInteger("chat.cluster.node", -1);
+		if (node < 0 || node >= list.size()) {
+			throw new IllegalArgumentException("chat.cluster.node must be 0.." + (list.size() - 1));
+		}
+
+		Cluster c = new Cluster(new TcpPeerBus(list, node, tokens), sessions, rooms, history, accounts, whispers, presence);
+		whispers.setCluster(c);
+		presence.setCluster(c);
+		c.bus.start(c);
+		System.out.println("cluster: node " + node + " of " + list.size() + " (" + list.get(node) + ")");
+		return c;
+	}
+
+
+	// ============================
+	//    로그인 / 가입 (담당 노드)
+	// ============================
+
+	// ID 담당 노드: 해시로 정한 노드부터 차례로 보아 연결된 첫 노드 (자기 자신은 항상 연결됨)
+	int ownerOf(String id) {
+		int n = bus.size();
+		int start = Math.floorMod(id.hashCode(), n);
+		for (int i = 0; i < n; i++) {
+			int node = (start + i) % n;
+			if (bus.isConnected(node)) return node;
+		}
+		return self;
+	}
+
+	// 이 노드에서 로그인해도 되는지 (이 노드의 세션 목록에는 이미 등록한 뒤에 호출)
+	// false면 다른 노드에 접속 중
+	CompletableFuture<Boolean> claim(String id) {
+		return ask(CLAIM, id);
+	}
+
+	// 이 ID로 가입해도 되는지 (다른 노드에서 동시에 같은 ID로 가입하는 경우 한쪽만 true)
+	CompletableFuture<Boolean> reserve(String id) {
+		return ask(RESERVE, id);
+	}
+
+	private CompletableFuture<Boolean> ask(int op, String id) {
+		int owner = ownerOf(id);
+		if (owner == self) return CompletableFuture.completedFuture(decide(op, id, self));
+
+		long req = nextRequest.incrementAndGet();
+		CompletableFuture<Boolean> f = new CompletableFuture<>();
+		requests.put(req, f);
+		f.orTimeout(TIMEOUT_MS, TimeUnit.MILLISECONDS).whenComplete((r, e) -> requests.remove(req));
+		bus.send(owner, Wire.encode(op, Long.toString(req), id));
+		return f;
+	}
+
+	// 담당 노드로서 판단: from 노드가 id로 로그인/가입해도 되는지
+	private boolean decide(int op, String id, int from) {
+		if (op == RESERVE) {
+			if (accounts.exists(id)) return false;
+			Integer prev = reserved.putIfAbsent(id, from);
+			return prev == null || prev == from;
+		}
+
+		// 담당 노드가 막 바뀐 경우 claimed에 없을 수 있으므로 접속 현황도 확인
+		Integer at = remote.get(id);
+		if (at != null && at != from) return false;
+		if (from != self && sessions.isOnline(id)) return false;
+
+		Integer prev = claimed.putIfAbsent(id, from);
+		return prev == null || prev == from;
+	}
+
+	// 가입 확정 후 다른 노드에 계정 복제
+	void replicate(AccountStore.Account a) {
+		reserved.remove(a.id);
+		bus.broadcast(Wire.encode(ACCOUNT, a.id, ChatServer.bytesToHex(a.salt), ChatServer.bytesToHex(a.hash),
+				a.name(), a.email(), Byte.toString(a.kdf), Integer.toString(a.iterations)));
+	}
+
+
+	// ============================
+	//      접속 현황 / 전달
+	// ============================
+
+	// 로그인 완료 (claim 성공 후)
+	void online(String id) {
+		synchronized (presenceLock) {
+			bus.broadcast(Wire.encode(ONLINE, id));
+		}
+	}
+
+	// 로그아웃 (또는 claim 후 로그인을 마치지 못함)
+	void offline(String id) {
+		claimed.remove(id, self);
+		synchronized (presenceLock) {
+			bus.broadcast(Wire.encode(OFFLINE, id));
+		}
+	}
+
+	// 방 메시지를 다른 노드의 같은 방 참여자에게 (chat이면 받는 노드도 기록)
+	void room(String name, String line, boolean chat) {
+		bus.broadcast(Wire.encode(ROOM, name, line, chat ? "1" : "0"));
+	}
+
+	// 다른 노드에 접속한 사람에게 귓속말 한 줄. 어디에도 접속해 있지 않으면 false
+	boolean whisper(String to, String line) {
+		Integer node = remote.get(to);
+		if (node == null) return false;
+		bus.send(node, Wire.encode(WHISPER, to, line));
+		return true;
+	}
+
+	// 다른 노드에 접속 중인지
+	boolean isRemote(String id) {
+		return remote.containsKey(id);
+	}
+
+	// 이 노드의 번호
+	int self() {
+		return self;
+	}
+
+	// 다른 노드에 접속한 사용자 수
+	int remoteCount() {
+		return remote.size();
+	}
+
+	// 연결된 다른 노드 수
+	int connectedPeers() {
+		int n = 0;
+		for (int i = 0; i < bus.size(); i++) {
+			if (i != self && bus.isConnected(i)) n++;
+		}
+		return n;
+	}
+
+
+	// ============================
+	//      버스 이벤트
+	// ============================
+
+	// 새 연결: 이 노드의 접속자 목록부터 보냄
+	@Override
+	public void onConnected(int node) {
+		synchronized (presenceLock) {
+			List<String> ids = new ArrayList<>();
+			for (ChatServer.Session s : sessions.list()) {
+				String id = s.id;   // 로그인 확정 전(null)은 뒤에 오는 ONLINE으로
+				if (id != null) ids.add(id);
+				if (ids.size() == SNAPSHOT_CHUNK) {
+					bus.send(node, Wire.encode(ONLINE, ids.toArray(new String[0])));
+					ids.clear();
+				}
+			}
+			if (!ids.isEmpty()) bus.send(node, Wire.encode(ONLINE, ids.toArray(new String[0])));
+		}
+	}
+
+	// 그 노드에 대해 알던 것은 모두 지움 (다시 연결되면 목록부터 다시 받음)
+	@Override
+	public void onDisconnected(int node) {
+		List<String> gone = new ArrayList<>();
+		remote.entrySet().removeIf(e -> {
+			if (e.getValue() != node) return false;
+			gone.add(e.getKey());
+			return true;
+		});
+		for (String id : gone) presence.refresh(id);
+		claimed.entrySet().removeIf(e -> e.getValue() == node);
+		reserved.entrySet().removeIf(e -> e.getValue() == node);
+	}
+
+	@Override
+	public void onMessage(int from, int op, ByteBuffer p) {
+		switch (op) {
+			case ONLINE:
+				while (p.hasRemaining()) {
+					String id = Wire.readField(p);
+					remote.put(id, from);
+					presence.refresh(id);
+					whispers.flush(id);   // 이 노드에 보관된 귓속말을 그 노드로
+				}
+				break;
+
+			case OFFLINE: {
+				String id = Wire.readField(p);
+				if (remote.remove(id, from)) presence.refresh(id);
+				claimed.remove(id, from);
+				break;
+			}
+
+			case CLAIM:
+			case RESERVE: {
+				String req = Wire.readField(p);
+				boolean ok = decide(op, Wire.readField(p), from);
+				bus.send(from, Wire.encode(REPLY, req, ok ? "1" : "0"));
+				break;
+			}
+
+			case REPLY: {
+				CompletableFuture<Boolean> f = requests.remove(Long.parseLong(Wire.readField(p)));
+				if (f != null) f.complete(Wire.readField(p).equals("1"));
+				break;
+			}
+
+			case ROOM: {
+				String name = Wire.readField(p);
+				String line = Wire.readField(p);
+				boolean chat = Wire.readField(p).equals("1");
+				HistoryStore.Record rec = chat ? history.append(name, line) : null;
+
+				RoomIndex.Room r = rooms.get(name);
+				if (r == null) break;
+				if (chat) r.post(Frame.shared(line, r.memberCount()), rec);
+				else r.notice(Frame.shared(line, r.memberCount()));
+				break;
+			}
+
+			case WHISPER: {
+				ChatServer.Session s = sessions.get(Wire.readField(p));
+				if (s != null) s.send(Frame.of(Wire.readField(p)));
+				break;
+			}
+
+			case ACCOUNT: {
+				AccountStore.Account a = new AccountStore.Account(Wire.readField(p),
+						AccountStore.hexToBytes(Wire.readField(p)), AccountStore.hexToBytes(Wire.readField(p)),
+						Wire.readField(p), Wire.readField(p),
+						Byte.parseByte(Wire.readField(p)), Integer.parseInt(Wire.readField(p)));
+				// 새 가입만 받음 (이미 있는 계정은 절대 덮어쓰지 않음)
+				if (!accounts.exists(a.id)) accounts.register(a);
+				reserved.remove(a.id);
+				break;
+			}
+		}
+	}
+}
@@ -0,0 +1,229 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// ============================
+//    연결 압축 (서버/클라이언트 공용)
+// ============================
+
+// 연결 직후 서버가 "CAPS ... deflate"를 알리고 클라이언트가 고르면 서버는 "CAPSACK ... deflate"
+// 다음 바이트부터 서버 → 클라이언트 방향 전체를 하나의 deflate 스트림(raw, zlib 머리 없음)으로 보낸다.
+// writer가 대기열에서 꺼낸 묶음마다 이어서 압축하고 SYNC_FLUSH로 끊으므로, 클라이언트는 묶음이 도착하는
+// 대로 다 풀 수 있고, 앞 묶음의 내용(같은 아이디, "MESSAGE " 등)이 다음 묶음의 사전 역할을 한다.
+// 처음 묶음도 잘 줄도록 자주 나오는 프로토콜 토큰과 말을 미리 넣은 사전(DICTIONARY)으로 시작한다.
+//
+// - 클라이언트 → 서버는 짧은 입력뿐이라 압축하지 않는다.
+// - 압축 상태는 연결마다 256KB 정도(zlib 창 + 해시)의 네이티브 메모리를 쓰므로 압축하는 연결 수를
+//   MAX_CONNECTIONS로 제한한다. 넘으면 CAPSACK에서 빼고 압축 없이 진행한다.
+// - CPU가 포화되면(Guard) 모든 연결을 NO_COMPRESSION(저장 블록)으로 바꾼다. 스트림 형식은 같으므로
+//   클라이언트는 아무것도 몰라도 되고, 압축 대신 복사만 한다. 새 연결에는 압축을 주지 않는다.
+final class Deflate {
+
+	private Deflate() {}
+
+	// 협상 이름 (CAPS 줄에 쓰임)
+	static final String CAP = "deflate";
+
+	// 압축 수준 (-Dchat.deflate.level, 1 = 가장 빠름) / 압축하는 연결 수 제한
+	static final int LEVEL = Integer.getInteger("chat.deflate.level", Deflater.BEST_SPEED);
+	static final int MAX_CONNECTIONS = Integer.getInteger("chat.deflate.max.connections", 2000);
+
+	// 미리 넣는 사전: 자주 나오는 것일수록 뒤에 (가까운 거리가 짧게 부호화됨). 바꾸면 예전 클라이언트와 맞지 않음
+	static final byte[] DICTIONARY = String.join("",
+			"REGISTERSUCCESS\n", "LOGINFAIL\n", "IDUSED\n", "IDOK\n", "BYE\n",
+			"ROSTER 0 ", "PRESENCE 1 +", " -", "SESSION ", "FILE ", "/get ", "📎 ",
+			"MESSAGE 방 목록:", "명, ", " msg/s)", "MESSAGE 현재 방: ", "MESSAGE ⚠ ",
+			"(귓→", "(귓←", "ㅋㅋㅋㅋㅋㅋ", "ㅎㅎ", "ㅠㅠ", "네 ", "아니요 ", "감사합니다", "안녕하세요",
+			"괜찮습니다", "확인했습니다", "있습니다", "했습니다", "합니다", "입니다. ", "그럼 ", "혹시 ",
+			"오늘 ", "지금 ", "내일 ", "회의 ", "저는 ", "우리 ", "이거 ", "그거 ", "근데 ", "그리고 ", "? ",
+			" has left\n", " has joined\n", "PING\n", "SEQ 1", "NAMEACCEPTED ",
+			"\nMESSAGE [", "] ", "\nMESSAGE ").getBytes(StandardCharsets.UTF_8);
+
+	// 압축하는 연결 수 (acquire ~ Out.end)
+	private static final AtomicInteger active = new AtomicInteger();
+
+	// CPU 포화로 압축을 멈춤 (Guard가 바꿈)
+	private static volatile boolean suspended;
+
+	// 새 연결에 압축을 줄 수 있으면 자리를 잡고 Out을 돌려줌 (아니면 null)
+	static Out acquire() {
+		if (suspended) return null;
+		if (active.incrementAndGet() > MAX_CONNECTIONS) {
+			active.decrementAndGet();
+			return null;
+		}
+		return new Out(LEVEL, true);
+	}
+
+	static int activeConnections() {
+		return active.get();
+	}
+
+	static boolean isSuspended() {
+		return suspended;
+	}
+
+
+	// ============================
+	//      서버: 압축 (연결마다)
+	// ============================
+
+	// writer 스레드에서만 compress를 부르고, end는 어느 스레드에서나 (연결 종료)
+	static final class Out {
+		private final Deflater deflater;
+		private ByteBuffer out = ByteBuffer.allocate(4 * 1024);
+		private final int base;    // 평소 수준
+		private int level;         // 지금 수준 (멈췄으면 NO_COMPRESSION)
+		private boolean ended;
+		private final boolean counted;   // acquire로 자리를 잡은 것 (end에서 비움)
+
+		// 벤치마크에서 수준을 바꿔 가며 쓰므로 package-private (서버는 acquire로만)
+		Out(int level) {
+			this(level, false);
+		}
+
+		private Out(int level, boolean counted) {
+			deflater = new Deflater(level, true);
+			deflater.setDictionary(DICTIONARY);
+			this.base = this.level = level;
+			this.counted = counted;
+		}
+
+		// in[0..n)을 이어서 압축하고 SYNC_FLUSH. 결과는 다음 호출 전까지만 유효 (연결마다 재사용)
+		synchronized ByteBuffer compress(ByteBuffer[] in, int n) throws IOException {
+			if (ended) throw new IOException("connection closed");
+
+			int want = suspended ? Deflater.NO_COMPRESSION : base;
+			if (want != level) {
+				deflater.setLevel(want);
+				level = want;
+			}
+
+			out.clear();
+			for (int i = 0; i < n; i++) {
+				deflater.setInput(in[i]);
+				while (!deflater.needsInput()) {
+					if (!out.hasRemaining()) grow();
+					deflater.deflate(out, Deflater.NO_FLUSH);
+				}
+			}
+			// 출력 공간을 다 채웠으면 아직 남은 것이 있으므로 다시
+			while (true) {
+				if (!out.hasRemaining()) grow();
+				int space = out.remaining();
+				if (deflater.deflate(out, Deflater.SYNC_FLUSH) < space) break;
+			}
+			out.flip();
+			return out;
+		}
+
+		private void grow() {
+			ByteBuffer bigger = ByteBuffer.allocate(out.capacity() * 2);
+			out.flip();
+			bigger.put(out);
+			out = bigger;
+		}
+
+		// 네이티브 메모리를 바로 돌려주고 자리를 비움 (여러 번 불러도 됨)
+		synchronized void end() {
+			if (ended) return;
+			ended = true;
+			deflater.end();
+			if (counted) active.decrementAndGet();
+		}
+	}
+
+
+	// ============================
+	//      클라이언트: 풀기
+	// ============================
+
+	static final class In {
+		private final Inflater inflater = new Inflater(true);
+		private ByteBuffer raw;
+
+		// first: CAPSACK 줄 뒤에 이미 같이 읽은 (압축된) 바이트
+		In(ByteBuffer first) {
+			inflater.setDictionary(DICTIONARY);
+			raw = ByteBuffer.allocate(Math.max(8 * 1024, first.remaining()));
+			raw.put(first).flip();
+			inflater.setInput(raw);
+		}
+
+		// 소켓에서 더 읽어야 하는지 (받은 것을 다 풂)
+		boolean needsInput() {
+			return inflater.needsInput();
+		}
+
+		// 새로 읽을 자리 (needsInput일 때만)
+		ByteBuffer rawBuffer() {
+			raw.clear();
+			return raw;
+		}
+
+		// rawBuffer에 n바이트를 읽었음
+		void received(int n) {
+			raw.position(0).limit(n);
+			inflater.setInput(raw);
+		}
+
+		// 푼 것을 dst에 (dst가 차면 나머지는 다음에)
+		void inflate(ByteBuffer dst) throws IOException {
+			try {
+				inflater.inflate(dst);
+			} catch (DataFormatException e) {
+				throw new IOException("bad deflate stream", e);
+			}
+		}
+
+		void end() {
+			inflater.end();
+		}
+	}
+
+
+	// ============================
+	//      CPU 포화 감시 (서버)
+	// ============================
+
+	// 시스템 CPU 사용률이 HIGH 이상인 표본이 SAMPLES번 이어지면 압축을 멈추고, LOW 아래로 SAMPLES번
+	// 이어지면 다시 켠다. (-Dchat.deflate.cpu.high=0.9 -Dchat.deflate.cpu.low=0.7, high가 1 이상이면 끔)
+	static final double CPU_HIGH = Double.parseDouble(System.getProperty("chat.deflate.cpu.high", "0.9"));
+	static final double CPU_LOW = Double.parseDouble(System.getProperty("chat.deflate.cpu.low", "0.7"));
+	static final int SAMPLES = Integer.getInteger("chat.deflate.cpu.samples", 3);
+	static final long SAMPLE_MS = Long.getLong("chat.deflate.cpu.interval.ms", 1000);
+
+	static void startGuard() {
+		if (CPU_HIGH >= 1) return;
+		if (!(ManagementFactory.getOperatingSystemMXBean() instanceof com.sun.management.OperatingSystemMXBean os)) return;
+
+		Thread t = new Thread(() -> {
+			int streak = 0;
+			while (true) {
+				try {
+					Thread.sleep(SAMPLE_MS);
+				} catch (InterruptedException e) {
+					return;
+				}
+
+				double load = os.getCpuLoad();
+				if (load < 0) continue;   // 아직 값이 없음
+				boolean flip = suspended ? load < CPU_LOW : load >= CPU_HIGH;
+				streak = flip ? streak + 1 : 0;
+				if (streak < SAMPLES) continue;
+
+				streak = 0;
+				suspended = !suspended;
+				if (suspended) ServerMetrics.deflateSuspensions.increment();
+				System.out.printf("deflate: %s (cpu %.0f%%)%n", suspended ? "suspended" : "resumed", load * 100);
+			}
+		}, "deflate-guard");
+		t.setDaemon(true);
+		t.start();
+	}
+}
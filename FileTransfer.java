@@ -0,0 +1,139 @@
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.function.Consumer;
+
+// ===================================================================================
+//                    파일 올리기 / 받기 (서버 파일 포트, 클라이언트 쪽)
+// ===================================================================================
+
+// 채팅 연결에서 받은 허가표(UPLOAD / FILE)로 서버의 파일 포트에 따로 연결해서 파일 내용을
+// 주고받는다. 형식은 서버 BlobSpool 참고. 내용은 FileChannel.transferTo/transferFrom으로
+// 파일과 소켓 사이를 바로 오가므로 큰 파일도 힙에 올라오지 않는다.
+// 연결이 끊기면 RETRIES번까지 다시 연결해서 서버가 알려 주는 위치(올리기) 또는 받아 둔
+// .part 파일 끝(받기)부터 이어 간다. 호출한 스레드에서 끝날 때까지 돌므로 따로 스레드에서 부른다.
+public final class FileTransfer {
+
+    private FileTransfer() {}
+
+    static final int RETRIES = 5;
+    static final long CHUNK = 1024 * 1024;
+
+    // file을 서버에 올림. 끝까지 올렸으면 true
+    public static boolean upload(String host, int port, String id, String ticket, Path file,
+                                 Consumer<String> status) {
+        for (int attempt = 0; attempt <= RETRIES; attempt++) {
+            try (SocketChannel ch = SocketChannel.open(new InetSocketAddress(host, port));
+                 FileChannel fc = FileChannel.open(file, StandardOpenOption.READ)) {
+                writeLine(ch, "PUT " + id + " " + ticket);
+                long pos = ok(readLine(ch));
+                long size = fc.size();
+                if (attempt > 0 && pos < size) status.accept("이어서 올리는 중: " + file.getFileName() + " (" + pos + "/" + size + ")");
+
+                while (pos < size) {
+                    long n = fc.transferTo(pos, Math.min(CHUNK, size - pos), ch);
+                    if (n <= 0) throw new EOFException();
+                    pos += n;
+                }
+                if (!readLine(ch).equals("DONE")) throw new ProtocolException("upload not accepted");
+                return true;
+            } catch (IOException e) {
+                if (e instanceof ProtocolException || attempt == RETRIES || !retry(attempt)) {
+                    status.accept("⚠ 올리기 실패: " + file.getFileName() + " (" + e.getMessage() + ")");
+                    return false;
+                }
+            }
+        }
+        return false;
+    }
+
+    // 서버의 파일을 dest로 받음 (받는 중에는 dest.<id>.part). 끝까지 받았으면 실제로 저장한 경로
+    public static Path download(String host, int port, String id, String ticket, long size, Path dest,
+                                Consumer<String> status) {
+        Path part = dest.resolveSibling(dest.getFileName() + "." + id + ".part");
+        for (int attempt = 0; attempt <= RETRIES; attempt++) {
+            try (SocketChannel ch = SocketChannel.open(new InetSocketAddress(host, port));
+                 FileChannel fc = FileChannel.open(part, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                long pos = Math.min(fc.size(), size);
+                writeLine(ch, "GET " + id + " " + ticket + " " + pos);
+                ok(readLine(ch));
+
+                while (pos < size) {
+                    long n = fc.transferFrom(ch, pos, Math.min(CHUNK, size - pos));
+                    if (n <= 0) throw new EOFException();
+                    pos += n;
+                }
+                fc.truncate(size);
+            } catch (IOException e) {
+                if (e instanceof ProtocolException || attempt == RETRIES || !retry(attempt)) {
+                    status.accept("⚠ 받기 실패: " + dest.getFileName() + " (" + e.getMessage() + ")");
+                    return null;
+                }
+                continue;
+            }
+
+            try {
+                Path saved = unique(dest);
+                Files.move(part, saved);
+                return saved;
+            } catch (IOException e) {
+                status.accept("⚠ 저장 실패: " + dest + " (" + e.getMessage() + ")");
+                return null;
+            }
+        }
+        return null;
+    }
+
+    // 다시 시도하기 전에 잠깐 쉼 (1초, 2초, 4초...). 끊겼으면 false
+    private static boolean retry(int attempt) {
+        try {
+            Thread.sleep(1000L << attempt);
+            return true;
+        } catch (InterruptedException e) {
+            return false;
+        }
+    }
+
+    // 같은 이름이 있으면 "이름 (1).확장자"
+    private static Path unique(Path p) {
+        if (!Files.exists(p)) return p;
+        String name = p.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        String base = dot > 0 ? name.substring(0, dot) : name;
+        String ext = dot > 0 ? name.substring(dot) : "";
+        for (int i = 1; ; i++) {
+            Path q = p.resolveSibling(base + " (" + i + ")" + ext);
+            if (!Files.exists(q)) return q;
+        }
+    }
+
+    // "OK 숫자" → 숫자, 그 밖의 답(ERR ...)은 실패 (다시 시도해도 같으므로 ProtocolException)
+    private static long ok(String line) throws IOException {
+        if (!line.startsWith("OK ")) throw new ProtocolException(line);
+        return Long.parseLong(line.substring(3).trim());
+    }
+
+    private static void writeLine(SocketChannel ch, String line) throws IOException {
+        ByteBuffer b = ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.UTF_8));
+        while (b.hasRemaining()) ch.write(b);
+    }
+
+    // 답 한 줄 (뒤에 오는 파일 내용을 미리 읽지 않도록 한 바이트씩)
+    private static String readLine(SocketChannel ch) throws IOException {
+        ByteBuffer one = ByteBuffer.allocate(1);
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        while (true) {
+            one.clear();
+            if (ch.read(one) < 0) throw new EOFException("connection closed");
+            byte c = one.get(0);
+            if (c == '\n') return line.toString(StandardCharsets.UTF_8);
+            if (line.size() > 512) throw new IOException("reply too long");
+            if (c != '\r') line.write(c);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+// ============================
+//    보내는 속도 제한 (세션마다)
+// ============================
+
+// 메시지 수와 바이트 수에 각각 토큰 버킷을 두고, 둘 다 허용할 때만 바로 보낸다.
+// 버킷 하나를 "다음 토큰이 생기는 시각(tat)" long 하나로 나타내는 GCRA 방식이라
+// 확인할 때 객체를 만들지 않고 잠금도 없다.
+//
+//   rate = 초당 허용량, burst = 한꺼번에 허용하는 양
+//   한 번 보내면 tat += 비용 × (1초 / rate), tat - 지금 > burst × (1초 / rate)이면 그만큼 기다려야 함
+//
+// - 기다릴 시간이 MAX_DELAY 이하면 미리 자리를 잡고(tat를 올림) 그 시간을 돌려준다. 세션은 그동안
+//   이 연결의 입력을 멈추므로 (suspendUntil) 보내는 쪽은 TCP로 밀려서 그 속도 이상 보내지 못한다.
+// - 더 오래 기다려야 하면 (버킷보다 큰 메시지 등) 자리를 잡지 않고 -1 → 버림.
+//   기다리는 동안 다음 줄을 읽지 않으므로 보통은 한 메시지 간격 이상 밀리지 않는다.
+//   늦추지 않고 넘치는 만큼 바로 버리려면 -Dchat.flood.max.delay.ms=0.
+// - 세션의 입력 처리는 한 번에 한 스레드만 하므로 (리액터/핸들러 스레드, 미룬 처리는 입력을 멈춘
+//   동안에만) 필드는 volatile이 아니어도 된다.
+final class FloodControl {
+
+	// 메시지 (-Dchat.flood.rate=초당 개수, 0이면 끔 / -Dchat.flood.burst=개수)
+	static final double RATE = Double.parseDouble(System.getProperty("chat.flood.rate", "5"));
+	static final int BURST = Integer.getInteger("chat.flood.burst", 10);
+
+	// 바이트 (UTF-8 기준, -Dchat.flood.bytes.rate=초당 바이트, 0이면 끔 / -Dchat.flood.bytes.burst)
+	static final double BYTES_RATE = Double.parseDouble(System.getProperty("chat.flood.bytes.rate", "16384"));
+	static final int BYTES_BURST = Integer.getInteger("chat.flood.bytes.burst", 64 * 1024);
+
+	// 이보다 오래 기다려야 하면 버림 (-Dchat.flood.max.delay.ms)
+	static final long MAX_DELAY_NANOS = Long.getLong("chat.flood.max.delay.ms", 2000) * 1_000_000L;
+
+	private static final long MSG_COST = RATE > 0 ? (long) (1e9 / RATE) : 0;
+	private static final long MSG_TOLERANCE = MSG_COST * BURST;
+	private static final long BYTE_COST = BYTES_RATE > 0 ? (long) (1e9 / BYTES_RATE) : 0;
+	private static final long BYTE_TOLERANCE = BYTE_COST * BYTES_BURST;
+
+	private long msgTat = Long.MIN_VALUE;
+	private long byteTat = Long.MIN_VALUE;
+
+	// 메시지 하나(bytes바이트)를 보내려 함: 0 = 바로, 양수 = 그만큼(나노초) 뒤에 (자리는 잡았음), -1 = 버림
+	long reserve(long now, int bytes) {
+		long m = MSG_COST == 0 ? now : Math.max(msgTat, now) + MSG_COST;
+		long b = BYTE_COST == 0 ? now : Math.max(byteTat, now) + BYTE_COST * bytes;
+
+		long wait = Math.max(0, Math.max(m - now - MSG_TOLERANCE, b - now - BYTE_TOLERANCE));
+		if (wait > MAX_DELAY_NANOS) return -1;
+
+		if (MSG_COST != 0) msgTat = m;
+		if (BYTE_COST != 0) byteTat = b;
+		return wait;
+	}
+
+	// 문자열의 UTF-8 바이트 수 (인코딩하지 않고 셈)
+	static int utf8Length(String s) {
+		int n = 0;
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c < 0x80) n++;
+			else if (c < 0x800 || Character.isSurrogate(c)) n += 2;   // 대리 쌍은 둘이 합쳐 4
+			else n += 3;
+		}
+		return n;
+	}
+}
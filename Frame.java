@@ -0,0 +1,81 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// ============================
+//    미리 인코딩된 전송 단위
+// ============================
+
+// 한 줄(개행 포함)을 UTF-8로 한 번만 인코딩해 두고 모든 수신자가 같은 바이트를 공유한다.
+// 수신자마다 위치만 다른 view(duplicate)를 받으므로 내용 복사나 재인코딩이 없다.
+// 바이너리 프레임을 쓰는 수신자가 있으면 그 인코딩도 한 번만 만들어 공유한다.
+final class Frame {
+
+	// 다이렉트 버퍼를 쓰는 최소 수신자 수 (-Dchat.frame.direct.min)
+	static final int DIRECT_MIN = Integer.getInteger("chat.frame.direct.min", 16);
+
+	private final String line;
+	private final boolean direct;
+	private final ByteBuffer bytes;   // 읽기 전용, position=0
+
+	// 바이너리 협상한 연결용 인코딩 (처음 필요할 때 한 번 만들고 공유)
+	private volatile Frame binary;
+
+	private Frame(String line, boolean direct, ByteBuffer bytes) {
+		this.line = line;
+		this.direct = direct;
+		this.bytes = bytes;
+	}
+
+	// 한 명에게만 보내는 응답용 (힙 버퍼)
+	static Frame of(String line) {
+		return new Frame(line, false, ByteBuffer.wrap(textBytes(line)).asReadOnlyBuffer());
+	}
+
+	// 여러 명에게 보내는 브로드캐스트용 (다이렉트 버퍼)
+	// 힙 버퍼는 채널에 쓸 때마다 JDK 내부에서 임시 다이렉트 버퍼로 복사되므로
+	// 수신자가 많을수록 처음부터 다이렉트로 만드는 편이 싸다.
+	static Frame shared(String line) {
+		return new Frame(line, true, directCopy(textBytes(line)));
+	}
+
+	// 수신자 수를 알 때: DIRECT_MIN명 이상이면 다이렉트, 그보다 적으면 힙 버퍼
+	// (다이렉트 할당과 cleaner 해제는 수신자 몇 명분의 복사보다 비싸다. 대부분의 방은 1~3명)
+	static Frame shared(String line, int recipients) {
+		return recipients >= DIRECT_MIN ? shared(line) : of(line);
+	}
+
+	// 텍스트 프로토콜: 한 줄 + 개행 (바이너리 클라이언트가 보낸 개행은 공백으로)
+	private static byte[] textBytes(String line) {
+		if (line.indexOf('\n') >= 0 || line.indexOf('\r') >= 0) {
+			line = line.replace("\r\n", " ").replace('\n', ' ').replace('\r', ' ');
+		}
+		return (line + "\n").getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static ByteBuffer directCopy(byte[] b) {
+		ByteBuffer direct = ByteBuffer.allocateDirect(b.length);
+		direct.put(b).flip();
+		return direct.asReadOnlyBuffer();
+	}
+
+	// 같은 내용의 바이너리 프레임 (Wire 형식)
+	Frame binary() {
+		Frame f = binary;
+		if (f == null) {
+			byte[] b = Wire.fromLine(line);
+			f = new Frame(line, direct, direct ? directCopy(b) : ByteBuffer.wrap(b).asReadOnlyBuffer());
+			f.binary = f;
+			binary = f;
+		}
+		return f;
+	}
+
+	// 수신자별 view (내용은 공유, position/limit만 독립)
+	ByteBuffer buffer() {
+		return bytes.duplicate();
+	}
+
+	int length() {
+		return bytes.limit();
+	}
+}
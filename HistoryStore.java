@@ -0,0 +1,815 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+// ============================
+//    메시지 기록 저장소
+// ============================
+
+// 추가만 하는(append-only) 세그먼트 파일에 채팅 메시지를 기록한다.
+//
+//   history/00000000000000000000.log   레코드들
+//   history/00000000000000000000.idx   희소 인덱스 (INDEX_INTERVAL 바이트마다 seq, 시각, 위치)
+//
+// 레코드 형식: [int 길이][int crc][long seq][long 시각][short 방 길이][방][줄]
+// 쓰기는 FileChannel로 하고 fsync는 FSYNC_MS마다 모아서 한다.
+// 읽기는 세그먼트를 메모리 매핑해서 필요한 구간만 훑으므로 기록 전체를 힙에 올리지 않는다.
+// 방마다 최근 레코드의 seq를 TAIL개씩 메모리에 두어 (입장 시 backfill) 조용한 방이나 새 방도
+// 세그먼트를 거슬러 훑지 않고 인덱스로 바로 찾는다. 이 목록은 열고 나서 history 스레드가 다시 만들고,
+// 기록이 모두 정리된 방은 빼며 TAIL_ROOMS개를 넘으면 가장 오래 조용했던 방부터 뺀다.
+class HistoryStore {
+
+	// 설정 (-Dchat.history.*)
+	static final long SEGMENT_BYTES = Long.getLong("chat.history.segment.bytes", 64L * 1024 * 1024);
+	static final long MAX_BYTES = Long.getLong("chat.history.max.bytes", 1024L * 1024 * 1024);
+	static final long MAX_AGE_MS = TimeUnit.HOURS.toMillis(Long.getLong("chat.history.max.age.hours", 24L * 7));
+	static final long FSYNC_MS = Long.getLong("chat.history.fsync.ms", 100L);
+	static final int INDEX_INTERVAL = Integer.getInteger("chat.history.index.interval", 4096);
+	static final int TAIL = Integer.getInteger("chat.history.tail", 64);
+	static final int TAIL_ROOMS = Integer.getInteger("chat.history.tail.rooms", 10_000);
+
+	// 방별 최근 목록을 다시 만드는 동안 last()가 거슬러 훑는 최대 바이트
+	static final long TAIL_SCAN_BYTES = Long.getLong("chat.history.tail.scan.bytes", 16L * 1024 * 1024);
+
+	private static final int RECORD_HEADER = 8;           // 길이 + crc
+	private static final int RECORD_FIXED = 8 + 8 + 2;    // seq + 시각 + 방 길이
+	private static final int INDEX_ENTRY = 8 + 8 + 4;     // seq + 시각 + 위치
+
+	// 읽어 온 레코드
+	static final class Record {
+		final long seq;
+		final long time;
+		final String room;
+		final String line;
+
+		Record(long seq, long time, String room, String line) {
+			this.seq = seq;
+			this.time = time;
+			this.room = room;
+			this.line = line;
+		}
+	}
+
+	private final File dir;
+	private final ReentrantLock lock = new ReentrantLock();   // 쓰기, 세그먼트 교체
+
+	// 오래된 것부터 정렬, 마지막이 현재 쓰는 세그먼트 (교체 시 통째로 바꿈)
+	private volatile List<Segment> segments = new ArrayList<>();
+
+	private long nextSeq;          // lock으로 보호
+	private long lastTime;         // 시각이 거꾸로 가지 않도록
+	private volatile boolean dirty;
+
+	// 방 이름 → 최근 레코드 seq (append가 lock 안에서 추가). 열 때 있던 기록은 rebuildTails가 채움
+	private final ConcurrentHashMap<String, Tail> tails = new ConcurrentHashMap<>();
+	private volatile boolean tailsReady;
+	private volatile long evictedUpTo = -1;   // 개수 제한으로 뺀 방들의 가장 최근 seq (lock으로 씀)
+	private boolean pruneQueued;              // lock으로 보호
+
+	private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread t = new Thread(r, "history");
+		t.setDaemon(true);
+		return t;
+	});
+
+	private HistoryStore(File dir) {
+		this.dir = dir;
+	}
+
+
+	// ============================
+	//      세그먼트
+	// ============================
+
+	private static final class Segment {
+		final long baseSeq;
+		final File logFile, idxFile;
+
+		FileChannel log, idx;          // 현재 쓰는 세그먼트만 열려 있음
+		volatile long size;            // 완전히 기록된 바이트 수
+		long lastSeq = -1;
+		long firstTime, lastTime;
+
+		// 희소 인덱스 (메모리 사본, 파일과 같은 내용)
+		// 읽기는 lock 없이 하므로 배열과 개수를 묶은 Index를 통째로 바꿔 공개한다.
+		volatile Index index = new Index(new long[64], new long[64], new int[64], 0);
+		long lastIndexedPos = -INDEX_INTERVAL;
+
+		// 읽기용 매핑 (크기가 바뀌면 다시 매핑)
+		private MappedByteBuffer map;
+		private long mappedSize = -1;
+
+		Segment(File dir, long baseSeq) {
+			this.baseSeq = baseSeq;
+			String name = String.format("%020d", baseSeq);
+			this.logFile = new File(dir, name + ".log");
+			this.idxFile = new File(dir, name + ".idx");
+		}
+
+		void addIndex(long seq, long time, int pos) {
+			index = index.with(seq, time, pos);
+			lastIndexedPos = pos;
+		}
+
+		// 읽기 전용 매핑 (호출마다 독립된 view)
+		synchronized ByteBuffer view() throws IOException {
+			long s = size;
+			if (map == null || mappedSize != s) {
+				try (FileChannel ch = FileChannel.open(logFile.toPath(), StandardOpenOption.READ)) {
+					map = ch.map(FileChannel.MapMode.READ_ONLY, 0, s);
+				}
+				mappedSize = s;
+			}
+			return map.duplicate();
+		}
+
+		void closeChannels() {
+			try { if (log != null) log.close(); } catch (IOException e) {}
+			try { if (idx != null) idx.close(); } catch (IOException e) {}
+			log = idx = null;
+		}
+	}
+
+
+	// 세그먼트의 희소 인덱스. 앞의 count개만 유효하고, 새 항목은 그 뒤 자리에만 쓰므로
+	// 예전 Index를 들고 있는 읽기 쪽은 자기 count까지 그대로 읽을 수 있다 (배열이 차면 복사).
+	private static final class Index {
+		final long[] seq;
+		final long[] time;
+		final int[] pos;
+		final int count;
+
+		Index(long[] seq, long[] time, int[] pos, int count) {
+			this.seq = seq;
+			this.time = time;
+			this.pos = pos;
+			this.count = count;
+		}
+
+		// 한 항목을 더한 새 Index (쓰는 쪽 한 곳에서만 호출)
+		Index with(long s, long t, int p) {
+			long[] sa = seq, ta = time;
+			int[] pa = pos;
+			if (count == sa.length) {
+				sa = Arrays.copyOf(sa, count * 2);
+				ta = Arrays.copyOf(ta, count * 2);
+				pa = Arrays.copyOf(pa, count * 2);
+			}
+			sa[count] = s;
+			ta[count] = t;
+			pa[count] = p;
+			return new Index(sa, ta, pa, count + 1);
+		}
+	}
+
+
+	// 방 하나의 최근 seq (TAIL개 고리, 오래된 것부터 덮어씀)
+	private static final class Tail {
+		private final long[] seqs = new long[TAIL];
+		private long count;   // 지금까지 넣은 수
+
+		synchronized void add(long seq) {
+			seqs[(int) (count++ % TAIL)] = seq;
+		}
+
+		// 최근 n개 (오래된 것부터)
+		synchronized long[] last(int n) {
+			int k = (int) Math.min(n, Math.min(count, TAIL));
+			long[] out = new long[k];
+			for (int i = 0; i < k; i++) out[i] = seqs[(int) ((count - k + i) % TAIL)];
+			return out;
+		}
+
+		// 가장 최근 seq (없으면 -1)
+		synchronized long newest() {
+			return count == 0 ? -1 : seqs[(int) ((count - 1) % TAIL)];
+		}
+
+		// 열 때 있던 기록(older, 모두 지금 것보다 앞)을 앞에 붙임
+		synchronized void addOlder(long[] older) {
+			long[] mine = last(TAIL);
+			count = 0;
+			for (long seq : older) add(seq);
+			for (long seq : mine) add(seq);
+		}
+	}
+
+
+	// ============================
+	//      열기 / 복구
+	// ============================
+
+	static HistoryStore open(File dir) throws IOException {
+		HistoryStore store = new HistoryStore(dir);
+		store.load();
+
+		// 모아서 fsync, 주기적으로 보존 기간 정리
+		store.timer.scheduleWithFixedDelay(store::sync, FSYNC_MS, FSYNC_MS, TimeUnit.MILLISECONDS);
+		store.timer.scheduleWithFixedDelay(store::maintain, 1, 1, TimeUnit.MINUTES);
+		store.timer.execute(store::rebuildTails);
+		return store;
+	}
+
+	private void load() throws IOException {
+		if (!dir.exists() && !dir.mkdirs()) throw new IOException("cannot create " + dir);
+
+		// 남아 있는 임시 파일(압축 중 중단)은 버림
+		File[] tmp = dir.listFiles((d, n) -> n.endsWith(".tmp"));
+		if (tmp != null) for (File f : tmp) f.delete();
+
+		File[] logs = dir.listFiles((d, n) -> n.endsWith(".log"));
+		List<Segment> list = new ArrayList<>();
+		if (logs != null) {
+			Arrays.sort(logs);
+			for (File f : logs) {
+				long base = Long.parseLong(f.getName().substring(0, f.getName().length() - 4));
+				Segment seg = new Segment(dir, base);
+				recover(seg);
+				if (seg.size == 0 && !list.isEmpty()) {
+					// 빈 세그먼트는 마지막이 아니면 정리
+					seg.logFile.delete();
+					seg.idxFile.delete();
+					continue;
+				}
+				list.add(seg);
+			}
+		}
+
+		if (list.isEmpty()) list.add(new Segment(dir, 0));
+
+		Segment active = list.get(list.size() - 1);
+		openForAppend(active);
+		nextSeq = Math.max(active.baseSeq, active.lastSeq + 1);
+		lastTime = active.lastTime;
+		segments = list;
+
+		long total = 0;
+		for (Segment s : list) total += s.size;
+		System.out.println("history loaded: segments=" + list.size() + " bytes=" + total + " nextSeq=" + nextSeq);
+	}
+
+	// 인덱스 파일을 읽고, 마지막 인덱스 지점부터 끝까지 훑어서 실제 끝을 찾는다.
+	// 중간에 잘린 레코드(비정상 종료)가 있으면 거기서 잘라낸다.
+	private void recover(Segment seg) throws IOException {
+		long fileSize = seg.logFile.length();
+
+		if (seg.idxFile.exists()) {
+			ByteBuffer ib = ByteBuffer.wrap(Files.readAllBytes(seg.idxFile.toPath()));
+			while (ib.remaining() >= INDEX_ENTRY) {
+				long seq = ib.getLong();
+				long time = ib.getLong();
+				int pos = ib.getInt();
+				if (pos >= fileSize) break;
+				seg.addIndex(seq, time, pos);
+			}
+		}
+
+		Index ix = seg.index;
+		int start = ix.count > 0 ? ix.pos[ix.count - 1] : 0;
+		boolean rebuild = ix.count == 0;
+
+		// 첫 인덱스는 첫 레코드 (끝부분만 훑으므로 처음 본 레코드의 시각은 첫 레코드 것이 아님)
+		if (ix.count > 0) seg.firstTime = ix.time[0];
+
+		try (FileChannel ch = FileChannel.open(seg.logFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			ByteBuffer v = ch.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+			int pos = start;
+			CRC32 crc = new CRC32();
+			while (true) {
+				int len = validRecordLength(v, pos, crc);
+				if (len < 0) break;
+
+				long seq = v.getLong(pos + RECORD_HEADER);
+				long time = v.getLong(pos + RECORD_HEADER + 8);
+				if (seg.firstTime == 0) seg.firstTime = time;
+				seg.lastSeq = seq;
+				seg.lastTime = time;
+				if (pos - seg.lastIndexedPos >= INDEX_INTERVAL) seg.addIndex(seq, time, pos);
+				pos += len;
+			}
+
+			if (pos < fileSize) {
+				System.out.println("history: " + seg.logFile.getName() + " 끝부분 " + (fileSize - pos) + " 바이트 잘라냄");
+				ch.truncate(pos);
+				rebuild = true;
+			}
+			seg.size = pos;
+		}
+
+		if (rebuild) writeIndexFile(seg);
+	}
+
+	// 열 때 있던 레코드를 모두 훑어 방별 최근 목록을 만든다 (history 스레드, 시작을 늦추지 않도록)
+	// 그동안 기록된 것(seq >= upTo)은 append가 이미 넣었으므로 그 앞에 붙인다.
+	private void rebuildTails() {
+		long upTo;
+		List<Segment> segs;
+		lock.lock();
+		try {
+			upTo = nextSeq;
+			segs = segments;
+		} finally {
+			lock.unlock();
+		}
+
+		long started = System.nanoTime();
+		Map<String, Tail> built = new HashMap<>();
+		try {
+			for (Segment seg : segs) {
+				ByteBuffer v = seg.view();
+				int pos = 0;
+				while (pos + RECORD_HEADER + RECORD_FIXED <= v.limit()) {
+					int p = pos + RECORD_HEADER;
+					long seq = v.getLong(p);
+					if (seq >= upTo) break;
+					byte[] rb = new byte[v.getShort(p + 16)];
+					v.get(p + RECORD_FIXED, rb);
+					built.computeIfAbsent(new String(rb, StandardCharsets.UTF_8), k -> new Tail()).add(seq);
+					pos += RECORD_HEADER + v.getInt(pos);
+				}
+			}
+		} catch (IOException e) {
+			System.out.println("history 방 목록 만들기 실패: " + e);
+		}
+
+		lock.lock();
+		try {
+			for (Map.Entry<String, Tail> e : built.entrySet()) {
+				tails.computeIfAbsent(e.getKey(), k -> new Tail()).addOlder(e.getValue().last(TAIL));
+			}
+			tailsReady = true;
+		} finally {
+			lock.unlock();
+		}
+		pruneTails();
+		System.out.println("history tails: rooms=" + built.size() + " ("
+				+ (System.nanoTime() - started) / 1_000_000 + " ms)");
+	}
+
+	// pos 위치에 온전한 레코드가 있으면 전체 길이, 없으면 -1
+	private static int validRecordLength(ByteBuffer v, int pos, CRC32 crc) {
+		if (pos + RECORD_HEADER + RECORD_FIXED > v.limit()) return -1;
+		int len = v.getInt(pos);
+		if (len < RECORD_FIXED || pos + RECORD_HEADER + (long) len > v.limit()) return -1;
+
+		ByteBuffer payload = v.duplicate();
+		payload.position(pos + RECORD_HEADER).limit(pos + RECORD_HEADER + len);
+		crc.reset();
+		crc.update(payload);
+		if ((int) crc.getValue() != v.getInt(pos + 4)) return -1;
+		return RECORD_HEADER + len;
+	}
+
+	private static void writeIndexFile(Segment seg) throws IOException {
+		Index ix = seg.index;
+		ByteBuffer ib = ByteBuffer.allocate(ix.count * INDEX_ENTRY);
+		for (int i = 0; i < ix.count; i++) {
+			ib.putLong(ix.seq[i]).putLong(ix.time[i]).putInt(ix.pos[i]);
+		}
+		ib.flip();
+		try (FileChannel ch = FileChannel.open(seg.idxFile.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			while (ib.hasRemaining()) ch.write(ib);
+		}
+	}
+
+	private static void openForAppend(Segment seg) throws IOException {
+		seg.log = FileChannel.open(seg.logFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		seg.idx = FileChannel.open(seg.idxFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		seg.idx.position(seg.idx.size());
+	}
+
+
+	// ============================
+	//        기록
+	// ============================
+
+	// 한 줄 기록 후 레코드 반환 (실패하면 null)
+	Record append(String room, String line) {
+		byte[] rb = room.getBytes(StandardCharsets.UTF_8);
+		byte[] lb = line.getBytes(StandardCharsets.UTF_8);
+		int len = RECORD_FIXED + rb.length + lb.length;
+		ByteBuffer buf = ByteBuffer.allocate(RECORD_HEADER + len);
+
+		lock.lock();
+		try {
+			Segment seg = segments.get(segments.size() - 1);
+			if (seg.size > 0 && seg.size + buf.capacity() > SEGMENT_BYTES) seg = roll();
+
+			long seq = nextSeq++;
+			long time = Math.max(System.currentTimeMillis(), lastTime);
+			lastTime = time;
+
+			buf.putInt(len).putInt(0).putLong(seq).putLong(time)
+					.putShort((short) rb.length).put(rb).put(lb);
+			CRC32 crc = new CRC32();
+			crc.update(buf.array(), RECORD_HEADER, len);
+			buf.putInt(4, (int) crc.getValue());
+			buf.flip();
+
+			long pos = seg.size;
+			while (buf.hasRemaining()) seg.log.write(buf, pos + buf.position());
+
+			if (pos - seg.lastIndexedPos >= INDEX_INTERVAL) {
+				seg.addIndex(seq, time, (int) pos);
+				ByteBuffer ib = ByteBuffer.allocate(INDEX_ENTRY);
+				ib.putLong(seq).putLong(time).putInt((int) pos).flip();
+				while (ib.hasRemaining()) seg.idx.write(ib);
+			}
+
+			if (seg.firstTime == 0) seg.firstTime = time;
+			seg.lastSeq = seq;
+			seg.lastTime = time;
+			seg.size = pos + buf.limit();
+			tails.computeIfAbsent(room, k -> new Tail()).add(seq);
+			if (tails.size() > TAIL_ROOMS && !pruneQueued) {
+				pruneQueued = true;
+				timer.execute(this::pruneTails);
+			}
+			dirty = true;
+			return new Record(seq, time, room, line);
+		} catch (IOException e) {
+			System.out.println("history 기록 실패: " + e);
+			return null;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// 지금까지 기록한 마지막 seq (없으면 -1)
+	long lastSeq() {
+		lock.lock();
+		try {
+			return nextSeq - 1;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// 현재 세그먼트를 닫고 새 세그먼트 시작 (lock 안에서 호출)
+	private Segment roll() throws IOException {
+		Segment old = segments.get(segments.size() - 1);
+		old.log.force(false);
+		old.idx.force(false);
+		old.closeChannels();
+
+		Segment seg = new Segment(dir, nextSeq);
+		openForAppend(seg);
+
+		List<Segment> next = new ArrayList<>(segments);
+		next.add(seg);
+		segments = next;
+
+		timer.execute(this::maintain);
+		return seg;
+	}
+
+	// 모아서 fsync
+	private void sync() {
+		if (!dirty) return;
+		dirty = false;
+		Segment seg = segments.get(segments.size() - 1);
+		try {
+			FileChannel log = seg.log, idx = seg.idx;
+			if (log != null) log.force(false);
+			if (idx != null) idx.force(false);
+		} catch (IOException e) {
+			// 그 사이 세그먼트가 교체되어 닫혔으면 roll()에서 이미 fsync함
+		}
+	}
+
+
+	// ============================
+	//        읽기
+	// ============================
+
+	// 방의 최근 n개 (오래된 것부터)
+	// 방별 최근 seq로 인덱스에서 바로 찾음 (n이 TAIL보다 크면 TAIL개까지만)
+	List<Record> last(String room, int n) {
+		if (n <= 0) return new ArrayList<>();
+		if (!tailsReady) return scanLast(room, n);
+
+		Tail t = tails.get(room);
+		if (t == null) {
+			// 개수 제한으로 뺀 방일 수 있으면 (그 기록이 아직 남아 있음) 거슬러 훑음
+			return evictedUpTo >= segments.get(0).baseSeq ? scanLast(room, n) : new ArrayList<>();
+		}
+		long[] seqs = t.last(n);
+		List<Record> out = new ArrayList<>(seqs.length);
+
+		List<Segment> segs = segments;
+		try {
+			Segment seg = null;
+			ByteBuffer v = null;
+			int pos = 0;
+			for (long seq : seqs) {
+				Segment s = segmentOf(segs, seq);
+				if (s == null) continue;   // 정리되어 없어짐
+				Index ix = s.index;
+				int k = floorIndex(ix.seq, ix.count, seq);
+				int from = k < 0 ? 0 : ix.pos[k];
+				if (s != seg) {
+					seg = s;
+					v = s.view();
+					pos = from;
+				} else if (from > pos) {
+					pos = from;
+				}
+
+				// seq는 오름차순이므로 같은 세그먼트 안에서는 앞에서 멈춘 곳부터 이어서 감
+				while (pos + RECORD_HEADER + RECORD_FIXED <= v.limit() && v.getLong(pos + RECORD_HEADER) < seq) {
+					pos += RECORD_HEADER + v.getInt(pos);
+				}
+				if (pos + RECORD_HEADER + RECORD_FIXED <= v.limit() && v.getLong(pos + RECORD_HEADER) == seq) {
+					out.add(record(v, pos, room));
+				}
+			}
+		} catch (IOException e) {
+			// 읽는 도중 정리된 세그먼트는 건너뜀
+		}
+		return out;
+	}
+
+	// seq가 들어 있을 세그먼트 (baseSeq가 seq 이하인 마지막 것, 없으면 null)
+	private static Segment segmentOf(List<Segment> segs, long seq) {
+		for (int i = segs.size() - 1; i >= 0; i--) {
+			if (segs.get(i).baseSeq <= seq) return segs.get(i);
+		}
+		return null;
+	}
+
+	// 방별 최근 목록 정리 (history 스레드: 목록을 다시 만든 뒤, 보존 기간 정리 뒤, 개수를 넘었을 때)
+	// - 남은 세그먼트보다 앞의 seq만 가진 방은 뺌 (그 방의 기록은 모두 지워짐)
+	// - 그래도 TAIL_ROOMS개보다 많으면 마지막 메시지가 가장 오래된 방부터 뺌
+	private void pruneTails() {
+		lock.lock();
+		try {
+			pruneQueued = false;
+			long oldest = segments.get(0).baseSeq;
+			tails.values().removeIf(t -> t.newest() < oldest);
+
+			int over = tails.size() - TAIL_ROOMS;
+			if (over <= 0) return;
+			List<Map.Entry<String, Long>> byAge = new ArrayList<>(tails.size());
+			for (Map.Entry<String, Tail> e : tails.entrySet()) byAge.add(Map.entry(e.getKey(), e.getValue().newest()));
+			byAge.sort(Map.Entry.comparingByValue());
+			long evicted = evictedUpTo;
+			for (int i = 0; i < over; i++) {
+				tails.remove(byAge.get(i).getKey());
+				evicted = Math.max(evicted, byAge.get(i).getValue());
+			}
+			evictedUpTo = evicted;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// 방별 목록을 만드는 동안: 최신 세그먼트부터 인덱스 구간 단위로 뒤에서부터 훑는다 (TAIL_SCAN_BYTES까지만)
+	private List<Record> scanLast(String room, int n) {
+		ArrayDeque<Record> out = new ArrayDeque<>();
+		List<Segment> segs = segments;
+		long budget = TAIL_SCAN_BYTES;
+		try {
+			for (int si = segs.size() - 1; si >= 0 && out.size() < n && budget > 0; si--) {
+				Segment seg = segs.get(si);
+				Index ix = seg.index;
+				ByteBuffer v = seg.view();
+				int end = v.limit();
+
+				for (int k = ix.count - 1; k >= 0 && out.size() < n && budget > 0; k--) {
+					int start = ix.pos[k];
+					ArrayDeque<Record> chunk = new ArrayDeque<>();
+					scan(v, start, end, room, -1, Long.MIN_VALUE, Integer.MAX_VALUE, chunk);
+					while (!chunk.isEmpty() && out.size() < n) out.addFirst(chunk.pollLast());
+					budget -= end - start;
+					end = start;
+				}
+			}
+		} catch (IOException e) {
+		}
+		return new ArrayList<>(out);
+	}
+
+	// 방의 afterSeq 이후 메시지 중 최근 max개 (더 많으면 앞의 것을 버림)
+	List<Record> since(String room, long afterSeq, int max) {
+		ArrayDeque<Record> out = new ArrayDeque<>();
+		List<Segment> segs = segments;
+		try {
+			for (Segment seg : segs) {
+				if (seg.lastSeq <= afterSeq && seg != segs.get(segs.size() - 1)) continue;
+				Index ix = seg.index;
+				int k = floorIndex(ix.seq, ix.count, afterSeq + 1);
+				int start = k < 0 ? 0 : ix.pos[k];
+				ByteBuffer v = seg.view();
+				scan(v, start, v.limit(), room, afterSeq, Long.MIN_VALUE, max, out);
+			}
+		} catch (IOException e) {
+		}
+		return new ArrayList<>(out);
+	}
+
+	// 방의 특정 시각(ms) 이후 메시지 중 최근 max개
+	List<Record> sinceTime(String room, long time, int max) {
+		ArrayDeque<Record> out = new ArrayDeque<>();
+		List<Segment> segs = segments;
+		try {
+			for (Segment seg : segs) {
+				if (seg.lastTime < time && seg != segs.get(segs.size() - 1)) continue;
+				Index ix = seg.index;
+				int k = floorIndex(ix.time, ix.count, time);
+				int start = k < 0 ? 0 : ix.pos[k];
+				ByteBuffer v = seg.view();
+				scan(v, start, v.limit(), room, -1, time, max, out);
+			}
+		} catch (IOException e) {
+		}
+		return new ArrayList<>(out);
+	}
+
+	// 정렬된 배열에서 key 이하인 마지막 위치 (없으면 -1)
+	private static int floorIndex(long[] a, int n, long key) {
+		int lo = 0, hi = n - 1, ans = -1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			if (a[mid] <= key) {
+				ans = mid;
+				lo = mid + 1;
+			} else {
+				hi = mid - 1;
+			}
+		}
+		return ans;
+	}
+
+	// [start, end) 구간의 레코드 중 조건에 맞는 것을 out에 추가 (max개를 넘으면 가장 오래된 것을 뺌)
+	// 방 이름은 바이트로 비교하고 맞는 레코드만 문자열로 만든다.
+	private static void scan(ByteBuffer v, int start, int end, String room,
+	                         long afterSeq, long fromTime, int max, ArrayDeque<Record> out) {
+		byte[] want = room.getBytes(StandardCharsets.UTF_8);
+		int pos = start;
+		while (pos + RECORD_HEADER + RECORD_FIXED <= end) {
+			int len = v.getInt(pos);
+			int p = pos + RECORD_HEADER;
+			long seq = v.getLong(p);
+			long time = v.getLong(p + 8);
+			int roomLen = v.getShort(p + 16);
+			int roomAt = p + RECORD_FIXED;
+
+			if (seq > afterSeq && time >= fromTime && roomLen == want.length && sameBytes(v, roomAt, want)) {
+				if (out.size() == max) out.pollFirst();
+				out.add(record(v, pos, room));
+			}
+			pos += RECORD_HEADER + len;
+		}
+	}
+
+	// pos 위치의 레코드 (방 이름은 호출한 쪽이 확인함)
+	private static Record record(ByteBuffer v, int pos, String room) {
+		int len = v.getInt(pos);
+		int p = pos + RECORD_HEADER;
+		int roomLen = v.getShort(p + 16);
+		byte[] lb = new byte[len - RECORD_FIXED - roomLen];
+		v.get(p + RECORD_FIXED + roomLen, lb);
+		return new Record(v.getLong(p), v.getLong(p + 8), room, new String(lb, StandardCharsets.UTF_8));
+	}
+
+	private static boolean sameBytes(ByteBuffer v, int at, byte[] b) {
+		for (int i = 0; i < b.length; i++) {
+			if (v.get(at + i) != b[i]) return false;
+		}
+		return true;
+	}
+
+
+	// ============================
+	//   보존 기간 정리 / 압축
+	// ============================
+
+	// - 전체 크기나 보존 기간을 넘는 오래된 세그먼트 삭제
+	// - 보존 기간에 걸친 세그먼트는 만료된 레코드를 빼고 다시 씀
+	// - 작아진 이웃 세그먼트는 하나로 합침
+	// (history 스레드에서만 실행)
+	void maintain() {
+		try {
+			long cutoff = System.currentTimeMillis() - MAX_AGE_MS;
+
+			// 1) 통째로 지울 세그먼트
+			lock.lock();
+			try {
+				List<Segment> list = new ArrayList<>(segments);
+				long total = 0;
+				for (Segment s : list) total += s.size;
+
+				while (list.size() > 1) {
+					Segment oldest = list.get(0);
+					if (total <= MAX_BYTES && oldest.lastTime >= cutoff) break;
+					list.remove(0);
+					total -= oldest.size;
+					oldest.logFile.delete();
+					oldest.idxFile.delete();
+				}
+				segments = list;
+			} finally {
+				lock.unlock();
+			}
+
+			// 2) 보존 기간에 걸친 가장 오래된 세그먼트 다시 쓰기
+			List<Segment> list = segments;
+			if (list.size() > 1) {
+				Segment oldest = list.get(0);
+				if (oldest.firstTime < cutoff && oldest.lastTime >= cutoff) {
+					rewrite(Collections.singletonList(oldest), cutoff);
+				}
+			}
+
+			// 3) 작은 이웃 세그먼트 합치기 (현재 쓰는 세그먼트는 제외)
+			list = segments;
+			for (int i = 0; i + 2 < list.size(); i++) {
+				Segment a = list.get(i), b = list.get(i + 1);
+				if (a.size + b.size <= SEGMENT_BYTES / 2) {
+					rewrite(Arrays.asList(a, b), Long.MIN_VALUE);
+					list = segments;
+					i--;
+				}
+			}
+
+			// 4) 기록이 없어진 방의 최근 목록 빼기
+			pruneTails();
+		} catch (Exception e) {
+			System.out.println("history 정리 실패: " + e);
+		}
+	}
+
+	// 닫힌 세그먼트들을 fromTime 이후 레코드만 남겨 하나로 다시 씀
+	private void rewrite(List<Segment> olds, long fromTime) throws IOException {
+		File tmpLog = new File(dir, "compact.log.tmp");
+		Segment merged = null;
+
+		try (FileChannel out = FileChannel.open(tmpLog.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			long pos = 0;
+			for (Segment old : olds) {
+				ByteBuffer v = old.view();
+				int p = 0;
+				while (p + RECORD_HEADER + RECORD_FIXED <= v.limit()) {
+					int len = RECORD_HEADER + v.getInt(p);
+					long seq = v.getLong(p + RECORD_HEADER);
+					long time = v.getLong(p + RECORD_HEADER + 8);
+
+					if (time >= fromTime) {
+						if (merged == null) merged = new Segment(dir, seq);
+						if (pos - merged.lastIndexedPos >= INDEX_INTERVAL) merged.addIndex(seq, time, (int) pos);
+						if (merged.firstTime == 0) merged.firstTime = time;
+						merged.lastSeq = seq;
+						merged.lastTime = time;
+
+						ByteBuffer rec = v.duplicate();
+						rec.position(p).limit(p + len);
+						while (rec.hasRemaining()) pos += out.write(rec);
+					}
+					p += len;
+				}
+			}
+			out.force(false);
+			if (merged != null) merged.size = pos;
+		}
+
+		lock.lock();
+		try {
+			if (merged != null) {
+				Files.move(tmpLog.toPath(), merged.logFile.toPath(),
+						StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				writeIndexFile(merged);
+			} else {
+				tmpLog.delete();
+			}
+
+			List<Segment> list = new ArrayList<>(segments);
+			int at = list.indexOf(olds.get(0));
+			list.removeAll(olds);
+			if (merged != null) list.add(at, merged);
+			segments = list;
+
+			for (Segment old : olds) {
+				if (merged != null && old.baseSeq == merged.baseSeq) continue;
+				old.logFile.delete();
+				old.idxFile.delete();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+}
@@ -0,0 +1,112 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// ===================================================================================
+//                        지연 시간 히스토그램 (HDR 방식)
+// ===================================================================================
+
+// 값(나노초)을 로그-선형 구간에 센다. 2의 거듭제곱 구간마다 64칸으로 나누므로
+// 상대 오차는 최대 약 1.6%이고, 1ns부터 수백 년까지 칸 수는 고정(약 3700칸)이다.
+// 여러 스레드가 동시에 record() 해도 되고, 구간별로 나눠 보려면 snapshot 후 reset 한다.
+public final class LatencyHistogram {
+
+    private static final int SUB_BITS = 6;                 // 구간당 64칸
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int LINEAR = SUB_COUNT * 2;       // 0~127은 그대로
+    private static final int SIZE = LINEAR + (64 - SUB_BITS - 1) * SUB_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(SIZE);
+    private final LongAdder total = new LongAdder();
+
+    public void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        counts.incrementAndGet(indexOf(nanos));
+        total.increment();
+    }
+
+    public long count() {
+        return total.sum();
+    }
+
+    static int indexOf(long v) {
+        if (v < LINEAR) return (int) v;
+        int shift = 63 - Long.numberOfLeadingZeros(v) - SUB_BITS;
+        return LINEAR + (shift - 1) * SUB_COUNT + (int) (v >>> shift) - SUB_COUNT;
+    }
+
+    // 칸에 들어가는 가장 큰 값
+    static long highestOf(int index) {
+        if (index < LINEAR) return index;
+        int shift = (index - LINEAR) / SUB_COUNT + 1;
+        long sub = (index - LINEAR) % SUB_COUNT + SUB_COUNT;
+        return ((sub + 1) << shift) - 1;
+    }
+
+    // 현재까지의 값을 복사해서 돌려주고, reset이면 비운다
+    public Snapshot snapshot(boolean reset) {
+        long[] c = new long[SIZE];
+        long n = 0;
+        for (int i = 0; i < SIZE; i++) {
+            c[i] = reset ? counts.getAndSet(i, 0) : counts.get(i);
+            n += c[i];
+        }
+        if (reset) total.add(-n);
+        return new Snapshot(c, n);
+    }
+
+    // ===================================================================================
+    //                               백분위 계산
+    // ===================================================================================
+    public static final class Snapshot {
+        private final long[] counts;
+        private long total;
+
+        private Snapshot(long[] counts, long total) {
+            this.counts = counts;
+            this.total = total;
+        }
+
+        public long count() {
+            return total;
+        }
+
+        // 다른 구간의 값을 합침 (전체 요약용)
+        public void add(Snapshot other) {
+            for (int i = 0; i < SIZE; i++) counts[i] += other.counts[i];
+            total += other.total;
+        }
+
+        public long percentile(double p) {
+            if (total == 0) return 0;
+
+            long rank = Math.max(1, (long) Math.ceil(p / 100.0 * total));
+            long seen = 0;
+            for (int i = 0; i < SIZE; i++) {
+                seen += counts[i];
+                if (seen >= rank) return highestOf(i);
+            }
+            return max();
+        }
+
+        public long max() {
+            for (int i = SIZE - 1; i >= 0; i--) {
+                if (counts[i] != 0) return highestOf(i);
+            }
+            return 0;
+        }
+
+        // "p50=1.2ms p90=... max=..." 형식
+        public String summary() {
+            return "p50=" + fmt(percentile(50)) + " p90=" + fmt(percentile(90))
+                    + " p99=" + fmt(percentile(99)) + " p99.9=" + fmt(percentile(99.9))
+                    + " max=" + fmt(max());
+        }
+
+        static String fmt(long nanos) {
+            if (nanos < 1_000) return nanos + "ns";
+            if (nanos < 1_000_000) return String.format("%.1fus", nanos / 1e3);
+            if (nanos < 1_000_000_000) return String.format("%.2fms", nanos / 1e6);
+            return String.format("%.2fs", nanos / 1e9);
+        }
+    }
+}
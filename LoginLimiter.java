@@ -0,0 +1,84 @@
+import java.util.concurrent.ConcurrentHashMap;
+
+// ============================
+//    로그인 시도 제한
+// ============================
+
+// IP별 시도 횟수와 ID별 실패 횟수를 토큰 버킷으로 제한한다.
+// - IP: 순간 최대 IP_BURST회, 초당 IP_RATE회씩 다시 허용 (로그인/가입 시도마다 1개)
+// - ID: 순간 최대 ID_BURST회 실패, ID_REFILL_SEC초마다 1회씩 다시 허용 (실패할 때만 1개)
+class LoginLimiter {
+
+	static final int IP_BURST = Integer.getInteger("chat.login.ip.burst", 20);
+	static final double IP_RATE = Double.parseDouble(System.getProperty("chat.login.ip.rate", "5"));
+	static final int ID_BURST = Integer.getInteger("chat.login.id.burst", 5);
+	static final double ID_REFILL_SEC = Double.parseDouble(System.getProperty("chat.login.id.refill", "30"));
+
+	// 버킷이 이만큼 쌓이면 가득 찬 버킷(= 기본 상태)을 정리
+	private static final int SWEEP_THRESHOLD = 10_000;
+
+	private final ConcurrentHashMap<String, Bucket> byIp = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<String, Bucket> byId = new ConcurrentHashMap<>();
+
+	private static final class Bucket {
+		private final double capacity;
+		private final double perNano;
+		private double tokens;
+		private long last = System.nanoTime();
+
+		Bucket(double capacity, double perSecond) {
+			this.capacity = capacity;
+			this.perNano = perSecond / 1e9;
+			this.tokens = capacity;
+		}
+
+		private void refill() {
+			long now = System.nanoTime();
+			tokens = Math.min(capacity, tokens + (now - last) * perNano);
+			last = now;
+		}
+
+		synchronized boolean take() {
+			refill();
+			if (tokens < 1) return false;
+			tokens -= 1;
+			return true;
+		}
+
+		synchronized boolean isEmpty() {
+			refill();
+			return tokens < 1;
+		}
+
+		synchronized boolean isFull() {
+			refill();
+			return tokens >= capacity;
+		}
+	}
+
+	// IP의 시도 1회 (허용되면 true)
+	boolean tryAttempt(String ip) {
+		sweep(byIp);
+		return byIp.computeIfAbsent(ip, k -> new Bucket(IP_BURST, IP_RATE)).take();
+	}
+
+	// 실패가 너무 많아 잠긴 ID인지
+	boolean isLocked(String id) {
+		Bucket b = byId.get(id);
+		return b != null && b.isEmpty();
+	}
+
+	void onFailure(String id) {
+		sweep(byId);
+		byId.computeIfAbsent(id, k -> new Bucket(ID_BURST, 1 / ID_REFILL_SEC)).take();
+	}
+
+	void onSuccess(String id) {
+		byId.remove(id);
+	}
+
+	private static void sweep(ConcurrentHashMap<String, Bucket> map) {
+		if (map.size() < SWEEP_THRESHOLD) return;
+		map.values().removeIf(Bucket::isFull);
+	}
+}
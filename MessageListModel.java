@@ -0,0 +1,150 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import javax.swing.AbstractListModel;
+
+// ===================================================================================
+//              채팅 메시지 목록 모델 (최근 줄만 메모리, 오래된 줄은 임시 파일)
+// ===================================================================================
+
+// JList는 셀 크기가 고정되어 있으면 화면에 보이는 줄만 getElementAt으로 묻는다.
+// 그래서 모델이 모든 줄을 문자열로 들고 있을 필요가 없다.
+// - 최근 capacity줄은 링 버퍼에 둔다.
+// - 밀려난 줄은 임시 파일 끝에 쓰고 위치(줄당 8바이트)만 기억한다.
+// - 위로 스크롤해서 오래된 줄이 보이면 PAGE줄씩 읽어 오고, 최근에 본 몇 페이지만 캐시한다.
+// 줄 번호는 바뀌지 않으므로 (밀려나도 같은 번호) 추가할 때 끝부분 변경 알림만 보낸다.
+// EDT에서만 사용한다.
+public class MessageListModel extends AbstractListModel<String> {
+
+    private static final long serialVersionUID = 1L;
+
+    static final int PAGE = 256;
+    static final int CACHED_PAGES = 8;
+
+    // 최근 줄 (head: 가장 오래된 줄 위치)
+    private final String[] ring;
+    private int head, count;
+
+    // 밀려난 줄: 파일 위치 + 아직 파일에 쓰지 않은 부분
+    private transient RandomAccessFile spill;
+    private File spillFile;
+    private long[] offsets = new long[1024];
+    private int spilled;
+    private long fileEnd;
+    private final transient ByteArrayOutputStream pendingSpill = new ByteArrayOutputStream();
+
+    // 다시 읽어 온 페이지 (페이지 번호 → 줄, 접근 순서 LRU)
+    private final transient Map<Integer, String[]> pages = new LinkedHashMap<Integer, String[]>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, String[]> e) {
+            return size() > CACHED_PAGES;
+        }
+    };
+
+    public MessageListModel(int capacity) {
+        this.ring = new String[Math.max(1, capacity)];
+    }
+
+    @Override
+    public int getSize() {
+        return spilled + count;
+    }
+
+    @Override
+    public String getElementAt(int index) {
+        if (index >= spilled) return ring[(head + index - spilled) % ring.length];
+
+        String[] page = pages.get(index / PAGE);
+        if (page == null) {
+            page = loadPage(index / PAGE);
+            pages.put(index / PAGE, page);
+        }
+        return page[index % PAGE];
+    }
+
+    // 여러 줄을 한 번에 추가 (변경 알림 한 번, 파일 쓰기 한 번)
+    public void addAll(List<String> lines) {
+        if (lines.isEmpty()) return;
+
+        int first = getSize();
+        for (String line : lines) add(line);
+        flushSpill();
+        fireIntervalAdded(this, first, getSize() - 1);
+    }
+
+    private void add(String line) {
+        if (count < ring.length) {
+            ring[(head + count) % ring.length] = line;
+            count++;
+            return;
+        }
+
+        // 가득 참: 가장 오래된 줄을 파일로 보내고 그 자리에 새 줄
+        spill(ring[head]);
+        ring[head] = line;
+        head = (head + 1) % ring.length;
+    }
+
+    private void spill(String line) {
+        if (spilled == offsets.length) offsets = Arrays.copyOf(offsets, offsets.length * 2);
+        offsets[spilled++] = fileEnd + pendingSpill.size();
+
+        byte[] b = line.replace('\n', ' ').getBytes(StandardCharsets.UTF_8);
+        pendingSpill.write(b, 0, b.length);
+        pendingSpill.write('\n');
+
+        // 채워지는 중이던 마지막 페이지는 캐시에서 뺌
+        pages.remove((spilled - 1) / PAGE);
+    }
+
+    private void flushSpill() {
+        if (pendingSpill.size() == 0) return;
+        try {
+            if (spill == null) {
+                spillFile = File.createTempFile("chatchat-", ".log");
+                spillFile.deleteOnExit();
+                spill = new RandomAccessFile(spillFile, "rw");
+            }
+            spill.seek(fileEnd);
+            spill.write(pendingSpill.toByteArray());
+            fileEnd += pendingSpill.size();
+        } catch (IOException e) {
+            System.out.println("메시지 기록 파일 쓰기 실패: " + e);
+        }
+        pendingSpill.reset();
+    }
+
+    private String[] loadPage(int page) {
+        int from = page * PAGE;
+        int to = Math.min(from + PAGE, spilled);
+        String[] lines = new String[PAGE];
+        Arrays.fill(lines, "");
+        if (spill == null) return lines;   // 파일을 만들지 못했음
+
+        try {
+            long start = offsets[from];
+            long end = to < spilled ? offsets[to] : fileEnd;
+            byte[] b = new byte[(int) (end - start)];
+            spill.seek(start);
+            spill.readFully(b);
+
+            int at = 0;
+            for (int i = from; i < to; i++) {
+                int len = (int) ((i + 1 < spilled ? offsets[i + 1] : fileEnd) - offsets[i]) - 1;
+                lines[i - from] = new String(b, at, len, StandardCharsets.UTF_8);
+                at += len + 1;
+            }
+        } catch (IOException e) {
+            System.out.println("메시지 기록 파일 읽기 실패: " + e);
+        }
+        return lines;
+    }
+
+    // 창을 닫을 때 임시 파일 삭제
+    public void close() {
+        try {
+            if (spill != null) spill.close();
+        } catch (IOException e) { }
+        if (spillFile != null) spillFile.delete();
+    }
+}
@@ -0,0 +1,291 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// ============================
+//    연결별 송신 대기열
+// ============================
+
+// 브로드캐스트하는 쪽은 여기에 넣기만 하고 실제 소켓 쓰기는 연결마다의 writer
+// (블로킹 모드: writer 태스크, NIO 모드: 리액터)가 한다.
+// 느린 클라이언트 하나가 보내는 사람이나 방 전체를 붙잡지 않도록 크기를 제한한다.
+//
+// 쓰기 묶기: 방금 쓴 연결은 LINGER 동안 다음 쓰기를 미뤄 그 사이에 들어온 줄을
+// 한 번에 보낸다 (쌓인 바이트가 BUDGET을 넘거나 묶음이 차면 바로). 한동안 쓰지 않은
+// 연결은 기다리지 않으므로 조용한 대화에는 지연이 붙지 않고, 붐비는 방의 연결만
+// 시스템 호출/패킷 수가 최대 초당 1/LINGER 번으로 줄어든다.
+//
+// 압축(CAPS deflate)을 켠 연결은 writer가 꺼낸 묶음을 pack()으로 한 덩어리로 압축해서 쓴다.
+// 켜는 줄(CAPSACK)까지는 압축하지 않아야 하므로, 그 줄이 빠져나간 다음 묶음부터 압축한다.
+class Outbox {
+
+	// 가득 찼을 때의 처리 방식
+	enum Overflow {
+		DROP_OLDEST,   // 가장 오래된 줄을 버리고 새 줄을 넣음
+		DISCONNECT,    // 연결을 끊음
+		COALESCE       // 새 줄을 버리고, 버린 개수를 한 줄 안내로 합쳐 나중에 전달
+	}
+
+	// 기본 설정 (-Dchat.outbox.capacity=1024, -Dchat.outbox.overflow=DROP_OLDEST)
+	static final int CAPACITY = Integer.getInteger("chat.outbox.capacity", 1024);
+	static final Overflow POLICY =
+			Overflow.valueOf(System.getProperty("chat.outbox.overflow", "DROP_OLDEST").toUpperCase());
+
+	// 쓰기 묶기 (-Dchat.write.linger=마이크로초, 0이면 끔 / -Dchat.write.budget=바이트)
+	static final long LINGER_NANOS = Long.getLong("chat.write.linger", 1000) * 1000;
+	static final int BUDGET = Integer.getInteger("chat.write.budget", 16 * 1024);
+
+	private final int capacity;
+	private final Overflow policy;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition notEmpty = lock.newCondition();
+	private final ArrayDeque<Frame> queue = new ArrayDeque<>();
+
+	private boolean closed;
+	private int coalesced;        // COALESCE로 버려져 아직 안내하지 않은 줄 수
+	private int bytes;            // 대기 중인 바이트
+
+	// 바이너리 프레임을 협상한 연결 (생략 안내도 그 형식으로)
+	volatile boolean binary;
+
+	// 압축: untilDeflate개가 더 빠져나가면 pendingDeflate를 켬 (켠 뒤의 deflate는 writer만 사용)
+	private Deflate.Out pendingDeflate;
+	private int untilDeflate;
+	private Deflate.Out deflate;
+
+	// 통계 (연결별)
+	private long enqueued;      // 넣은 줄 수
+	private long dropped;       // 넘쳐서 버린 줄 수
+	private int highWater;      // 최대 대기 줄 수
+
+	Outbox() {
+		this(CAPACITY, POLICY);
+	}
+
+	Outbox(int capacity, Overflow policy) {
+		this.capacity = Math.max(1, capacity);
+		this.policy = policy;
+	}
+
+	// 한 줄 넣기. false를 반환하면 연결을 끊어야 한다 (DISCONNECT 정책).
+	boolean offer(Frame frame) {
+		lock.lock();
+		try {
+			if (closed) return true;
+
+			if (queue.size() >= capacity) {
+				dropped++;
+				switch (policy) {
+					case DISCONNECT:
+						closed = true;
+						queue.clear();
+						bytes = 0;
+						notEmpty.signal();
+						return false;
+					case COALESCE:
+						coalesced++;
+						return true;
+					default:
+						bytes -= queue.poll().length();
+						if (untilDeflate > 0) untilDeflate--;
+				}
+			}
+
+			queue.add(frame);
+			bytes += frame.length();
+			enqueued++;
+			if (queue.size() > highWater) highWater = queue.size();
+			notEmpty.signal();
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// frame을 넣고 그 다음 줄부터 d로 압축 (사이에 다른 스레드의 줄이 끼지 않도록 한 번에)
+	boolean offerThenDeflate(Frame frame, Deflate.Out d) {
+		lock.lock();
+		try {
+			if (!offer(frame)) return false;
+			pendingDeflate = d;
+			untilDeflate = queue.size();
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// 대기 중인 줄을 dst에 최대 dst.length개 꺼냄 (기다리지 않음)
+	int drain(ByteBuffer[] dst) {
+		lock.lock();
+		try {
+			return drainLocked(dst);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// 꺼낼 줄이 생길 때까지 기다린 뒤 꺼냄. 닫혔고 비어 있으면 0
+	// notBefore(System.nanoTime 기준)까지는 묶음이 찰 때만 꺼낸다 (쓰기 묶기).
+	int await(ByteBuffer[] dst, long notBefore) throws InterruptedException {
+		lock.lock();
+		try {
+			while (queue.isEmpty() && coalesced == 0 && !closed) {
+				notEmpty.await();
+			}
+			long wait;
+			while (!readyLocked(dst.length) && (wait = notBefore - System.nanoTime()) > 0) {
+				notEmpty.awaitNanos(wait);
+			}
+			return drainLocked(dst);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// 기다리지 않고 바로 보낼 만큼 쌓였는지 (묶음 크기 batch 기준)
+	boolean ready(int batch) {
+		lock.lock();
+		try {
+			return readyLocked(batch);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private boolean readyLocked(int batch) {
+		return closed || bytes >= BUDGET || queue.size() >= batch;
+	}
+
+	// 꺼낼 때 수신자용 view로 바꿔 담는다 (공유 프레임의 position을 건드리지 않도록)
+	// 압축을 켤 차례가 되면 그 앞까지만 꺼낸다 (한 묶음은 전부 압축하거나 전부 그대로)
+	private int drainLocked(ByteBuffer[] dst) {
+		int n = 0;
+		while (n < dst.length && !queue.isEmpty()) {
+			if (pendingDeflate != null && untilDeflate == 0) {
+				if (n > 0) return n;
+				startDeflate();
+			}
+			Frame f = queue.poll();
+			bytes -= f.length();
+			dst[n++] = f.buffer();
+			if (untilDeflate > 0) untilDeflate--;
+		}
+
+		// 버려진 줄이 있었으면 대기열이 빠진 뒤 한 줄로 알림
+		if (coalesced > 0 && queue.isEmpty() && n < dst.length) {
+			if (pendingDeflate != null && untilDeflate == 0) {
+				if (n > 0) return n;
+				startDeflate();
+			}
+			Frame notice = Frame.of("MESSAGE ⚠ 메시지 " + coalesced + "개가 생략되었습니다");
+			dst[n++] = (binary ? notice.binary() : notice).buffer();
+			coalesced = 0;
+		}
+		return n;
+	}
+
+	private void startDeflate() {
+		deflate = pendingDeflate;
+		pendingDeflate = null;
+	}
+
+	// writer: drain/await로 꺼낸 묶음이 압축 뒤의 것이면 하나로 압축해서 dst[0]에 넣고 1을 돌려줌
+	// (대기열 잠금 밖에서 하므로 압축하는 동안 보내는 쪽을 막지 않는다)
+	int pack(ByteBuffer[] dst, int n) throws IOException {
+		Deflate.Out d = deflate;
+		if (d == null || n == 0) return n;
+
+		long start = System.nanoTime();
+		int raw = 0;
+		for (int i = 0; i < n; i++) raw += dst[i].remaining();
+		ByteBuffer packed = d.compress(dst, n);
+		for (int i = 1; i < n; i++) dst[i] = null;
+		dst[0] = packed;
+
+		ServerMetrics.deflateTime.record(System.nanoTime() - start);
+		ServerMetrics.deflateBytesIn.add(raw);
+		ServerMetrics.deflateBytesOut.add(packed.remaining());
+		return 1;
+	}
+
+	// 압축 상태(네이티브 메모리)를 돌려줌. writer가 끝났거나 연결이 닫힐 때 (여러 번 불러도 됨)
+	void release() {
+		Deflate.Out d, p;
+		lock.lock();
+		try {
+			d = deflate;
+			p = pendingDeflate;
+			pendingDeflate = null;
+		} finally {
+			lock.unlock();
+		}
+		if (d != null) d.end();
+		if (p != null) p.end();
+	}
+
+	// 더 이상 받지 않음. 남은 줄은 writer가 마저 꺼내 간다.
+	void close() {
+		lock.lock();
+		try {
+			closed = true;
+			notEmpty.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// 보낼 것이 남아 있지 않은지
+	boolean isEmpty() {
+		lock.lock();
+		try {
+			return queue.isEmpty() && coalesced == 0;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+
+	// ============================
+	//      통계 (연결별)
+	// ============================
+
+	int depth() {
+		lock.lock();
+		try {
+			return queue.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	int highWater() {
+		lock.lock();
+		try {
+			return highWater;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	long enqueued() {
+		lock.lock();
+		try {
+			return enqueued;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	long dropped() {
+		lock.lock();
+		try {
+			return dropped;
+		} finally {
+			lock.unlock();
+		}
+	}
+}
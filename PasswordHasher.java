@@ -0,0 +1,110 @@
+import java.security.MessageDigest;
+import java.util.concurrent.*;
+
+// ============================
+//    비밀번호 확인 전용 스레드 풀
+// ============================
+
+// 비밀번호 해시는 CPU를 많이 쓰므로 연결 스레드(리액터/핸들러)가 아니라
+// 코어 수만큼의 전용 스레드에서 계산한다. 대기열 크기를 제한해서
+// 로그인이 몰려도 채팅 처리에 쓸 CPU를 다 빼앗기지 않게 한다 (넘치면 거절).
+class PasswordHasher {
+
+	// 설정 (-Dchat.kdf.iterations, -Dchat.hash.threads, -Dchat.hash.queue)
+	static final int ITERATIONS = Integer.getInteger("chat.kdf.iterations", 120_000);
+	static final int THREADS = Integer.getInteger("chat.hash.threads", Runtime.getRuntime().availableProcessors());
+	static final int QUEUE = Integer.getInteger("chat.hash.queue", 256);
+
+	// 로그인 확인 결과
+	enum Result { OK, WRONG_PASSWORD, NO_ACCOUNT }
+
+	private final AccountStore accounts;
+	private final ThreadPoolExecutor pool;
+
+	PasswordHasher(AccountStore accounts) {
+		this.accounts = accounts;
+		this.pool = new ThreadPoolExecutor(THREADS, THREADS, 0, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<>(QUEUE), r -> {
+					Thread t = new Thread(r, "hasher");
+					t.setDaemon(true);
+					return t;
+				});
+	}
+
+	// 로그인 확인. 예전 방식(SHA-256)이거나 반복 횟수가 낮은 계정은 맞았을 때 새 방식으로 다시 저장한다.
+	// 대기열이 가득 차면 RejectedExecutionException으로 실패한 future를 돌려준다.
+	CompletableFuture<Result> verify(String id, String password) {
+		return submit(() -> {
+			AccountStore.Account acc = accounts.get(id);
+			if (acc == null) return Result.NO_ACCOUNT;
+
+			long start = System.nanoTime();
+			boolean ok = matches(acc, password);
+			ServerMetrics.hashTime.record(System.nanoTime() - start);
+			if (!ok) return Result.WRONG_PASSWORD;
+
+			if (acc.kdf != AccountStore.KDF_PBKDF2 || acc.iterations < ITERATIONS) {
+				accounts.update(derive(acc.id, password, acc.name(), acc.email()));
+			}
+			return Result.OK;
+		});
+	}
+
+	// 새 계정의 비밀번호 해시 계산
+	CompletableFuture<AccountStore.Account> create(String id, String password, String name, String email) {
+		return submit(() -> {
+			long start = System.nanoTime();
+			AccountStore.Account acc = derive(id, password, name, email);
+			ServerMetrics.hashTime.record(System.nanoTime() - start);
+			return acc;
+		});
+	}
+
+	private <T> CompletableFuture<T> submit(Callable<T> task) {
+		CompletableFuture<T> f = new CompletableFuture<>();
+		try {
+			pool.execute(() -> {
+				try {
+					f.complete(task.call());
+				} catch (Throwable e) {
+					f.completeExceptionally(e);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			f.completeExceptionally(e);
+		}
+		return f;
+	}
+
+	// 대기 중인 해시 작업 수
+	int queueDepth() {
+		return pool.getQueue().size();
+	}
+
+	// 계산 중인 해시 작업 수
+	int activeCount() {
+		return pool.getActiveCount();
+	}
+
+
+	// ============================
+	//      해시 계산
+	// ============================
+
+	private static AccountStore.Account derive(String id, String password, String name, String email) throws Exception {
+		byte[] salt = ChatServer.generateSalt();
+		byte[] hash = ChatServer.pbkdf2(password, salt, ITERATIONS);
+		return new AccountStore.Account(id, salt, hash, name, email, AccountStore.KDF_PBKDF2, ITERATIONS);
+	}
+
+	static boolean matches(AccountStore.Account acc, String password) throws Exception {
+		byte[] input;
+		if (acc.kdf == AccountStore.KDF_PBKDF2) {
+			input = ChatServer.pbkdf2(password, acc.salt, acc.iterations);
+		} else {
+			// 예전 방식: 16진수 salt 문자열 + 비밀번호의 SHA-256
+			input = AccountStore.hexToBytes(ChatServer.hashPassword(password, ChatServer.bytesToHex(acc.salt)));
+		}
+		return MessageDigest.isEqual(input, acc.hash);
+	}
+}
@@ -0,0 +1,42 @@
+import java.nio.ByteBuffer;
+
+// ============================
+//    노드 간 메시지 버스
+// ============================
+
+// 클러스터 노드끼리 메시지(Wire 프레임)를 주고받는 통로. 노드는 0..size()-1 번호로 부른다.
+// 구현은 TcpPeerBus (같은 컴퓨터의 여러 프로세스끼리도 루프백으로 동작).
+//
+// 약속:
+// - 한 노드가 다른 노드 하나에 보낸 메시지는 보낸 순서대로 도착한다.
+// - 상대에게 새로 연결될 때마다 onConnected가 불리고, 그 뒤에 보낸 것만 전달된다
+//   (끊겨 있는 동안 보낸 것은 버려짐). 받는 쪽은 연결이 끊기면 onDisconnected로
+//   그 노드에 대해 알던 상태를 지우고, 다음 연결에서 처음부터 다시 받는다.
+interface PeerBus {
+
+	interface Handler {
+		// node로 보내는 연결이 새로 생김 (이 안에서 보낸 메시지가 가장 먼저 도착)
+		void onConnected(int node);
+
+		// node에서 오는 연결이 끊김
+		void onDisconnected(int node);
+
+		// node가 보낸 메시지 하나 (payload는 호출이 끝나면 재사용됨)
+		void onMessage(int node, int op, ByteBuffer payload);
+	}
+
+	void start(Handler handler) throws Exception;
+
+	int self();
+
+	int size();
+
+	// node로 보낼 수 있는지 (자기 자신은 항상 true)
+	boolean isConnected(int node);
+
+	// 보낼 수 없으면 버림
+	void send(int node, byte[] frame);
+
+	// 자기 자신을 뺀 모든 노드에
+	void broadcast(byte[] frame);
+}
@@ -0,0 +1,179 @@
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// ============================
+//    접속자 목록 (presence)
+// ============================
+
+// 전체 접속자(이 노드 + 클러스터의 다른 노드) 집합과 버전 번호를 두고, "CAPS presence"를 고른
+// 클라이언트에게 로그인 직후 전체 목록을 한 번 보내고 그 뒤로는 바뀐 것만 보낸다.
+//
+//   ROSTER <버전> 아이디 아이디 ...        전체 목록 (길면 같은 버전으로 여러 줄)
+//   PRESENCE <버전> +들어옴 -나감 ...      변경분 (길면 같은 버전으로 여러 줄)
+//
+// - 변경은 바로 보내지 않고 WINDOW_MS 동안 모아 한 번에 보낸다. 같은 창 안에서 나갔다 다시
+//   들어온 사람(재접속)은 서로 지워져서 아무것도 보내지 않는다. 그래서 많은 사람이 한꺼번에
+//   다시 접속해도 구독자마다 창 하나에 한 줄 정도만 받는다 (입장 알림은 N명 × N줄).
+// - 전체 목록과 변경분은 같은 잠금 안에서 보내므로 사이에 빠지는 변경이 없다. 전체 목록에는
+//   아직 보내지 않은 변경도 반영되어 있고 다음 변경분에 다시 들어가지만, 같은 사람을 두 번
+//   넣거나 빼는 것은 결과가 같으므로 문제없다.
+// - 구독자는 기본 방의 입장/퇴장 알림을 받지 않는다 (RoomIndex.Room.notice).
+class Presence {
+
+	// 변경을 모으는 시간 (-Dchat.presence.window.ms=100)
+	static final long WINDOW_MS = Long.getLong("chat.presence.window.ms", 100);
+
+	// 협상 이름 (CAPS 줄에 쓰임)
+	static final String CAP = "presence";
+
+	// 한 줄 길이 (넘으면 같은 버전으로 다음 줄에 이어서)
+	private static final int MAX_LINE = 16 * 1024;
+
+	private final SessionRegistry sessions;
+	private volatile Cluster cluster;
+
+	// 아래는 모두 this로 보호
+	private final LinkedHashSet<String> online = new LinkedHashSet<>();       // 마지막으로 보낸 버전의 목록
+	private final LinkedHashMap<String, Boolean> pending = new LinkedHashMap<>(); // 아직 보내지 않은 변경 (true = 들어옴)
+	private final LinkedHashSet<ChatServer.Session> subscribers = new LinkedHashSet<>();
+	private long version;
+
+	private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread t = new Thread(r, "presence");
+		t.setDaemon(true);
+		return t;
+	});
+
+	Presence(SessionRegistry sessions) {
+		this.sessions = sessions;
+	}
+
+	void setCluster(Cluster cluster) {
+		this.cluster = cluster;
+	}
+
+
+	// ============================
+	//      변경
+	// ============================
+
+	// id의 접속 상태가 바뀌었을 수 있음 (이 노드 로그인/로그아웃, 다른 노드의 ONLINE/OFFLINE)
+	// 상태는 잠근 뒤에 다시 확인하므로 호출 순서가 엇갈려도 마지막 호출이 최신 상태를 남긴다.
+	// 노드를 옮겨 다시 로그인하면 OFFLINE이 ONLINE보다 늦게 올 수 있는데, 그때도 실제로
+	// 접속해 있는지를 보므로 목록에서 빠지지 않는다.
+	void refresh(String id) {
+		synchronized (this) {
+			boolean now = isOnline(id);
+			if (now == online.contains(id)) {
+				// 창 안에서 원래대로 돌아옴 (재접속 등): 보낼 것 없음
+				if (pending.remove(id) != null) ServerMetrics.presenceCoalesced.increment();
+				return;
+			}
+			if (pending.isEmpty()) timer.schedule(this::flush, WINDOW_MS, TimeUnit.MILLISECONDS);
+			pending.put(id, now);
+		}
+	}
+
+	private boolean isOnline(String id) {
+		ChatServer.Session s = sessions.get(id);
+		if (s != null && s.id != null) return true;   // 로그인 확인 중(id == null)은 아직 아님
+		Cluster c = cluster;
+		return c != null && c.isRemote(id);
+	}
+
+	// 모은 변경을 새 버전으로 구독자에게
+	private void flush() {
+		try {
+			synchronized (this) {
+				if (pending.isEmpty()) return;
+
+				version++;
+				List<String> ids = new ArrayList<>(pending.size());
+				for (Map.Entry<String, Boolean> e : pending.entrySet()) {
+					if (e.getValue()) {
+						online.add(e.getKey());
+						ids.add("+" + e.getKey());
+					} else {
+						online.remove(e.getKey());
+						ids.add("-" + e.getKey());
+					}
+				}
+				pending.clear();
+
+				List<Frame> frames = new ArrayList<>();
+				for (String line : lines("PRESENCE " + version, ids)) frames.add(Frame.shared(line, subscribers.size()));
+				for (ChatServer.Session s : subscribers) {
+					for (Frame f : frames) s.send(f);
+				}
+				ServerMetrics.presenceDeltas.increment();
+			}
+		} catch (Exception e) {
+			System.out.println("presence 전송 실패: " + e);
+		}
+	}
+
+
+	// ============================
+	//      구독
+	// ============================
+
+	// 로그인 직후 (NAMEACCEPTED 다음): 전체 목록을 보내고 이후 변경분을 받음
+	void subscribe(ChatServer.Session s) {
+		synchronized (this) {
+			List<String> ids = new ArrayList<>(online.size() + pending.size());
+			for (String id : online) {
+				if (pending.get(id) != Boolean.FALSE) ids.add(id);
+			}
+			for (Map.Entry<String, Boolean> e : pending.entrySet()) {
+				if (e.getValue()) ids.add(e.getKey());
+			}
+
+			for (String line : lines("ROSTER " + version, ids)) s.send(line);
+			subscribers.add(s);
+		}
+	}
+
+	// 연결 종료
+	synchronized void unsubscribe(ChatServer.Session s) {
+		subscribers.remove(s);
+	}
+
+	// head 뒤에 ids를 공백으로 이어 붙이되 MAX_LINE을 넘으면 나눔 (비어 있어도 한 줄)
+	private static List<String> lines(String head, List<String> ids) {
+		List<String> out = new ArrayList<>();
+		StringBuilder sb = new StringBuilder(head);
+		for (String id : ids) {
+			if (sb.length() + 1 + id.length() > MAX_LINE && sb.length() > head.length()) {
+				out.add(sb.toString());
+				sb.setLength(0);
+				sb.append(head);
+			}
+			sb.append(' ').append(id);
+		}
+		out.add(sb.toString());
+		return out;
+	}
+
+
+	// ============================
+	//      지표
+	// ============================
+
+	synchronized int size() {
+		return online.size();
+	}
+
+	synchronized int subscriberCount() {
+		return subscribers.size();
+	}
+
+	synchronized long version() {
+		return version;
+	}
+}
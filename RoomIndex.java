@@ -0,0 +1,212 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// ============================
+//      채팅방 목록
+// ============================
+
+// 방 이름 → 방(참여 세션 배열). 세션 → 방 목록은 각 Session이 가지고 있다.
+// 메시지는 방 참여자에게만 전달되므로 브로드캐스트 비용은 방 크기에 비례한다.
+// 방은 처음 입장할 때 만들어지고 마지막 사람이 나가면 지워진다.
+// 기본 방은 모든 접속자가 들어오므로 참여자 배열을 줄무늬(stripe)로 나눈다. 입장/퇴장은 해당 줄무늬만
+// 잠그고 복사하므로 접속자가 많아도 로그인/로그아웃마다 전체 배열을 복사하지 않는다 (지우지 않는 방).
+class RoomIndex {
+
+	// 로그인하면 자동으로 들어가는 기본 방
+	static final String LOBBY = "lobby";
+
+	// 방 이름 최대 길이
+	static final int MAX_NAME = 32;
+
+	// 기본 방 참여자 줄무늬 수 (-Dchat.room.lobby.stripes)
+	static final int LOBBY_STRIPES = Math.max(1, Integer.getInteger("chat.room.lobby.stripes", 64));
+
+	private static final ChatServer.Session[] EMPTY = new ChatServer.Session[0];
+
+	private final ConcurrentHashMap<String, Room> rooms = new ConcurrentHashMap<>();
+
+
+	// ============================
+	//          방
+	// ============================
+
+	static final class Room {
+
+		final String name;
+
+		// 참여 세션 (줄무늬별로 입장/퇴장 때 통째로 교체되는 불변 배열 → 전송은 잠금 없이)
+		// 일반 방은 줄무늬 하나, 기본 방은 LOBBY_STRIPES개
+		private final Stripe[] stripes;
+		private boolean removed;   // 비어서 목록에서 지워짐 (일반 방만, stripes[0]으로 보호)
+
+		// 통계
+		private final LongAdder messages = new LongAdder();
+		private long sampleTotal, sampleNanos = System.nanoTime();
+		private double rate;
+
+		Room(String name) {
+			this.name = name;
+			this.stripes = new Stripe[name.equals(LOBBY) ? LOBBY_STRIPES : 1];
+			for (int i = 0; i < stripes.length; i++) stripes[i] = new Stripe();
+		}
+
+		private Stripe stripeOf(ChatServer.Session s) {
+			return stripes[Math.floorMod(System.identityHashCode(s), stripes.length)];
+		}
+
+		// 방 참여자 전원에게 전송
+		void broadcast(Frame frame) {
+			long start = System.nanoTime();
+			for (Stripe st : stripes) {
+				for (ChatServer.Session s : st.members) s.send(frame);
+			}
+			ServerMetrics.fanoutTime.record(System.nanoTime() - start);
+		}
+
+		// 입장/퇴장 알림. 기본 방은 모든 접속자가 들어오므로 접속자 목록(Presence)을 받는
+		// 세션에게는 보내지 않는다 (많은 사람이 한꺼번에 다시 접속할 때 N명 × N줄이 되지 않도록)
+		void notice(Frame frame) {
+			if (!name.equals(LOBBY)) {
+				broadcast(frame);
+				return;
+			}
+			long start = System.nanoTime();
+			for (Stripe st : stripes) {
+				for (ChatServer.Session s : st.members) {
+					if (!s.roster) s.send(frame);
+				}
+			}
+			ServerMetrics.fanoutTime.record(System.nanoTime() - start);
+		}
+
+		// 채팅 메시지 전송 (메시지 수 집계 포함)
+		// 기록된 메시지(rec)면 재접속할 수 있는 세션(CAPS resume)에게는 seq를 붙인 줄을 보낸다
+		// (그 줄은 그런 세션이 처음 나올 때 한 번만 만듦). 막 들어와 기록을 받는 중인 세션은 Session.post가
+		// 기록을 다 보낼 때까지 모아 둔다.
+		void post(Frame frame, HistoryStore.Record rec) {
+			messages.increment();
+			long start = System.nanoTime();
+			Frame tagged = null;
+			for (Stripe st : stripes) {
+				for (ChatServer.Session s : st.members) {
+					if (rec != null && s.resumable) {
+						if (tagged == null) tagged = Frame.shared(ChatServer.seqLine(rec), memberCount());
+						s.post(name, tagged, rec);
+					} else {
+						s.post(name, frame, rec);
+					}
+				}
+			}
+			ServerMetrics.fanoutTime.record(System.nanoTime() - start);
+		}
+
+		int memberCount() {
+			int n = 0;
+			for (Stripe st : stripes) n += st.members.length;
+			return n;
+		}
+
+		long messageCount() {
+			return messages.sum();
+		}
+
+		// 초당 메시지 수 (마지막 측정 후 1초 이상 지났으면 다시 계산)
+		synchronized double messagesPerSecond() {
+			long now = System.nanoTime();
+			long elapsed = now - sampleNanos;
+			if (elapsed >= 1_000_000_000L) {
+				long total = messages.sum();
+				rate = (total - sampleTotal) * 1e9 / elapsed;
+				sampleTotal = total;
+				sampleNanos = now;
+			}
+			return rate;
+		}
+
+		// 일반 방의 메시지 앞에 붙는 표시 (기본 방은 기존 클라이언트와 같은 형식)
+		String tag() {
+			return name.equals(LOBBY) ? "" : "[" + name + "] ";
+		}
+	}
+
+
+	private static final class Stripe {
+		volatile ChatServer.Session[] members = EMPTY;
+	}
+
+
+	// ============================
+	//      입장 / 퇴장
+	// ============================
+
+	static boolean isValidName(String name) {
+		if (name.isEmpty() || name.length() > MAX_NAME) return false;
+		for (int i = 0; i < name.length(); i++) {
+			char c = name.charAt(i);
+			if (Character.isWhitespace(c) || c == '[' || c == ']') return false;
+		}
+		return true;
+	}
+
+	// 입장. 이미 참여 중이면 null
+	// (한 세션의 입장/퇴장은 차례로 일어나므로 참여 여부는 세션의 방 목록으로 확인)
+	Room join(String name, ChatServer.Session s) {
+		while (true) {
+			Room r = rooms.computeIfAbsent(name, Room::new);
+			if (s.rooms.contains(r)) return null;
+
+			Stripe st = r.stripeOf(s);
+			synchronized (st) {
+				// 마지막 사람이 나가면서 방금 지워진 방이면 새로 만든다
+				if (r.removed) continue;
+
+				ChatServer.Session[] old = st.members;
+				ChatServer.Session[] next = Arrays.copyOf(old, old.length + 1);
+				next[old.length] = s;
+				st.members = next;
+			}
+			s.rooms.add(r);
+			return r;
+		}
+	}
+
+	// 퇴장. 참여 중이 아니었으면 false. 일반 방은 비게 되면 지운다.
+	boolean leave(Room r, ChatServer.Session s) {
+		if (!s.rooms.remove(r)) return false;
+
+		Stripe st = r.stripeOf(s);
+		synchronized (st) {
+			ChatServer.Session[] old = st.members;
+			for (int i = 0; i < old.length; i++) {
+				if (old[i] != s) continue;
+
+				ChatServer.Session[] next = new ChatServer.Session[old.length - 1];
+				System.arraycopy(old, 0, next, 0, i);
+				System.arraycopy(old, i + 1, next, i, old.length - i - 1);
+				st.members = next;
+				break;
+			}
+
+			if (r.stripes.length == 1 && st.members.length == 0 && !r.name.equals(LOBBY)) {
+				r.removed = true;
+				rooms.remove(r.name, r);
+			}
+		}
+		return true;
+	}
+
+	Room get(String name) {
+		return rooms.get(name);
+	}
+
+	List<Room> list() {
+		return new ArrayList<>(rooms.values());
+	}
+
+	int size() {
+		return rooms.size();
+	}
+}
@@ -0,0 +1,341 @@
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import javax.management.*;
+
+// ============================
+//      서버 지표 (metrics)
+// ============================
+
+// 카운터(LongAdder)와 지연 히스토그램은 처리 경로에서 할당 없이 갱신하고,
+// 값 계산은 조회할 때만 한다. 두 가지로 조회할 수 있다.
+// - 관리 포트의 텍스트(Prometheus 형식): curl http://127.0.0.1:59002/metrics
+// - JMX: chatchat:type=Server (jconsole 등)
+class ServerMetrics implements DynamicMBean {
+
+	// 관리 포트 (-Dchat.admin.port, 0이면 끔), 기본은 로컬에서만 접속 가능
+	static final int ADMIN_PORT = Integer.getInteger("chat.admin.port", 59002);
+	static final String ADMIN_HOST = System.getProperty("chat.admin.host", "127.0.0.1");
+
+	// ---------------- 카운터 ----------------
+	static final LongAdder connectionsOpened = new LongAdder();
+	static final LongAdder connectionsClosed = new LongAdder();
+	static final LongAdder linesIn = new LongAdder();      // 받은 줄 (로그인 전 명령 포함)
+	static final LongAdder framesOut = new LongAdder();    // 송신 대기열에 넣은 프레임 (수신자 기준)
+	static final LongAdder writes = new LongAdder();       // 소켓 쓰기 시스템 호출
+	static final LongAdder framesWritten = new LongAdder(); // 쓰기로 꺼낸 프레임 (writes와 비교하면 쓰기당 프레임 수)
+	static final LongAdder whispersSpooled = new LongAdder(); // 접속하지 않은 사람에게 온 귓속말 (보관함에 넣음)
+	static final LongAdder presenceDeltas = new LongAdder();   // 접속자 목록 변경분 전송 (버전 하나당 한 번)
+	static final LongAdder presenceCoalesced = new LongAdder(); // 같은 창 안에서 되돌아가 보내지 않은 변경 (재접속 등)
+	static final LongAdder heartbeatPings = new LongAdder();    // 조용한 연결에 보낸 PING
+	static final LongAdder idleEvictions = new LongAdder();     // PING에 답이 없어 끊은 연결
+	static final LongAdder resumes = new LongAdder();           // 재접속 토큰으로 로그인 (해시 없음)
+	static final LongAdder resumeFailures = new LongAdder();    // 틀렸거나 만료된 토큰
+	static final LongAdder resumeReplayed = new LongAdder();    // 재접속 때 다시 보낸 방 메시지
+	static final LongAdder filesUploaded = new LongAdder();     // 다 올라온 파일
+	static final LongAdder filesDownloaded = new LongAdder();   // 끝까지 보낸 파일 (이어 받기 포함)
+	static final LongAdder fileBytesIn = new LongAdder();       // 파일 포트로 받은/보낸 바이트
+	static final LongAdder fileBytesOut = new LongAdder();
+	static final LongAdder deflateBytesIn = new LongAdder();    // 압축 전 / 후 바이트 (압축하는 연결만)
+	static final LongAdder deflateBytesOut = new LongAdder();
+	static final LongAdder deflateSuspensions = new LongAdder(); // CPU 포화로 압축을 멈춘 횟수
+	static final LongAdder floodThrottled = new LongAdder();    // 속도 제한으로 늦춰 보낸 메시지 (방/귓속말)
+	static final LongAdder floodDropped = new LongAdder();      // 속도 제한으로 버린 메시지
+	static final LongAdder reactorYields = new LongAdder();     // 리액터에서 줄을 QUANTUM개 처리하고 다른 연결에 차례를 넘김
+
+	// ---------------- 지연 (나노초) ----------------
+	static final LatencyHistogram loginTime = new LatencyHistogram();     // LOGIN 수신 → 응답
+	static final LatencyHistogram registerTime = new LatencyHistogram();  // REGISTER 수신 → 응답 (디스크 확정 포함)
+	static final LatencyHistogram hashTime = new LatencyHistogram();      // 해시 계산만
+	static final LatencyHistogram fanoutTime = new LatencyHistogram();    // 브로드캐스트 한 번 (대기열에 넣기까지)
+	static final LatencyHistogram spoolDelay = new LatencyHistogram();    // 보관한 귓속말: 보낸 시각 → 받는 사람 로그인
+	static final LatencyHistogram deflateTime = new LatencyHistogram();   // 쓰기 묶음 하나 압축
+
+	// ---------------- 시작 (프로세스 시작부터 초, 아직이면 -1) ----------------
+	private static volatile double listeningAfter = -1;        // 접속을 받기 시작
+	private static volatile double accountsLoadedAfter = -1;   // 계정 저장소를 다 읽음 (로그인 처리 시작)
+
+	// 다른 클래스의 상태를 읽어오는 값 (ChatServer가 등록)
+	private static final Map<String, Gauge> gauges = new LinkedHashMap<>();
+
+	private static final class Gauge {
+		final String help;
+		final LongSupplier value;
+
+		Gauge(String help, LongSupplier value) {
+			this.help = help;
+			this.value = value;
+		}
+	}
+
+	// 초당 처리량 (마지막 계산 후 1초 이상 지났으면 다시 계산)
+	private static final Rate inRate = new Rate(linesIn);
+	private static final Rate outRate = new Rate(framesOut);
+	private static final Rate writeRate = new Rate(writes);
+	private static final Rate writtenRate = new Rate(framesWritten);
+
+	private static final class Rate {
+		private final LongAdder counter;
+		private long sampleTotal, sampleNanos = System.nanoTime();
+		private double rate;
+
+		Rate(LongAdder counter) {
+			this.counter = counter;
+		}
+
+		synchronized double perSecond() {
+			long now = System.nanoTime();
+			long elapsed = now - sampleNanos;
+			if (elapsed >= 1_000_000_000L) {
+				long total = counter.sum();
+				rate = (total - sampleTotal) * 1e9 / elapsed;
+				sampleTotal = total;
+				sampleNanos = now;
+			}
+			return rate;
+		}
+	}
+
+	private ServerMetrics() {}
+
+	static void listening() {
+		listeningAfter = sinceStart();
+		System.out.printf("listening after %.2fs%n", listeningAfter);
+	}
+
+	static void accountsLoaded() {
+		accountsLoadedAfter = sinceStart();
+	}
+
+	private static double sinceStart() {
+		return (System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime()) / 1e3;
+	}
+
+	static void gauge(String name, String help, LongSupplier value) {
+		synchronized (gauges) {
+			gauges.put(name, new Gauge(help, value));
+		}
+	}
+
+
+	// ============================
+	//      값 모으기
+	// ============================
+
+	private interface Sink {
+		void header(String name, String type, String help);
+		void value(String name, String quantile, double v);
+	}
+
+	private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+	private static void collect(Sink out) {
+		gauge(out, "chat_startup_listen_seconds", "process start to accepting connections", listeningAfter);
+		gauge(out, "chat_startup_accounts_seconds", "process start to account store loaded (-1 while loading)", accountsLoadedAfter);
+
+		counter(out, "chat_connections_opened_total", "accepted connections", connectionsOpened.sum());
+		counter(out, "chat_connections_closed_total", "closed connections", connectionsClosed.sum());
+		gauge(out, "chat_connections", "open connections", connectionsOpened.sum() - connectionsClosed.sum());
+
+		counter(out, "chat_lines_in_total", "lines received from clients", linesIn.sum());
+		counter(out, "chat_frames_out_total", "frames queued to clients (per recipient)", framesOut.sum());
+		gauge(out, "chat_lines_in_per_second", "lines received per second", inRate.perSecond());
+		gauge(out, "chat_frames_out_per_second", "frames queued per second", outRate.perSecond());
+
+		counter(out, "chat_socket_writes_total", "socket write syscalls", writes.sum());
+		counter(out, "chat_frames_written_total", "frames taken from queues by writers", framesWritten.sum());
+		double w = writeRate.perSecond();
+		gauge(out, "chat_socket_writes_per_second", "socket write syscalls per second", w);
+		gauge(out, "chat_frames_per_write", "frames per socket write over the last second", w == 0 ? 0 : writtenRate.perSecond() / w);
+
+		summary(out, "chat_login_seconds", "LOGIN request to reply, including hash", loginTime);
+		summary(out, "chat_register_seconds", "REGISTER request to reply, including hash and commit", registerTime);
+		summary(out, "chat_hash_seconds", "password hash computation", hashTime);
+		summary(out, "chat_fanout_seconds", "one broadcast to all recipients' queues", fanoutTime);
+
+		counter(out, "chat_whispers_spooled_total", "whispers stored for offline users", whispersSpooled.sum());
+		summary(out, "chat_whisper_spool_delay_seconds", "stored whisper: sent to delivered on next login", spoolDelay);
+
+		counter(out, "chat_presence_deltas_total", "presence delta versions sent to subscribers", presenceDeltas.sum());
+		counter(out, "chat_presence_coalesced_total", "presence changes cancelled within one window (reconnects)", presenceCoalesced.sum());
+
+		counter(out, "chat_heartbeat_pings_total", "PINGs sent to idle connections", heartbeatPings.sum());
+		counter(out, "chat_idle_evictions_total", "connections closed for not answering PING", idleEvictions.sum());
+
+		counter(out, "chat_resumes_total", "logins with a session token instead of a password", resumes.sum());
+		counter(out, "chat_resume_failures_total", "rejected (invalid or expired) session tokens", resumeFailures.sum());
+		counter(out, "chat_resume_replayed_total", "room messages replayed to resumed sessions", resumeReplayed.sum());
+
+		counter(out, "chat_files_uploaded_total", "files completely uploaded to the file spool", filesUploaded.sum());
+		counter(out, "chat_files_downloaded_total", "file downloads sent to the end", filesDownloaded.sum());
+		counter(out, "chat_file_bytes_in_total", "bytes received on the file port", fileBytesIn.sum());
+		counter(out, "chat_file_bytes_out_total", "bytes sent on the file port", fileBytesOut.sum());
+
+		counter(out, "chat_deflate_bytes_in_total", "bytes given to per-connection deflate", deflateBytesIn.sum());
+		counter(out, "chat_deflate_bytes_out_total", "compressed bytes written by deflate connections", deflateBytesOut.sum());
+		summary(out, "chat_deflate_seconds", "compressing one write batch", deflateTime);
+		counter(out, "chat_deflate_suspensions_total", "times compression was suspended because the CPU was saturated", deflateSuspensions.sum());
+
+		counter(out, "chat_flood_throttled_total", "chat messages and whispers delayed by the per-session rate limit", floodThrottled.sum());
+		counter(out, "chat_flood_dropped_total", "chat messages and whispers dropped by the per-session rate limit", floodDropped.sum());
+		counter(out, "chat_reactor_yields_total", "times a reactor connection gave up its turn with input still buffered", reactorYields.sum());
+
+		synchronized (gauges) {
+			for (Map.Entry<String, Gauge> e : gauges.entrySet()) {
+				gauge(out, e.getKey(), e.getValue().help, e.getValue().value.getAsLong());
+			}
+		}
+	}
+
+	private static void counter(Sink out, String name, String help, double v) {
+		out.header(name, "counter", help);
+		out.value(name, null, v);
+	}
+
+	private static void gauge(Sink out, String name, String help, double v) {
+		out.header(name, "gauge", help);
+		out.value(name, null, v);
+	}
+
+	private static void summary(Sink out, String name, String help, LatencyHistogram h) {
+		LatencyHistogram.Snapshot s = h.snapshot(false);
+		out.header(name, "summary", help);
+		for (double q : QUANTILES) {
+			out.value(name, Double.toString(q), s.percentile(q * 100) / 1e9);
+		}
+		out.value(name + "_count", null, s.count());
+		gauge(out, name + "_max", "max " + help, s.max() / 1e9);
+	}
+
+
+	// ============================
+	//    텍스트 (관리 포트)
+	// ============================
+
+	static String scrape() {
+		StringBuilder sb = new StringBuilder(4096);
+		collect(new Sink() {
+			public void header(String name, String type, String help) {
+				sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+				sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+			}
+
+			public void value(String name, String quantile, double v) {
+				sb.append(name);
+				if (quantile != null) sb.append("{quantile=\"").append(quantile).append("\"}");
+				sb.append(' ');
+				if (v == Math.rint(v) && Math.abs(v) < 1e15) sb.append((long) v);
+				else sb.append(v);
+				sb.append('\n');
+			}
+		});
+		return sb.toString();
+	}
+
+	// 관리 포트와 JMX 등록
+	static void start() {
+		try {
+			ManagementFactory.getPlatformMBeanServer()
+					.registerMBean(new ServerMetrics(), new ObjectName("chatchat:type=Server"));
+		} catch (Exception e) {
+			System.out.println("JMX 등록 실패: " + e);
+		}
+
+		if (ADMIN_PORT <= 0) return;
+		try {
+			HttpServer http = HttpServer.create(new InetSocketAddress(ADMIN_HOST, ADMIN_PORT), 16);
+			http.setExecutor(Executors.newSingleThreadExecutor(r -> {
+				Thread t = new Thread(r, "admin");
+				t.setDaemon(true);
+				return t;
+			}));
+			http.createContext("/", ex -> {
+				byte[] body = scrape().getBytes(StandardCharsets.UTF_8);
+				ex.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+				ex.sendResponseHeaders(200, body.length);
+				try (OutputStream os = ex.getResponseBody()) {
+					os.write(body);
+				}
+			});
+			http.start();
+			System.out.println("metrics: http://" + ADMIN_HOST + ":" + ADMIN_PORT + "/metrics");
+		} catch (IOException e) {
+			System.out.println("관리 포트 열기 실패: " + e);
+		}
+	}
+
+
+	// ============================
+	//         JMX
+	// ============================
+
+	// 속성 이름은 텍스트와 같고, 백분위는 이름_p50 / 이름_p99 처럼 붙인다
+	private static Map<String, Double> values() {
+		Map<String, Double> map = new LinkedHashMap<>();
+		collect(new Sink() {
+			public void header(String name, String type, String help) {}
+
+			public void value(String name, String quantile, double v) {
+				map.put(quantile == null ? name : name + "_p" + quantileLabel(quantile), v);
+			}
+		});
+		return map;
+	}
+
+	private static String quantileLabel(String q) {
+		// "0.5" → "50", "0.999" → "99.9"
+		String s = Double.toString(Double.parseDouble(q) * 100);
+		return s.endsWith(".0") ? s.substring(0, s.length() - 2) : s;
+	}
+
+	@Override
+	public Object getAttribute(String attribute) throws AttributeNotFoundException {
+		Double v = values().get(attribute);
+		if (v == null) throw new AttributeNotFoundException(attribute);
+		return v;
+	}
+
+	@Override
+	public AttributeList getAttributes(String[] attributes) {
+		Map<String, Double> all = values();
+		AttributeList list = new AttributeList();
+		for (String a : attributes) {
+			if (all.containsKey(a)) list.add(new Attribute(a, all.get(a)));
+		}
+		return list;
+	}
+
+	@Override
+	public MBeanInfo getMBeanInfo() {
+		Map<String, Double> all = values();
+		MBeanAttributeInfo[] attrs = new MBeanAttributeInfo[all.size()];
+		int i = 0;
+		for (String name : all.keySet()) {
+			attrs[i++] = new MBeanAttributeInfo(name, "java.lang.Double", name, true, false, false);
+		}
+		return new MBeanInfo(ServerMetrics.class.getName(), "chat server metrics", attrs, null, null, null);
+	}
+
+	@Override
+	public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+		throw new AttributeNotFoundException("read-only: " + attribute.getName());
+	}
+
+	@Override
+	public AttributeList setAttributes(AttributeList attributes) {
+		return new AttributeList();
+	}
+
+	@Override
+	public Object invoke(String actionName, Object[] params, String[] signature) throws MBeanException {
+		throw new MBeanException(new UnsupportedOperationException(actionName));
+	}
+}
@@ -0,0 +1,43 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+// ============================
+//    접속 중인 세션 목록
+// ============================
+
+// 로그인한 세션을 ID로 찾는 맵.
+// - 로그인 선점은 ConcurrentHashMap.putIfAbsent 한 번으로 원자적으로 처리
+// - 메시지 전달은 방(RoomIndex.Room) 참여자 배열로 하므로 여기서는 조회와 목록만 한다.
+class SessionRegistry {
+
+	// ID → 세션
+	private final ConcurrentHashMap<String, ChatServer.Session> byId = new ConcurrentHashMap<>();
+
+	// 로그인 선점: 같은 ID가 이미 접속 중이면 false (중복 로그인)
+	boolean claim(String id, ChatServer.Session s) {
+		return byId.putIfAbsent(id, s) == null;
+	}
+
+	// 퇴장: 해당 세션이 ID를 가지고 있을 때만 제거
+	void remove(String id, ChatServer.Session s) {
+		byId.remove(id, s);
+	}
+
+	ChatServer.Session get(String id) {
+		return byId.get(id);
+	}
+
+	boolean isOnline(String id) {
+		return byId.containsKey(id);
+	}
+
+	int size() {
+		return byId.size();
+	}
+
+	// 통계용 목록 복사본 (순회 중 입장/퇴장해도 안전)
+	List<ChatServer.Session> list() {
+		return new ArrayList<>(byId.values());
+	}
+}
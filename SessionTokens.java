@@ -0,0 +1,131 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+// ============================
+//    재접속 토큰
+// ============================
+
+// 로그인에 성공한 클라이언트(CAPS resume)에게 서명한 토큰을 주고, 연결이 끊겨 다시 접속할 때
+// 비밀번호 대신 이것으로 로그인하게 한다. 확인은 HMAC 한 번이라 비밀번호 해시(PBKDF2)보다
+// 수천 배 싸므로 서버가 다시 뜬 직후 모든 사용자가 한꺼번에 돌아와도 해시 풀이 막히지 않는다.
+//
+//   토큰 = base64url(아이디) "." 노드 "." 만료시각(ms) "." base64url(HMAC-SHA256(앞부분))
+//
+// - 키는 파일에 두므로 서버를 다시 시작해도 이전 토큰이 유효하다. 클러스터에서는 모든 노드가
+//   같은 키 파일을 써야 다른 노드로 재접속할 수 있다 (-Dchat.resume.key).
+// - 노드 번호는 토큰을 준 노드 (방 기록의 seq가 그 노드 것이므로 재전송 방식을 고를 때 씀).
+// - 서버에 저장하는 상태가 없으므로 만료 전에 취소할 수는 없다. 클라이언트는 LOGOUT 때 버린다.
+final class SessionTokens {
+
+	// 토큰 유효 시간 (-Dchat.resume.ttl.ms, 기본 12시간)
+	static final long TTL_MS = Long.getLong("chat.resume.ttl.ms", 12L * 60 * 60 * 1000);
+
+	// 협상 이름 (CAPS 줄에 쓰임)
+	static final String CAP = "resume";
+
+	private static final int KEY_BYTES = 32;
+
+	private final SecretKeySpec key;
+
+	// Mac은 스레드 안전하지 않으므로 스레드마다 하나
+	private final ThreadLocal<Mac> macs = ThreadLocal.withInitial(this::newMac);
+
+	// 확인한 토큰 내용
+	static final class Claims {
+		final String id;
+		final int node;
+		final long expires;
+
+		Claims(String id, int node, long expires) {
+			this.id = id;
+			this.node = node;
+			this.expires = expires;
+		}
+	}
+
+	private SessionTokens(byte[] key) {
+		this.key = new SecretKeySpec(key, "HmacSHA256");
+	}
+
+	// 키 파일을 읽음 (없으면 새로 만듦)
+	static SessionTokens open(File keyFile) throws IOException {
+		if (keyFile.exists()) {
+			byte[] k = Files.readAllBytes(keyFile.toPath());
+			if (k.length < KEY_BYTES) throw new IOException("resume key too short: " + keyFile);
+			return new SessionTokens(k);
+		}
+
+		byte[] k = new byte[KEY_BYTES];
+		new SecureRandom().nextBytes(k);
+		File parent = keyFile.getAbsoluteFile().getParentFile();
+		if (parent != null && !parent.exists() && !parent.mkdirs()) throw new IOException("cannot create " + parent);
+		Files.write(keyFile.toPath(), k);
+		keyFile.setReadable(false, false);
+		keyFile.setReadable(true, true);
+		System.out.println("resume key created: " + keyFile);
+		return new SessionTokens(k);
+	}
+
+	private Mac newMac() {
+		try {
+			Mac m = Mac.getInstance("HmacSHA256");
+			m.init(key);
+			return m;
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private byte[] sign(String body) {
+		return macs.get().doFinal(body.getBytes(StandardCharsets.UTF_8));
+	}
+
+	// id에게 줄 새 토큰 (지금부터 TTL_MS 동안 유효)
+	String issue(String id, int node) {
+		Base64.Encoder b64 = Base64.getUrlEncoder().withoutPadding();
+		String body = b64.encodeToString(id.getBytes(StandardCharsets.UTF_8)) + "." + node + "."
+				+ (System.currentTimeMillis() + TTL_MS);
+		return body + "." + b64.encodeToString(sign(body));
+	}
+
+	// 만료 없는 짧은 서명 (파일 전송 허가표 등: 같은 키로 subject를 서명)
+	String ticket(String subject) {
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(sign("ticket " + subject));
+	}
+
+	boolean checkTicket(String subject, String ticket) {
+		try {
+			return MessageDigest.isEqual(Base64.getUrlDecoder().decode(ticket), sign("ticket " + subject));
+		} catch (IllegalArgumentException e) {
+			return false;
+		}
+	}
+
+	// 서명과 만료를 확인한 내용 (잘못되었거나 만료되었으면 null)
+	Claims verify(String token) {
+		try {
+			int dot = token.lastIndexOf('.');
+			if (dot < 0) return null;
+			String body = token.substring(0, dot);
+			byte[] mac = Base64.getUrlDecoder().decode(token.substring(dot + 1));
+			if (!MessageDigest.isEqual(mac, sign(body))) return null;
+
+			String[] p = body.split("\\.");
+			if (p.length != 3) return null;
+			long expires = Long.parseLong(p[2]);
+			if (expires < System.currentTimeMillis()) return null;
+			String id = new String(Base64.getUrlDecoder().decode(p[0]), StandardCharsets.UTF_8);
+			return new Claims(id, Integer.parseInt(p[1]), expires);
+		} catch (IllegalArgumentException e) {
+			return null;   // base64 / 숫자 형식 오류
+		}
+	}
+}
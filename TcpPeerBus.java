@@ -0,0 +1,287 @@
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+
+// ============================
+//    노드 간 TCP 버스
+// ============================
+
+// 모든 노드가 같은 순서의 주소 목록을 가지고 자기 번호의 주소에서 받는다.
+// 다른 노드마다 보내는 연결 하나(끊기면 RECONNECT_MS마다 다시 연결)를 두고,
+// 받는 연결은 상대가 연 것을 쓴다.
+// 받는 쪽은 연결 직후 CHALLENGE(임의 값)를 보내고, 연 쪽은 첫 프레임 HELLO(보낸 노드 번호, 서명)로
+// 답한다. 서명은 공유 키(SessionTokens 키 파일, 모든 노드가 같은 파일)로 "보낸 노드 받는 노드 임의 값"을
+// 서명한 것이라 키가 없으면 노드인 척할 수 없고, 엿들은 HELLO를 다른 연결에 다시 쓸 수도 없다.
+// 서명이 맞지 않거나 HELLO_TIMEOUT_MS 안에 오지 않으면 아무것도 처리하지 않고 끊는다.
+// 보내는 쪽은 대기열에 쌓인 것을 한 번에 써서 메시지마다 시스템 호출을 하지 않는다.
+class TcpPeerBus implements PeerBus {
+
+	static final long RECONNECT_MS = Long.getLong("chat.cluster.reconnect.ms", 1000);
+	static final int QUEUE = Integer.getInteger("chat.cluster.queue", 100_000);
+
+	// 노드 간 메시지 최대 크기 (클라이언트 한 줄 + 방 이름 등이 붙으므로 넉넉하게)
+	static final int MAX_MESSAGE = 1 << 20;
+
+	// 연결 첫 프레임 (클러스터 메시지 op와 겹치지 않게)
+	static final int CHALLENGE = 0x3f;   // 받는 쪽 → 연 쪽: 임의 값
+	static final int HELLO = 0x40;       // 연 쪽 → 받는 쪽: 노드 번호, 서명
+
+	// 인증 전에 기다리는 시간 (-Dchat.cluster.hello.timeout.ms)
+	static final int HELLO_TIMEOUT_MS = Integer.getInteger("chat.cluster.hello.timeout.ms", 5000);
+
+	private static final SecureRandom random = new SecureRandom();
+
+	// 보내는 연결을 닫은 뒤 writer를 깨우는 빈 메시지
+	private static final byte[] WAKE = new byte[0];
+
+	private final List<InetSocketAddress> peers;
+	private final int self;
+	private final Link[] links;
+	private final SessionTokens key;
+	private Handler handler;
+
+	TcpPeerBus(List<InetSocketAddress> peers, int self, SessionTokens key) {
+		this.peers = peers;
+		this.self = self;
+		this.key = key;
+		this.links = new Link[peers.size()];
+		for (int i = 0; i < links.length; i++) {
+			if (i != self) links[i] = new Link(i);
+		}
+	}
+
+	@Override
+	public void start(Handler handler) throws IOException {
+		this.handler = handler;
+
+		ServerSocket listener = new ServerSocket();
+		listener.bind(peers.get(self));
+		daemon("peer-accept", () -> acceptLoop(listener));
+
+		for (Link l : links) {
+			if (l != null) daemon("peer-out-" + l.node, l::run);
+		}
+	}
+
+	@Override
+	public int self() {
+		return self;
+	}
+
+	@Override
+	public int size() {
+		return peers.size();
+	}
+
+	@Override
+	public boolean isConnected(int node) {
+		return node == self || links[node].up;
+	}
+
+	@Override
+	public void send(int node, byte[] frame) {
+		Link l = links[node];
+		if (l != null) l.offer(frame);
+	}
+
+	@Override
+	public void broadcast(byte[] frame) {
+		for (Link l : links) {
+			if (l != null) l.offer(frame);
+		}
+	}
+
+	// HELLO 서명 대상: from 노드가 to 노드의 임의 값 nonce에 답함
+	private static String hello(int from, int to, String nonce) {
+		return "peer " + from + " " + to + " " + nonce;
+	}
+
+	private static void daemon(String name, Runnable r) {
+		Thread t = new Thread(r, name);
+		t.setDaemon(true);
+		t.start();
+	}
+
+
+	// ============================
+	//      보내는 연결
+	// ============================
+
+	private final class Link {
+		final int node;
+		final LinkedBlockingQueue<byte[]> queue = new LinkedBlockingQueue<>(QUEUE);
+		volatile boolean up;
+		volatile Socket socket;
+
+		Link(int node) {
+			this.node = node;
+		}
+
+		// 대기열이 넘치면 (상대가 너무 느림) 빠진 메시지가 생기므로 연결을 끊고
+		// 다시 연결해서 처음부터 맞춘다
+		void offer(byte[] frame) {
+			if (!up || queue.offer(frame)) return;
+			System.out.println("cluster: queue to node " + node + " overflowed, reconnecting");
+			reset();
+		}
+
+		// 연결을 닫고 writer를 깨움 (다음 쓰기가 실패해서 다시 연결)
+		void reset() {
+			up = false;
+			Socket s = socket;
+			try {
+				if (s != null) s.close();
+			} catch (IOException e) {}
+			queue.offer(WAKE);
+		}
+
+		// 상대는 이 연결로 아무것도 보내지 않으므로 읽기가 끝나면 상대가 죽었거나 끊은 것
+		// (보낼 것이 없을 때도 바로 알아채서, 다시 뜬 노드에 새로 연결하도록)
+		private void watch(Socket s) {
+			try {
+				while (s.getInputStream().read() >= 0) {}
+			} catch (IOException e) {}
+			if (socket == s) reset();
+		}
+
+		void run() {
+			while (true) {
+				boolean connected = false;
+				try (Socket s = new Socket()) {
+					s.connect(peers.get(node), (int) RECONNECT_MS);
+					s.setTcpNoDelay(true);
+					s.setKeepAlive(true);
+					s.setSoTimeout(HELLO_TIMEOUT_MS);
+					String nonce = readChallenge(s.getInputStream());
+					s.setSoTimeout(0);
+					socket = s;
+					daemon("peer-watch-" + node, () -> watch(s));
+					OutputStream out = new BufferedOutputStream(s.getOutputStream(), 64 * 1024);
+					out.write(Wire.encode(HELLO, Integer.toString(self), key.ticket(hello(self, node, nonce))));
+
+					// 끊겨 있던 동안의 것은 버리고, 연결 직후 상태(onConnected)부터 보냄
+					queue.clear();
+					up = true;
+					connected = true;
+					System.out.println("cluster: connected to node " + node);
+					handler.onConnected(node);
+
+					while (true) {
+						byte[] b = queue.take();
+						do {
+							if (b == WAKE) throw new IOException("reset");
+							out.write(b);
+						} while ((b = queue.poll()) != null);
+						out.flush();
+					}
+				} catch (IOException e) {
+					// 아래에서 다시 연결
+				} catch (InterruptedException e) {
+					return;
+				}
+
+				socket = null;
+				up = false;
+				if (connected) System.out.println("cluster: lost node " + node);
+				try {
+					Thread.sleep(RECONNECT_MS);
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+		}
+
+		// 받는 쪽이 보낸 CHALLENGE의 임의 값 (그 뒤로는 HELLO를 받기 전까지 아무것도 오지 않음)
+		private String readChallenge(InputStream in) throws IOException {
+			ByteBuffer buf = ByteBuffer.allocate(256);
+			while (true) {
+				int c = in.read();
+				if (c < 0) throw new EOFException();
+				if (!buf.hasRemaining()) throw new IOException("bad challenge");
+				buf.put((byte) c).flip();
+				ByteBuffer payload = Wire.nextFrame(buf, buf.capacity());
+				if (payload != null) {
+					if ((buf.get(0) & 0xff) != CHALLENGE) throw new IOException("bad challenge");
+					return Wire.readField(payload);
+				}
+				buf.position(buf.limit()).limit(buf.capacity());
+			}
+		}
+	}
+
+
+	// ============================
+	//      받는 연결
+	// ============================
+
+	private void acceptLoop(ServerSocket listener) {
+		while (true) {
+			try {
+				Socket s = listener.accept();
+				s.setTcpNoDelay(true);
+				daemon("peer-in", () -> readLoop(s));
+			} catch (IOException e) {
+				System.out.println("cluster: " + e);
+			}
+		}
+	}
+
+	private void readLoop(Socket s) {
+		int from = -1;
+		try (s) {
+			byte[] nonce = new byte[16];
+			random.nextBytes(nonce);
+			String challenge = Base64.getUrlEncoder().withoutPadding().encodeToString(nonce);
+			s.setSoTimeout(HELLO_TIMEOUT_MS);
+			s.getOutputStream().write(Wire.encode(CHALLENGE, challenge));
+
+			InputStream in = s.getInputStream();
+			ByteBuffer buf = ByteBuffer.allocate(64 * 1024);
+			while (true) {
+				int n = in.read(buf.array(), buf.position(), buf.remaining());
+				if (n < 0) break;
+				buf.position(buf.position() + n);
+				buf.flip();
+
+				ByteBuffer payload;
+				int start = buf.position();
+				while ((payload = Wire.nextFrame(buf, MAX_MESSAGE)) != null) {
+					int op = buf.get(start) & 0xff;
+					if (from < 0) {
+						// 첫 프레임은 서명한 HELLO
+						if (op != HELLO) return;
+						int node = Integer.parseInt(Wire.readField(payload));
+						if (node < 0 || node >= peers.size() || node == self
+								|| !key.checkTicket(hello(node, self, challenge), Wire.readField(payload))) {
+							System.out.println("cluster: rejected peer connection from " + s.getRemoteSocketAddress());
+							return;
+						}
+						from = node;
+						s.setSoTimeout(0);
+						Thread.currentThread().setName("peer-in-" + from);
+					} else {
+						handler.onMessage(from, op, payload);
+					}
+					start = buf.position();
+				}
+				buf.compact();
+
+				// 큰 메시지면 버퍼를 키움
+				if (!buf.hasRemaining()) {
+					ByteBuffer bigger = ByteBuffer.allocate(Math.min(buf.capacity() * 2, MAX_MESSAGE + 16));
+					buf.flip();
+					bigger.put(buf);
+					buf = bigger;
+				}
+			}
+		} catch (Exception e) {
+			// 연결 끊김 또는 잘못된 프레임
+		} finally {
+			if (from >= 0) handler.onDisconnected(from);
+		}
+	}
+}
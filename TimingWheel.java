@@ -0,0 +1,141 @@
+import java.util.ArrayList;
+import java.util.List;
+
+// ============================
+//    타이밍 휠 (기한 관리)
+// ============================
+
+// 연결마다 타이머 작업을 하나씩 만들지 않고, 모든 기한을 칸(bucket) 배열 하나에 나눠 담는다.
+// 기한이 d인 항목은 (d / tick) % 칸 수 번째 칸의 연결 리스트에 들어가고, 스레드 하나가
+// tick마다 다음 칸만 살펴본다 (칸 하나를 한 바퀴 넘게 기다리는 항목은 건너뜀).
+//
+// - 넣기/빼기는 O(1) (잠금 하나). 자주 바뀌는 값(마지막 입력 시각 등)은 항목이 직접 들고 있고
+//   기한이 되었을 때 expire()에서 보고 다시 걸면 되므로, 바뀔 때마다 휠을 건드리지 않는다.
+// - expire()는 잠금 밖에서 휠 스레드가 부른다. 오래 걸리는 일은 하지 않는다.
+// - 기한은 now() 기준 밀리초이고, 그 tick이 다 지난 뒤에 처리되므로 최대 tick만큼 늦다.
+//   now()는 이 클래스를 처음 쓴 때부터 잰 값이라 음수가 되지 않는다 (nanoTime은 기준점이 정해져 있지 않음).
+class TimingWheel {
+
+	// 휠에 거는 항목 (한 번에 한 곳에만 들어감)
+	abstract static class Timeout {
+		private long deadline;
+		private Timeout prev, next;
+		private int bucket = -1;      // 들어 있는 칸 (-1이면 없음)
+		private boolean cancelled;    // cancel() 뒤에는 다시 걸리지 않음
+
+		// 기한이 됨. 다시 걸 기한(now()보다 뒤)을 돌려주거나, 끝내려면 DONE
+		abstract long expire(long now);
+	}
+
+	// expire()에서 다시 걸지 않음
+	static final long DONE = -1;
+
+	private static final long ORIGIN = System.nanoTime();
+
+	private final long tickMs;
+	private final Timeout[] heads;
+	private final int mask;
+	private long doneTick;   // 처리를 마친 마지막 tick
+	private int size;
+
+	TimingWheel(String name, long tickMs, int buckets) {
+		this.tickMs = Math.max(1, tickMs);
+		this.heads = new Timeout[Integer.highestOneBit(Math.max(buckets, 2) - 1) * 2];
+		this.mask = heads.length - 1;
+		this.doneTick = now() / this.tickMs - 1;
+
+		Thread t = new Thread(this::run, name);
+		t.setDaemon(true);
+		t.start();
+	}
+
+	static long now() {
+		return (System.nanoTime() - ORIGIN) / 1_000_000;
+	}
+
+	// deadline(now() 기준)에 expire()가 불리도록 건다 (이미 걸려 있으면 옮김)
+	synchronized void schedule(Timeout t, long deadline) {
+		if (t.cancelled) return;
+		if (t.bucket >= 0) unlink(t);
+
+		// 이미 지난 칸이면 다음에 볼 칸으로
+		long tick = Math.max(deadline / tickMs, doneTick + 1);
+		int b = (int) (tick & mask);
+		t.deadline = deadline;
+		t.bucket = b;
+		t.prev = null;
+		t.next = heads[b];
+		if (t.next != null) t.next.prev = t;
+		heads[b] = t;
+		size++;
+	}
+
+	// 빼고 다시 걸리지 않게 함 (expire() 중이어도 됨)
+	synchronized void cancel(Timeout t) {
+		t.cancelled = true;
+		if (t.bucket >= 0) unlink(t);
+	}
+
+	private void unlink(Timeout t) {
+		if (t.prev != null) t.prev.next = t.next;
+		else heads[t.bucket] = t.next;
+		if (t.next != null) t.next.prev = t.prev;
+		t.prev = t.next = null;
+		t.bucket = -1;
+		size--;
+	}
+
+	// 걸려 있는 항목 수
+	synchronized int size() {
+		return size;
+	}
+
+
+	// ============================
+	//      휠 스레드
+	// ============================
+
+	private void run() {
+		List<Timeout> due = new ArrayList<>();
+		while (true) {
+			try {
+				Thread.sleep(tickMs - now() % tickMs);
+			} catch (InterruptedException e) {
+				return;
+			}
+
+			long now = now();
+			collect(now, due);
+			for (Timeout t : due) {
+				long next;
+				try {
+					next = t.expire(now);
+				} catch (Exception e) {
+					System.out.println("timer 실패: " + e);
+					next = DONE;
+				}
+				if (next != DONE) schedule(t, next);
+			}
+			due.clear();
+		}
+	}
+
+	// 다 지나간 tick의 칸들에서 기한이 된 항목을 빼서 due에 담음
+	// (잠든 사이 한 바퀴 넘게 지났으면 모든 칸을 한 번씩만 봄)
+	private synchronized void collect(long now, List<Timeout> due) {
+		long lastTick = now / tickMs - 1;
+		long from = Math.max(doneTick + 1, lastTick - mask);
+		for (long tick = from; tick <= lastTick; tick++) {
+			Timeout t = heads[(int) (tick & mask)];
+			while (t != null) {
+				Timeout next = t.next;
+				if (t.deadline <= now) {
+					unlink(t);
+					due.add(t);
+				}
+				t = next;
+			}
+		}
+		doneTick = Math.max(doneTick, lastTick);
+	}
+}
@@ -0,0 +1,254 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+// ============================
+//    귓속말 전달 / 보관함
+// ============================
+
+// 귓속말을 받는 사람이 있는 곳(이 노드 → 다른 노드)으로 보내고, 어디에도 접속해 있지 않은
+// 가입자에게 온 것은 사용자별 보관 파일에 모아 두었다가 다음 로그인(NAMEACCEPTED) 때 한꺼번에 준다.
+//
+//   spool/<아이디 UTF-8 16진수>.q   레코드: [long 보낸 시각][int 길이][줄]
+//
+// - 보관 개수는 사용자당 MAX_PER_USER, 전체 MAX_BYTES까지 (넘으면 보낸 사람에게 알림)
+// - 사용자별 Inbox를 잠그고 추가/꺼내기를 하므로 같은 사람에게 오는 것끼리만 순서를 맞추고
+//   다른 사람 것과는 서로 막지 않는다. 잠근 채로 파일을 읽고 쓰므로 synchronized 대신 ReentrantLock
+//   (가상 스레드 모드에서 캐리어 스레드를 붙잡지 않도록).
+// - 클러스터면 보낸 노드에 보관한다. 받는 사람이 어느 노드에서든 로그인하면 ONLINE이 모든 노드에
+//   오므로 각 노드가 자기 보관함을 그 노드로 보낸다.
+// - 파일은 닫을 때까지 fsync하지 않는다 (서버가 죽으면 마지막 몇 개는 잃을 수 있음).
+class WhisperRouter {
+
+	static final int MAX_PER_USER = Integer.getInteger("chat.spool.max", 200);
+	static final long MAX_BYTES = Long.getLong("chat.spool.max.bytes", 64L * 1024 * 1024);
+
+	enum Result { DELIVERED, SPOOLED, FULL, UNKNOWN }
+
+	// 사용자별 보관함 (보관한 적이 있는 사용자만, 비어도 지우지 않음)
+	private static final class Inbox {
+		final File file;
+		final ReentrantLock lock = new ReentrantLock();
+		int count;       // lock으로 보호
+		long bytes;
+
+		Inbox(File file) {
+			this.file = file;
+		}
+	}
+
+	private final File dir;
+	private final SessionRegistry sessions;
+	private final AccountStore accounts;
+	private volatile Cluster cluster;
+
+	private final ConcurrentHashMap<String, Inbox> inboxes = new ConcurrentHashMap<>();
+	private final AtomicLong spooled = new AtomicLong();        // 보관 중인 메시지 수
+	private final AtomicLong spooledBytes = new AtomicLong();
+
+	private WhisperRouter(File dir, SessionRegistry sessions, AccountStore accounts) {
+		this.dir = dir;
+		this.sessions = sessions;
+		this.accounts = accounts;
+	}
+
+	// 보관 폴더를 열고 남아 있는 보관함 개수를 셈
+	static WhisperRouter open(File dir, SessionRegistry sessions, AccountStore accounts) throws IOException {
+		if (!dir.exists() && !dir.mkdirs()) throw new IOException("cannot create " + dir);
+
+		WhisperRouter r = new WhisperRouter(dir, sessions, accounts);
+		File[] files = dir.listFiles((d, name) -> name.endsWith(".q"));
+		if (files != null) {
+			for (File f : files) r.load(f);
+		}
+		System.out.println("whisper spool: " + r.spooled.get() + " messages for " + r.inboxes.size() + " users");
+		return r;
+	}
+
+	private void load(File f) throws IOException {
+		String name = f.getName();
+		String id = new String(HexFormat.of().parseHex(name.substring(0, name.length() - 2)), StandardCharsets.UTF_8);
+
+		// 끝에 덜 쓰인 레코드가 있으면 잘라냄
+		ByteBuffer b = ByteBuffer.wrap(Files.readAllBytes(f.toPath()));
+		Inbox box = new Inbox(f);
+		while (b.remaining() >= 12) {
+			b.getLong();
+			int len = b.getInt();
+			if (len < 0 || len > b.remaining()) break;
+			b.position(b.position() + len);
+			box.count++;
+			box.bytes = b.position();
+		}
+		if (box.bytes != f.length()) {
+			try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+				raf.setLength(box.bytes);
+			}
+		}
+
+		inboxes.put(id, box);
+		spooled.addAndGet(box.count);
+		spooledBytes.addAndGet(box.bytes);
+	}
+
+	void setCluster(Cluster cluster) {
+		this.cluster = cluster;
+	}
+
+
+	// ============================
+	//      보내기
+	// ============================
+
+	// 귓속말 한 줄을 to에게: 접속 중이면 바로, 아니면 보관
+	Result send(String to, String line) {
+		ChatServer.Session target = sessions.get(to);
+		if (target != null) {
+			target.send(Frame.of(line));
+			return Result.DELIVERED;
+		}
+
+		// 다른 노드에 접속한 사람이면 그 노드로
+		Cluster c = cluster;
+		if (c != null && c.whisper(to, line)) return Result.DELIVERED;
+
+		if (!accounts.exists(to)) return Result.UNKNOWN;
+		if (!spool(to, line)) return Result.FULL;
+
+		// 보관하는 사이에 로그인했으면 (로그인 때 꺼내기가 이미 끝났을 수 있으므로) 바로 보냄
+		flush(to);
+		return Result.SPOOLED;
+	}
+
+	private boolean spool(String to, String line) {
+		byte[] b = line.getBytes(StandardCharsets.UTF_8);
+		int size = 12 + b.length;
+		Inbox box = inboxes.computeIfAbsent(to, id -> new Inbox(fileOf(id)));
+
+		box.lock.lock();
+		try {
+			if (box.count >= MAX_PER_USER || spooledBytes.get() + size > MAX_BYTES) return false;
+
+			ByteBuffer rec = ByteBuffer.allocate(size);
+			rec.putLong(System.currentTimeMillis()).putInt(b.length).put(b);
+			try (FileOutputStream out = new FileOutputStream(box.file, true)) {
+				out.write(rec.array());
+			} catch (IOException e) {
+				System.out.println("whisper spool 쓰기 실패: " + e);
+				return false;
+			}
+
+			box.count++;
+			box.bytes += size;
+		} finally {
+			box.lock.unlock();
+		}
+		spooled.incrementAndGet();
+		spooledBytes.addAndGet(size);
+		ServerMetrics.whispersSpooled.increment();
+		return true;
+	}
+
+	private File fileOf(String id) {
+		return new File(dir, HexFormat.of().formatHex(id.getBytes(StandardCharsets.UTF_8)) + ".q");
+	}
+
+
+	// ============================
+	//      꺼내기
+	// ============================
+
+	// id의 보관함을 지금 접속한 곳(이 노드 세션 또는 다른 노드)으로 보내고 비움
+	// 로그인 직후, 다른 노드의 ONLINE을 받았을 때, 보관 직후에 호출한다.
+	void flush(String id) {
+		Inbox box = inboxes.get(id);
+		if (box == null) return;
+
+		box.lock.lock();
+		try {
+			if (box.count == 0) return;
+
+			ChatServer.Session s = sessions.get(id);
+			if (s != null && s.id == null) return;   // 로그인 확인 중 (끝나면 onLoggedIn에서)
+			Cluster c = cluster;
+			if (s == null && (c == null || !c.isRemote(id))) return;
+
+			List<String> lines = read(box);
+			box.file.delete();
+			spooled.addAndGet(-box.count);
+			spooledBytes.addAndGet(-box.bytes);
+			box.count = 0;
+			box.bytes = 0;
+
+			// 잠근 채로 보내서 같은 사람에게 가는 순서를 지킴 (대기열에 넣기만 하므로 짧음)
+			for (String line : lines) {
+				if (s != null) s.send(Frame.of(line));
+				else c.whisper(id, line);
+			}
+		} finally {
+			box.lock.unlock();
+		}
+	}
+
+	// 보관된 줄들 (앞에 보낸 시각을 붙임), 전달 지연도 여기서 기록
+	private List<String> read(Inbox box) {
+		List<String> lines = new ArrayList<>(box.count);
+		ByteBuffer b;
+		try {
+			b = ByteBuffer.wrap(Files.readAllBytes(box.file.toPath()));
+		} catch (IOException e) {
+			System.out.println("whisper spool 읽기 실패: " + e);
+			return lines;
+		}
+
+		long now = System.currentTimeMillis();
+		SimpleDateFormat fmt = new SimpleDateFormat("MM-dd HH:mm");
+		while (b.remaining() >= 12) {
+			long time = b.getLong();
+			int len = b.getInt();
+			if (len < 0 || len > b.remaining()) break;
+			String line = new String(b.array(), b.position(), len, StandardCharsets.UTF_8);
+			b.position(b.position() + len);
+
+			ServerMetrics.spoolDelay.record((now - time) * 1_000_000L);
+			lines.add(offline(line, fmt.format(new Date(time))));
+		}
+		return lines;
+	}
+
+	// "MESSAGE (귓←a) 내용" → "MESSAGE [10-18 14:03 보관] (귓←a) 내용"
+	private static String offline(String line, String when) {
+		if (!line.startsWith("MESSAGE ")) return line;
+		return "MESSAGE [" + when + " 보관] " + line.substring(8);
+	}
+
+
+	// ============================
+	//      지표
+	// ============================
+
+	// 보관 중인 메시지 수
+	long depth() {
+		return spooled.get();
+	}
+
+	// 보관 중인 메시지가 있는 사용자 중 가장 많이 쌓인 수
+	long maxDepth() {
+		long max = 0;
+		for (Inbox box : inboxes.values()) max = Math.max(max, box.count);
+		return max;
+	}
+
+	long bytes() {
+		return spooledBytes.get();
+	}
+}
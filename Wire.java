@@ -0,0 +1,180 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// ============================
+//    바이너리 프레임 (서버/클라이언트 공용)
+// ============================
+
+// 연결 직후 서버가 "CAPS binary"를 알리고 클라이언트가 "CAPS binary"로 고르면
+// 그 줄 다음부터 양쪽 모두 이 형식을 쓴다 (서버는 "CAPSACK binary" 다음부터).
+//
+//   프레임 = [op 1바이트][varint 길이][내용]
+//   내용   = 필드 나열, 필드 = [varint 길이][UTF-8]
+//
+// 줄바꿈으로 자르지 않으므로 메시지에 개행이 들어가도 되고, 받는 쪽은 읽기 버퍼를
+// 복사 없이 잘라(slice) 필드만 문자열로 바꾼다.
+final class Wire {
+
+	private Wire() {}
+
+	// 협상 이름 (CAPS 줄에 쓰임)
+	static final String CAP = "binary";
+
+	// 내용 최대 크기 (텍스트 한 줄 최대 길이와 맞춤)
+	static final int MAX_PAYLOAD = 64 * 1024 - 8;
+
+	// ---------------- 서버 → 클라이언트 (텍스트 명령어와 1:1) ----------------
+	static final int LINE = 0;   // 아래 표에 없는 명령: 텍스트 한 줄 그대로
+	static final int LOGIN = 1;
+	static final int LOGINFAIL = 2;
+	static final int LOGINLIMIT = 3;
+	static final int ALREADYLOGGEDIN = 4;
+	static final int NEEDREGISTER = 5;
+	static final int REGISTERSUCCESS = 6;
+	static final int REGFAIL = 7;        // 이유
+	static final int NAMEACCEPTED = 8;   // 아이디
+	static final int MESSAGE = 9;        // 내용
+	static final int IDOK = 10;
+	static final int IDUSED = 11;
+	static final int BYE = 12;
+	static final int PING = 13;          // 하트비트 (클라이언트는 C_PONG으로 답함)
+
+	private static final String[] VERBS = {
+			null, "LOGIN", "LOGINFAIL", "LOGINLIMIT", "ALREADYLOGGEDIN", "NEEDREGISTER",
+			"REGISTERSUCCESS", "REGFAIL", "NAMEACCEPTED", "MESSAGE", "IDOK", "IDUSED", "BYE", "PING"
+	};
+
+	// ---------------- 클라이언트 → 서버 ----------------
+	static final int C_CHECKID = 0x20;          // 아이디
+	static final int C_REGISTER = 0x21;         // 아이디, 비밀번호, 이름, 이메일
+	static final int C_LOGIN = 0x22;            // 아이디, 비밀번호
+	static final int C_CANCELREGISTER = 0x23;
+	static final int C_LOGOUT = 0x24;
+	static final int C_CHAT = 0x25;             // 내용
+	static final int C_WHISPER = 0x26;          // 받는 사람, 내용
+	static final int C_JOIN = 0x27;             // 방 이름
+	static final int C_LEAVE = 0x28;            // 방 이름 (빈 문자열이면 현재 방)
+	static final int C_ROOMS = 0x29;
+	static final int C_PONG = 0x2A;             // PING에 대한 답
+	static final int C_RESUME = 0x2B;           // 토큰, 마지막 seq, 마지막 시각, 방 이름들 (공백으로 구분)
+	static final int C_SEND = 0x2C;             // 받는 사람(또는 #방), 크기, 파일 이름
+	static final int C_GET = 0x2D;              // 파일 id
+
+
+	// ============================
+	//         인코딩
+	// ============================
+
+	static byte[] encode(int op, String... fields) {
+		byte[][] data = new byte[fields.length][];
+		int len = 0;
+		for (int i = 0; i < fields.length; i++) {
+			data[i] = fields[i].getBytes(StandardCharsets.UTF_8);
+			len += varintSize(data[i].length) + data[i].length;
+		}
+
+		ByteBuffer b = ByteBuffer.allocate(1 + varintSize(len) + len);
+		b.put((byte) op);
+		putVarint(b, len);
+		for (byte[] d : data) {
+			putVarint(b, d.length);
+			b.put(d);
+		}
+		return b.array();
+	}
+
+	// 서버가 보내는 텍스트 한 줄 → 프레임 ("명령 나머지" → op + 필드 1개)
+	static byte[] fromLine(String line) {
+		int sp = line.indexOf(' ');
+		String verb = sp < 0 ? line : line.substring(0, sp);
+		for (int op = 1; op < VERBS.length; op++) {
+			if (!VERBS[op].equals(verb)) continue;
+			return sp < 0 ? encode(op) : encode(op, line.substring(sp + 1));
+		}
+		return encode(LINE, line);
+	}
+
+	// op에 해당하는 텍스트 명령어 (없으면 null)
+	static String verbOf(int op) {
+		return op > 0 && op < VERBS.length ? VERBS[op] : null;
+	}
+
+	private static int varintSize(int v) {
+		int n = 1;
+		while ((v >>>= 7) != 0) n++;
+		return n;
+	}
+
+	private static void putVarint(ByteBuffer b, int v) {
+		while ((v & ~0x7f) != 0) {
+			b.put((byte) ((v & 0x7f) | 0x80));
+			v >>>= 7;
+		}
+		b.put((byte) v);
+	}
+
+
+	// ============================
+	//         디코딩
+	// ============================
+
+	// position에서 varint 하나를 읽음. 바이트가 모자라면 -1 (position은 그대로)
+	static int readVarint(ByteBuffer b) {
+		int start = b.position();
+		int v = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			if (!b.hasRemaining()) {
+				b.position(start);
+				return -1;
+			}
+			int x = b.get();
+			v |= (x & 0x7f) << shift;
+			if ((x & 0x80) == 0) return v;
+		}
+		throw new IllegalArgumentException("varint too long");
+	}
+
+	// 읽기 버퍼에서 프레임 하나를 꺼냄: 내용을 가리키는 slice (복사 없음)를 돌려주고
+	// position을 프레임 뒤로 옮긴다. op는 꺼내기 전 position의 바이트.
+	// 아직 다 오지 않았으면 null (position은 그대로)
+	static ByteBuffer nextFrame(ByteBuffer in) {
+		return nextFrame(in, MAX_PAYLOAD);
+	}
+
+	static ByteBuffer nextFrame(ByteBuffer in, int maxPayload) {
+		int start = in.position();
+		if (!in.hasRemaining()) return null;
+
+		in.get();   // op
+		int len = readVarint(in);
+		if (len < 0) {
+			in.position(start);
+			return null;
+		}
+		if (len > maxPayload) throw new IllegalArgumentException("frame too large: " + len);
+		if (in.remaining() < len) {
+			in.position(start);
+			return null;
+		}
+
+		ByteBuffer payload = in.slice(in.position(), len);
+		in.position(in.position() + len);
+		return payload;
+	}
+
+	// 내용에서 다음 필드 (남은 필드가 없으면 빈 문자열)
+	static String readField(ByteBuffer payload) {
+		if (!payload.hasRemaining()) return "";
+		int len = readVarint(payload);
+		if (len < 0 || len > payload.remaining()) throw new IllegalArgumentException("bad field");
+
+		String s;
+		if (payload.hasArray()) {
+			s = new String(payload.array(), payload.arrayOffset() + payload.position(), len, StandardCharsets.UTF_8);
+		} else {
+			s = StandardCharsets.UTF_8.decode(payload.slice(payload.position(), len)).toString();
+		}
+		payload.position(payload.position() + len);
+		return s;
+	}
+}
@@ -0,0 +1,305 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntPredicate;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+// ============================
+//    벤치마크용 서버 내부 접근
+// ============================
+
+// JMH는 기본 패키지의 벤치마크 클래스를 허용하지 않고, 서버 클래스는 기본 패키지에
+// 있어서 다른 패키지에서 직접 부를 수 없다. 이 클래스만 기본 패키지에 두고
+// 벤치마크(chatbench 패키지)에는 Runnable 등으로 감싸서 넘겨준다.
+public final class BenchSupport {
+
+	private BenchSupport() {}
+
+	// 소켓 없는 세션: 보낸 프레임은 대기열에 쌓이고 drain()으로 비운다
+	static final class BenchSession extends ChatServer.Session {
+		private final ByteBuffer[] batch = new ByteBuffer[64];
+
+		BenchSession(String id) {
+			this.id = id;
+		}
+
+		@Override
+		void close() {}
+
+		// writer가 하는 일 (대기열 비우기)
+		void drain() {
+			while (outbox.drain(batch) > 0) {}
+		}
+
+		// 압축하는 연결의 writer: 꺼낸 묶음을 압축하고 소켓에 쓸 바이트 수를 돌려줌
+		long drainPacked() {
+			long bytes = 0;
+			int n;
+			try {
+				while ((n = outbox.drain(batch)) > 0) {
+					n = outbox.pack(batch, n);
+					for (int i = 0; i < n; i++) bytes += batch[i].remaining();
+				}
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+			return bytes;
+		}
+	}
+
+
+	// ============================
+	//     브로드캐스트 / 귓속말
+	// ============================
+
+	// 기본 방(n명)에 한 줄 브로드캐스트 + 각 연결의 대기열 비우기
+	public static Runnable fanout(int recipients) {
+		RoomIndex index = new RoomIndex();
+		BenchSession[] all = new BenchSession[recipients];
+		for (int i = 0; i < recipients; i++) {
+			all[i] = new BenchSession("user" + i);
+			index.join(RoomIndex.LOBBY, all[i]);
+		}
+
+		RoomIndex.Room lobby = index.get(RoomIndex.LOBBY);
+		return () -> {
+			lobby.broadcast(Frame.shared("MESSAGE user0: benchmark message"));
+			for (BenchSession s : all) s.drain();
+		};
+	}
+
+	// 방 하나(n명)에 예문을 차례로 브로드캐스트하고, 각 연결이 압축해서 쓸 바이트 합을 돌려줌
+	// level < 0이면 압축 없음, 0이면 CPU 포화로 멈춘 상태 (NO_COMPRESSION)와 같음
+	public static LongSupplier deflateFanout(int recipients, int level) {
+		RoomIndex index = new RoomIndex();
+		BenchSession[] all = new BenchSession[recipients];
+		for (int i = 0; i < recipients; i++) {
+			all[i] = new BenchSession("user" + i);
+			index.join(RoomIndex.LOBBY, all[i]);
+			if (level >= 0) all[i].outbox.offerThenDeflate(Frame.of("CAPSACK deflate"), new Deflate.Out(level));
+			all[i].drainPacked();
+		}
+
+		// 한국어 위주의 짧은 대화, 보내는 사람은 방 인원 중에서 돌아가며
+		String[] texts = {
+				"안녕하세요 오늘 회의는 세 시에 시작합니다", "네 확인했습니다", "ㅋㅋㅋㅋㅋ 그거 진짜 웃기네요",
+				"혹시 어제 보낸 자료 보셨나요?", "지금 가는 중이에요 10분 정도 늦을 것 같아요", "감사합니다!",
+				"배포는 내일 오전에 하는 걸로 할게요", "ㅠㅠ 저는 오늘 야근입니다", "점심 뭐 드실래요?",
+				"좋아요 그럼 그렇게 진행하죠"
+		};
+		int[] next = {0};
+		return () -> {
+			int k = next[0]++;
+			index.get(RoomIndex.LOBBY).broadcast(Frame.shared("MESSAGE user" + (k * 7 % recipients) + ": " + texts[k % texts.length]));
+			long bytes = 0;
+			for (BenchSession s : all) bytes += s.drainPacked();
+			return bytes;
+		};
+	}
+
+	// 서버 세션 목록에 n명을 넣고, 그중 한 명이 귓속말/명령을 보내는 세션을 돌려준다
+	private static BenchSession online(int users) throws Exception {
+		SessionRegistry registry = (SessionRegistry) staticField("sessions");
+		BenchSession first = null;
+		for (int i = 0; i < users; i++) {
+			BenchSession s = new BenchSession("user" + i);
+			if (!registry.claim(s.id, s)) s = (BenchSession) registry.get(s.id);
+			if (first == null) first = s;
+		}
+		return first;
+	}
+
+	// 귓속말 조회만 (ID → 세션)
+	public static IntPredicate whisperLookup(int users) throws Exception {
+		online(users);
+		SessionRegistry registry = (SessionRegistry) staticField("sessions");
+		String[] ids = new String[users];
+		for (int i = 0; i < users; i++) ids[i] = "user" + i;
+		return i -> registry.get(ids[i % ids.length]) != null;
+	}
+
+	// 명령 한 줄을 처리 (onLine → 명령 분기 → 처리 → 대기열 비우기)
+	// 보내는 사람은 user0, 귓속말 상대는 user1
+	public static Consumer<String> dispatch(int users, File historyDir) throws Exception {
+		if (staticField("history") == null) setStaticField("history", HistoryStore.open(historyDir));
+
+		BenchSession s = online(Math.max(2, users));
+		BenchSession peer = (BenchSession) ((SessionRegistry) staticField("sessions")).get("user1");
+		if (s.room == null) {
+			// 로그인 직후와 같은 상태 (기본 방 입장)
+			s.onLine("/join " + RoomIndex.LOBBY);
+		}
+		s.drain();
+
+		return line -> {
+			try {
+				s.onLine(line);
+			} catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+			s.drain();
+			peer.drain();
+		};
+	}
+
+
+	// ============================
+	//     텍스트 / 바이너리 프레임
+	// ============================
+
+	// 읽기 버퍼에 들어온 귓속말 하나: 자르기 + 해석(next) → 처리 → 대기열 비우기
+	// 소켓 읽기만 빼고 연결 처리 스레드가 하는 일과 같다.
+	public static Runnable decode(boolean binary, File historyDir) throws Exception {
+		Consumer<String> setup = dispatch(2, historyDir);
+		setup.accept("/rooms");
+
+		BenchSession s = (BenchSession) ((SessionRegistry) staticField("sessions")).get("user0");
+		BenchSession peer = (BenchSession) ((SessionRegistry) staticField("sessions")).get("user1");
+		s.binaryIn = s.binaryOut = binary;
+		peer.binaryOut = binary;
+
+		String text = "benchmark whisper message";
+		byte[] in = binary
+				? Wire.encode(Wire.C_WHISPER, "user1", text)
+				: ("/w user1 " + text + "\n").getBytes(StandardCharsets.UTF_8);
+		ByteBuffer buf = ByteBuffer.wrap(in);
+
+		return () -> {
+			buf.clear();
+			try {
+				while (s.next(buf) == ChatServer.Session.DONE) {}
+			} catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+			s.drain();
+			peer.drain();
+		};
+	}
+
+	// 보내는 쪽: 응답 한 줄을 인코딩해서 연결에 줄 view까지
+	public static Supplier<ByteBuffer> encode(boolean binary) {
+		String line = "MESSAGE user0: benchmark broadcast message";
+		return binary
+				? () -> Frame.of(line).binary().buffer()
+				: () -> Frame.of(line).buffer();
+	}
+
+
+	// ============================
+	//      비밀번호 해시
+	// ============================
+
+	public static Function<byte[], String> bytesToHex() {
+		return ChatServer::bytesToHex;
+	}
+
+	// 예전 방식 (hex salt 문자열 + 비밀번호의 SHA-256)
+	public static BinaryOperator<String> hashPassword() {
+		return (password, salt) -> {
+			try {
+				return ChatServer.hashPassword(password, salt);
+			} catch (Exception e) {
+				throw new IllegalStateException(e);
+			}
+		};
+	}
+
+	// PBKDF2 (salt → hash)
+	public static UnaryOperator<byte[]> pbkdf2(String password, int iterations) {
+		return salt -> {
+			try {
+				return ChatServer.pbkdf2(password, salt, iterations);
+			} catch (Exception e) {
+				throw new IllegalStateException(e);
+			}
+		};
+	}
+
+
+	// ============================
+	//      계정 파일
+	// ============================
+
+	// 예전 형식(accounts.dat)의 계정 파일 생성: "id salt:hash name email"
+	public static void writeLegacyAccounts(File file, int lines) throws IOException {
+		try (BufferedWriter w = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+			String salt = "00112233445566778899aabbccddeeff";
+			String hash = "ffeeddccbbaa99887766554433221100ffeeddccbbaa99887766554433221100";
+			for (int i = 0; i < lines; i++) {
+				w.write("user" + i + " " + salt + ":" + hash + " name" + i + " user" + i + "@example.com\n");
+			}
+		}
+	}
+
+	// 조각별 병렬 파싱 (계정 이전 때와 같은 경로), 파싱된 계정 수 반환
+	public static int parseLegacyAccounts(File file) throws IOException {
+		return AccountStore.parseLegacy(file, accounts -> {});
+	}
+
+	// 저장소를 열고(처음이면 legacy 파일을 이전) ID 조회 함수를 돌려준다
+	public static Predicate<String> openAccounts(File dir, File legacyFile) throws IOException {
+		AccountStore store = AccountStore.open(dir, legacyFile);
+		return id -> store.get(id) != null;
+	}
+
+	// 예전 서버의 계정 표: 파일 전체를 HashMap<id, String[]{salt, hash, name, email}>로 (16진수 문자열 그대로)
+	public static Map<String, String[]> legacyAccountMap(File file) throws IOException {
+		Map<String, String[]> accounts = new HashMap<>();
+		try (var in = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = in.readLine()) != null) {
+				String[] tok = line.trim().split("\\s+");
+				if (tok.length < 4 || !tok[1].contains(":")) continue;
+				String[] sh = tok[1].split(":");
+				accounts.put(tok[0], new String[]{sh[0], sh[1], tok[2], tok[3]});
+			}
+		}
+		return accounts;
+	}
+
+	// 이미 이전된 저장소를 열고 ids를 한 번씩 조회한 상태 (캐시가 찬 상태)로 돌려줌
+	public static Object openWarmAccounts(File dir, String[] ids) throws IOException {
+		AccountStore store = AccountStore.open(dir, null);
+		for (String id : ids) store.get(id);
+		return store;
+	}
+
+	// 인덱스 없이 저장소 열기 (시작할 때 로그 전체를 다시 읽는 경우), 계정 수 반환
+	public static int reopenAccountsWithoutIndex(File dir) throws IOException {
+		new File(dir, "accounts.idx").delete();
+		return AccountStore.open(dir, null).size();
+	}
+
+
+	// ============================
+	//      서버 static 필드
+	// ============================
+
+	private static Object staticField(String name) {
+		try {
+			Field f = ChatServer.class.getDeclaredField(name);
+			f.setAccessible(true);
+			return f.get(null);
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static void setStaticField(String name, Object value) throws ReflectiveOperationException {
+		Field f = ChatServer.class.getDeclaredField(name);
+		f.setAccessible(true);
+		f.set(null, value);
+	}
+}
@@ -0,0 +1,77 @@
+package chatbench;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import org.openjdk.jmh.annotations.*;
+
+// 계정 파일: 예전 accounts.dat 형식 파싱 처리량, 인덱스 없이 다시 열기(시작 시간), 이전된 저장소에서 ID 조회
+@State(Scope.Benchmark)
+@Fork(1)
+public class AccountsBench {
+
+	@Param({"1000000"})
+	int lines;
+
+	private File legacy;
+	private File rebuildDir;
+	private Predicate<String> lookup;
+	private String[] ids;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		File dir = Dirs.temp("accounts");
+		legacy = new File(dir, "accounts.dat");
+		Server.call("writeLegacyAccounts", legacy, lines);
+
+		// 파싱용 원본은 남겨 두고 복사본으로 저장소 이전
+		File copy = new File(dir, "import.dat");
+		Files.copy(legacy.toPath(), copy.toPath());
+		lookup = Server.call("openAccounts", new File(dir, "accountdb"), copy);
+
+		// 다시 열기용 저장소 (조회용과 따로)
+		File copy2 = new File(dir, "import2.dat");
+		Files.copy(legacy.toPath(), copy2.toPath());
+		rebuildDir = new File(dir, "rebuilddb");
+		Server.call("openAccounts", rebuildDir, copy2);
+
+		ids = new String[1 << 16];   // 계정 캐시(기본 약 1만5천 개)보다 많이
+		for (int i = 0; i < ids.length; i++) ids[i] = "user" + (i * 7919 % lines);
+	}
+
+	// 100만 줄 파싱 1회
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Warmup(iterations = 2)
+	@Measurement(iterations = 5)
+	public int parseLegacy() {
+		return Server.call("parseLegacyAccounts", legacy);
+	}
+
+	// 인덱스 파일을 지우고 열기 1회 (로그 100만 건을 순서대로 읽어 인덱스 재구성)
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Warmup(iterations = 2)
+	@Measurement(iterations = 5)
+	public int reopenWithoutIndex() {
+		return Server.call("reopenAccountsWithoutIndex", rebuildDir);
+	}
+
+	@State(Scope.Thread)
+	public static class Cursor {
+		int next;
+	}
+
+	// 캐시를 거치는 ID 조회 (대부분 색인 → 로그 읽기)
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.NANOSECONDS)
+	@Warmup(iterations = 3, time = 1)
+	@Measurement(iterations = 5, time = 1)
+	public boolean lookup(Cursor c) {
+		return lookup.test(ids[c.next++ & (ids.length - 1)]);
+	}
+}
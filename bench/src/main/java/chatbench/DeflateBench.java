@@ -0,0 +1,44 @@
+package chatbench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import org.openjdk.jmh.annotations.*;
+
+// 연결 압축의 CPU 비용 대 줄어든 바이트: 방 하나(recipients명)에 한 줄을 브로드캐스트하고 모든 연결이
+// 묶음을 압축하기까지. 압축은 연결마다 따로 하므로 시간은 방 크기에 비례하고, 바이트는 보조 지표로 나온다.
+//   level  off = 압축 없음, 0 = CPU 포화로 멈춘 상태(저장 블록), 1 = 기본(가장 빠름), 6 = zlib 기본
+//   wireBytesPerRecipient  연결 하나가 메시지 하나에 쓰는 바이트 (off와 비교하면 절약한 대역폭)
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DeflateBench {
+
+	@Param({"10", "100", "1000"})
+	int recipients;
+
+	@Param({"off", "0", "1", "6"})
+	String level;
+
+	private LongSupplier broadcast;
+
+	@Setup
+	public void setup() {
+		broadcast = Server.call("deflateFanout", recipients, level.equals("off") ? -1 : Integer.parseInt(level));
+	}
+
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class Wire {
+		public double wireBytesPerRecipient;
+	}
+
+	@Benchmark
+	public long broadcast(Wire w) {
+		long bytes = broadcast.getAsLong();
+		w.wireBytesPerRecipient = bytes / (double) recipients;
+		return bytes;
+	}
+}
@@ -0,0 +1,25 @@
+package chatbench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+// 벤치마크용 임시 디렉터리 (JVM 종료 시 삭제)
+final class Dirs {
+
+	private Dirs() {}
+
+	static File temp(String prefix) throws IOException {
+		File dir = Files.createTempDirectory(prefix).toFile();
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> delete(dir)));
+		return dir;
+	}
+
+	private static void delete(File f) {
+		File[] children = f.listFiles();
+		if (children != null) {
+			for (File c : children) delete(c);
+		}
+		f.delete();
+	}
+}
@@ -0,0 +1,31 @@
+package chatbench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import org.openjdk.jmh.annotations.*;
+
+// 로그인 후 한 줄 처리: 명령 분기(startsWith 순서) + 처리 + 대기열 비우기
+// 일반 메시지는 기록 파일 추가와 방 브로드캐스트까지 포함된다.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DispatchBench {
+
+	@Param({"hello world", "/w user1 hi", "/join lobby", "/rooms"})
+	String line;
+
+	private Consumer<String> dispatch;
+
+	@Setup
+	public void setup() throws Exception {
+		dispatch = Server.call("dispatch", 100, Dirs.temp("dispatch-history"));
+	}
+
+	@Benchmark
+	public void onLine() {
+		dispatch.accept(line);
+	}
+}
@@ -0,0 +1,29 @@
+package chatbench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// 브로드캐스트 한 번의 비용: 수신자 수만큼 대기열에 넣고 각 writer가 비우기까지
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FanoutBench {
+
+	@Param({"10", "1000", "10000"})
+	int recipients;
+
+	private Runnable broadcast;
+
+	@Setup
+	public void setup() {
+		broadcast = Server.call("fanout", recipients);
+	}
+
+	@Benchmark
+	public void broadcast() {
+		broadcast.run();
+	}
+}
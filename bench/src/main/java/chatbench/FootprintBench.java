@@ -0,0 +1,83 @@
+package chatbench;
+
+import java.io.File;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// 계정 표가 차지하는 메모리: 예전 HashMap<String, String[]>(16진수 문자열) 대 AccountStore
+// (매핑한 인덱스 + 힙 밖 캐시). 시간은 불러오는 데 걸린 시간이고, 계정당 바이트는 보조 지표로 나온다.
+//   heapBytesPerAccount    GC 후 늘어난 힙
+//   directBytesPerAccount  direct 버퍼 (캐시 슬랩)
+//   mappedBytesPerAccount  매핑한 파일 (인덱스, 페이지 캐시라 힙/GC와 무관)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgs = "-Xmx4g")
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+public class FootprintBench {
+
+	@Param({"map", "store"})
+	String table;
+
+	@Param({"1000000"})
+	int accounts;
+
+	private File legacy;
+	private File dir;
+	private String[] ids;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		File tmp = Dirs.temp("footprint");
+		legacy = new File(tmp, "accounts.dat");
+		Server.call("writeLegacyAccounts", legacy, accounts);
+
+		// 저장소는 미리 이전해 두고 측정에서는 열기만
+		File copy = new File(tmp, "import.dat");
+		Files.copy(legacy.toPath(), copy.toPath());
+		dir = new File(tmp, "accountdb");
+		Server.call("openAccounts", dir, copy);
+
+		// 캐시를 채울 만큼의 서로 다른 ID
+		ids = new String[100_000];
+		for (int i = 0; i < ids.length; i++) ids[i] = "user" + ((long) i * 7919 % accounts);
+	}
+
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class Footprint {
+		public double heapBytesPerAccount;
+		public double directBytesPerAccount;
+		public double mappedBytesPerAccount;
+	}
+
+	@Benchmark
+	public Object load(Footprint f) {
+		long heap = usedHeap(), direct = pool("direct"), mapped = pool("mapped");
+
+		Object t = table.equals("map")
+				? Server.call("legacyAccountMap", legacy)
+				: Server.call("openWarmAccounts", dir, ids);
+
+		f.heapBytesPerAccount = (usedHeap() - heap) / (double) accounts;
+		f.directBytesPerAccount = (pool("direct") - direct) / (double) accounts;
+		f.mappedBytesPerAccount = (pool("mapped") - mapped) / (double) accounts;
+		return t;
+	}
+
+	private static long usedHeap() {
+		for (int i = 0; i < 3; i++) System.gc();
+		return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+	}
+
+	private static long pool(String name) {
+		for (BufferPoolMXBean b : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+			if (b.getName().equals(name)) return b.getMemoryUsed();
+		}
+		return 0;
+	}
+}
@@ -0,0 +1,45 @@
+package chatbench;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+import org.openjdk.jmh.annotations.*;
+
+// 16진수 변환 (바이트마다 String.format)과 예전 SHA-256 비밀번호 해시
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HashBench {
+
+	private Function<byte[], String> bytesToHex;
+	private BinaryOperator<String> sha256;
+
+	private byte[] digest;
+	private String saltHex;
+
+	@Setup
+	public void setup() {
+		bytesToHex = Server.call("bytesToHex");
+		sha256 = Server.call("hashPassword");
+
+		byte[] salt = new byte[16];
+		digest = new byte[32];
+		ThreadLocalRandom.current().nextBytes(salt);
+		ThreadLocalRandom.current().nextBytes(digest);
+		saltHex = bytesToHex.apply(salt);
+	}
+
+	@Benchmark
+	public String bytesToHex() {
+		return bytesToHex.apply(digest);
+	}
+
+	@Benchmark
+	public String sha256() {
+		return sha256.apply("password123", saltHex);
+	}
+}
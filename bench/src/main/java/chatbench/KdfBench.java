@@ -0,0 +1,34 @@
+package chatbench;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.UnaryOperator;
+import org.openjdk.jmh.annotations.*;
+
+// PBKDF2 한 번의 비용 (반복 횟수별) → 해시 스레드 수 / chat.kdf.iterations 정할 때 참고
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class KdfBench {
+
+	@Param({"10000", "120000"})
+	int iterations;
+
+	private UnaryOperator<byte[]> pbkdf2;
+	private byte[] salt;
+
+	@Setup
+	public void setup() {
+		pbkdf2 = Server.call("pbkdf2", "password123", iterations);
+		salt = new byte[16];
+		ThreadLocalRandom.current().nextBytes(salt);
+	}
+
+	@Benchmark
+	public byte[] pbkdf2() {
+		return pbkdf2.apply(salt);
+	}
+}
@@ -0,0 +1,41 @@
+package chatbench;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import org.openjdk.jmh.annotations.*;
+
+// 텍스트 줄과 바이너리 프레임 비교
+// decode: 읽기 버퍼의 귓속말 하나를 잘라 해석하고 처리 (개행 찾기 + split vs 길이 + 필드)
+// encode: 응답 한 줄을 전송 단위로 만들기
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProtocolBench {
+
+	@Param({"text", "binary"})
+	String framing;
+
+	private Runnable decode;
+	private Supplier<ByteBuffer> encode;
+
+	@Setup
+	public void setup() throws Exception {
+		boolean binary = framing.equals("binary");
+		decode = Server.call("decode", binary, Dirs.temp("protocol-history"));
+		encode = Server.call("encode", binary);
+	}
+
+	@Benchmark
+	public void decode() {
+		decode.run();
+	}
+
+	@Benchmark
+	public ByteBuffer encode() {
+		return encode.get();
+	}
+}
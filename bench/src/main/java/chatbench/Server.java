@@ -0,0 +1,28 @@
+package chatbench;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+// 기본 패키지의 BenchSupport 호출 (다른 패키지에서는 import할 수 없어서 리플렉션 사용)
+// 준비 단계(@Setup)에서만 부르고, 측정 대상은 돌려받은 Runnable 등을 직접 호출한다.
+final class Server {
+
+	private Server() {}
+
+	@SuppressWarnings("unchecked")
+	static <T> T call(String name, Object... args) {
+		try {
+			Class<?> support = Class.forName("BenchSupport");
+			for (Method m : support.getMethods()) {
+				if (m.getName().equals(name) && m.getParameterCount() == args.length) {
+					return (T) m.invoke(null, args);
+				}
+			}
+			throw new IllegalArgumentException("BenchSupport." + name);
+		} catch (InvocationTargetException e) {
+			throw new IllegalStateException(e.getCause());
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,39 @@
+package chatbench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.IntPredicate;
+import org.openjdk.jmh.annotations.*;
+
+// 귓속말: 상대 세션 조회만, 그리고 "/w" 명령 전체 처리
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WhisperBench {
+
+	@Param({"10000"})
+	int users;
+
+	private IntPredicate lookup;
+	private Consumer<String> dispatch;
+	private int next;
+
+	@Setup
+	public void setup() throws Exception {
+		lookup = Server.call("whisperLookup", users);
+		dispatch = Server.call("dispatch", users, Dirs.temp("whisper-history"));
+	}
+
+	@Benchmark
+	public boolean lookup() {
+		return lookup.test(next++);
+	}
+
+	@Benchmark
+	public void whisper() {
+		dispatch.accept("/w user1 안녕하세요");
+	}
+}